@@ -13,8 +13,18 @@ public class Assembler {
     private boolean containsErrors;
 
     private Assembly asm;
+    private Instruction ins;
+    private Register reg;
     private Map<String, Integer> constants;
     private Map<String, Integer> variableSize;
+    private Map<String, Integer> variableOffset;
+    private int usedSpace;
+    private int unrollFactor;
+
+    /**
+     * Version of assembler output. Has to be increased, when byte code changes.
+     */
+    final static String VERSION = "13";
 
     // Directives
     final String CONST = ".const";
@@ -22,37 +32,59 @@ public class Assembler {
     final String BYTES = ".bytes";
     final String STRING = ".string";
 
+    /**
+     * Index scales of addresses. Position is the shift.
+     */
+    final String SCALES = "1248";
+
     public Assembler(String path) {
         this.filePath = path;
         this.containsErrors = false;
 
         asm = new Assembly();
+        ins = new Instruction();
+        reg = new Register();
         constants = new HashMap<>();
-        variableSize = new LinkedHashMap<>();
+        variableSize = new HashMap<>();
+        variableOffset = new HashMap<>();
+        usedSpace = 0;
+        unrollFactor = LoopOptimizer.DEFAULT_UNROLL_FACTOR;
     }
 
     /**
-     * Reads file line by line.
+     * Sets maximal copies of loop bodies, 1 disables unrolling.
+     *
+     * @param unrollFactor
+     */
+    public void setUnrollFactor(int unrollFactor) {
+        this.unrollFactor = unrollFactor;
+    }
+
+    /**
+     * Reads file token by token.
      */
     public boolean assemble() {
         List<Integer> assembly = new ArrayList<>();
 
-        try (BufferedReader br = new BufferedReader(new FileReader(this.filePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                // Filter whitespaces
-                line = filterLine(line);
-                if (!isEmptyLine(line)) {
-                    if (isDirective(line)) {
-                        assembly.addAll(this.parseDirective(line));
-                    }
-                    // Skip comments
-                    else {
-                        List<Integer> parsedByteCode = parseInstruction(line);
-                        if (!parsedByteCode.isEmpty()) {
-                            assembly.addAll(parsedByteCode);
-                        }
-                    }
+        try (Lexer lexer = new Lexer(new FileReader(this.filePath))) {
+            int token;
+            while ((token = lexer.next()) != Lexer.EOF) {
+                // Skip empty lines and comments
+                if (token == Lexer.EOL) continue;
+
+                int lineStart = assembly.size();
+                boolean parsed;
+
+                if (token == Lexer.WORD && isDirective(lexer.getText())) {
+                    parsed = this.parseDirective(lexer, assembly);
+                } else {
+                    parsed = this.parseInstruction(lexer, assembly);
+                }
+
+                // Drop partially assembled line
+                if (!parsed) {
+                    assembly.subList(lineStart, assembly.size()).clear();
+                    lexer.skipLine();
                 }
             }
             if (!this.containsErrors) {
@@ -67,6 +99,29 @@ public class Assembler {
         return true;
     }
 
+    /**
+     * Runs optimizers on assembled code and prints statistics.
+     */
+    public void optimize() {
+        PeepholeOptimizer peephole = new PeepholeOptimizer();
+        InliningOptimizer inlining = new InliningOptimizer();
+        DataFlowOptimizer dataFlow = new DataFlowOptimizer();
+        LoopOptimizer loop = new LoopOptimizer(this.unrollFactor);
+
+        this.asm.optimize(peephole);
+        this.asm.optimize(inlining);
+        // Removes inlined procedures, which are not called anymore
+        this.asm.optimize(dataFlow);
+        this.asm.optimize(loop);
+        // Clean up jumps to removed blocks
+        this.asm.optimize(peephole);
+
+        peephole.printStatistics();
+        inlining.printStatistics();
+        dataFlow.printStatistics();
+        loop.printStatistics();
+    }
+
     /**
      * Returns assembled byte code. Ready for runtime.
      *
@@ -87,134 +142,309 @@ public class Assembler {
 
     /**
      * Parses directive.
-     * types: constant, dword, string
+     * types: constant, dword, bytes, string
      *
-     * @param line
+     * @param lexer
+     * @param byteCode
+     * @return false if line contains errors.
      */
-    private List<Integer> parseDirective(String line) {
-        List<Integer> byteCode = new ArrayList<>();
-        String[] instruction = preProcessDirective(line.split(" "));
-
-        if (instruction.length != 3) {
-            printWarning("Ignored wrong instruction syntax", line);
-        } else {
-            String directive = instruction[0];
-            String name = instruction[1];
-            String value = instruction[2];
-
-            switch (directive) {
-                case CONST:
-                    if (constants.containsKey(name)) {
-                        printWarning("Constant already defined -> ignored", name);
-                    } else {
-                        if (isInteger(value)) {
-                            constants.put(name, Integer.parseInt(value));
-                        } else if (isHexInteger(value)) {
-                            constants.put(name, parseHexInteger(value));
-                        } else if (variableSize.containsKey(value)) {
-                            constants.put(name, variableSize.get(value));
-                        }
-                    }
-                    break;
-                case DWORD:
-                    if (variableSize.containsKey(name)) {
-                        printWarning("Dword already defined -> ignored", name);
-                    } else {
-                        if (isInteger(value)) {
-                            byteCode = this.buildAssemblerCodeDword(Integer.parseInt(value));
-                        } else if (isHexInteger(value)) {
-                            byteCode = this.buildAssemblerCodeDword(parseHexInteger(value));
-                        }
-
-                        variableSize.put(name, Integer.BYTES);
-                    }
-                    break;
-                case BYTES:
-                    if (variableSize.containsKey(name)) {
-                        printWarning("Byte array already defined -> ignored", name);
-                    } else {
-                        byteCode = this.buildAssemblerCodeByteArray(value);
-                        if (byteCode.size() > 0) {
-                            variableSize.put(name, getByteArrayLength(value)); // +1 because 0 terminated
-                        }
+    private boolean parseDirective(Lexer lexer, List<Integer> byteCode) throws IOException {
+        String directive = lexer.getText();
+        int line = lexer.getLine();
+
+        if (lexer.next() != Lexer.WORD) {
+            return printWarning("Ignored wrong instruction syntax", directive, line);
+        }
+        String name = lexer.getText();
+
+        int valueType = lexer.next();
+        if (valueType != Lexer.WORD && valueType != Lexer.STRING) {
+            return printWarning("Ignored wrong instruction syntax", directive, line);
+        }
+        if (lexer.getError() != null) {
+            return printWarning(lexer.getError(), name, line);
+        }
+        String value = lexer.getText();
+
+        if (!isEndOfLine(lexer.next())) {
+            return printWarning("Ignored wrong instruction syntax", directive, line);
+        }
+
+        switch (directive) {
+            case CONST:
+                if (constants.containsKey(name)) {
+                    return printWarning("Constant already defined -> ignored", name, line);
+                } else {
+                    if (isInteger(value)) {
+                        constants.put(name, Integer.parseInt(value));
+                    } else if (isHexInteger(value)) {
+                        constants.put(name, parseHexInteger(value));
+                    } else if (isFloat(value)) {
+                        constants.put(name, Float.floatToIntBits(Float.parseFloat(value)));
+                    } else if (variableSize.containsKey(value)) {
+                        constants.put(name, variableSize.get(value));
                     }
-                    break;
-                case STRING:
-                    if (variableSize.containsKey(name)) {
-                        printWarning("String already defined -> ignored", name);
-                    } else {
-                        byteCode = this.buildAssemblerCodeString(value);
-                        if (byteCode.size() > 0) {
-                            variableSize.put(name, getStringLength(value) + 1); // +1 because 0 terminated
-                        }
+                }
+                break;
+            case DWORD:
+                if (variableSize.containsKey(name)) {
+                    return printWarning("Dword already defined -> ignored", name, line);
+                } else {
+                    if (isInteger(value)) {
+                        this.buildAssemblerCodeDword(Integer.parseInt(value), byteCode);
+                    } else if (isHexInteger(value)) {
+                        this.buildAssemblerCodeDword(parseHexInteger(value), byteCode);
+                    } else if (isFloat(value)) {
+                        this.buildAssemblerCodeDword(Float.floatToIntBits(Float.parseFloat(value)), byteCode);
                     }
-                    break;
-            }
+
+                    addVariable(name, Integer.BYTES);
+                }
+                break;
+            case BYTES:
+                if (variableSize.containsKey(name)) {
+                    return printWarning("Byte array already defined -> ignored", name, line);
+                } else {
+                    int length = this.buildAssemblerCodeByteArray(value, byteCode, line);
+                    if (length == 0) return false;
+
+                    addVariable(name, length);
+                }
+                break;
+            case STRING:
+                if (variableSize.containsKey(name)) {
+                    return printWarning("String already defined -> ignored", name, line);
+                } else if (valueType != Lexer.STRING) {
+                    return printWarning("Wrong string format -> ' missing?", value, line);
+                } else {
+                    int length = this.buildAssemblerCodeString(value, byteCode);
+                    addVariable(name, length + 1); // +1 because 0 terminated
+                }
+                break;
+            default:
+                return printWarning("Unknown directive", directive, line);
         }
 
-        return byteCode;
+        return true;
     }
 
     /**
      * Process line and converts to binary.
      *
+     * @param lexer
+     * @param byteCode
+     * @return false if line contains errors.
+     */
+    private boolean parseInstruction(Lexer lexer, List<Integer> byteCode) throws IOException {
+        String mnemonic = lexer.getText();
+        int line = lexer.getLine();
+
+        int operand = (lexer.getType() == Lexer.WORD) ? ins.getInstructionFromMnemonic(mnemonic) : -1;
+        if (operand == -1) {
+            return printWarning("Wrong Operation code", mnemonic, line);
+        }
+
+        byteCode.add(operand);
+        if (isIndexedMemory(operand)) {
+            return this.parseIndexedMemory(lexer, operand, byteCode);
+        }
+
+        // Counter of LOOP and id of SPAWN precede label
+        if (operand == LOOP || operand == SPAWN) {
+            int register;
+            if (lexer.next() != Lexer.WORD || (register = reg.getRegisterFromMnemonic(lexer.getText())) == -1) {
+                return printWarning("Wrong register or not defined", mnemonic, line);
+            }
+            byteCode.add(register);
+        }
+
+        // Resolve label to int
+        if (operand == LABEL || operand == CALL || operand == SPAWN || ins.isBranch(operand)) {
+            if (lexer.next() != Lexer.WORD) {
+                return printWarning("Wrong formatted label", mnemonic, line);
+            }
+            byteCode.add(asm.labelToInt(lexer.getText()));
+
+            if (!isEndOfLine(lexer.next())) {
+                return printWarning("Wrong formatted label", mnemonic, line);
+            }
+            return true;
+        }
+
+        for (int i = 0; i < ins.getInstructionOffset(operand); i++) {
+            if (lexer.next() != Lexer.WORD) {
+                return printWarning("Wrong formatted arguments", mnemonic, line);
+            }
+            String arg = lexer.getText();
+            int register = reg.getRegisterFromMnemonic(arg);
+            Integer value = this.parseValue(arg);
+
+            if (register != -1) {
+                byteCode.add(register);
+            } else if (value != null) {
+                byteCode.add(value);
+            } else {
+                return printWarning("Wrong register or not defined", arg, line);
+            }
+        }
+
+        if (!isEndOfLine(lexer.next())) {
+            return printWarning("Wrong formatted arguments", mnemonic, line);
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses memory instruction with [BASE + INDEX * SCALE + DISP] operand.
+     * RMIX/RMBX REGISTER, [ADDRESS] and WMIX/WMBX [ADDRESS], REGISTER
+     *
+     * @param lexer
+     * @param operand
+     * @param byteCode
+     * @return
+     * @throws IOException
+     */
+    private boolean parseIndexedMemory(Lexer lexer, int operand, List<Integer> byteCode) throws IOException {
+        String mnemonic = lexer.getText();
+        int line = lexer.getLine();
+        boolean read = (operand == READ_MEM_INT_INDEX || operand == READ_MEM_BYTE_INDEX);
+        int register;
+
+        if (read) {
+            if (lexer.next() != Lexer.WORD || (register = reg.getRegisterFromMnemonic(lexer.getText())) == -1) {
+                return printWarning("Wrong register or not defined", mnemonic, line);
+            }
+            byteCode.add(register);
+        }
+
+        // Address may contain spaces, join words till closing bracket
+        StringBuilder address = new StringBuilder();
+        do {
+            if (lexer.next() != Lexer.WORD) {
+                return printWarning("Wrong formatted address", mnemonic, line);
+            }
+            address.append(lexer.getText());
+        } while (!lexer.getText().endsWith("]"));
+
+        if (!this.parseAddress(address.toString(), byteCode, line)) return false;
+
+        if (!read) {
+            if (lexer.next() != Lexer.WORD || (register = reg.getRegisterFromMnemonic(lexer.getText())) == -1) {
+                return printWarning("Wrong register or not defined", mnemonic, line);
+            }
+            byteCode.add(register);
+        }
+
+        if (!isEndOfLine(lexer.next())) {
+            return printWarning("Wrong formatted arguments", mnemonic, line);
+        }
+        return true;
+    }
+
+    /**
+     * Parses [BASE + INDEX * SCALE + DISP] to BASE, INDEX, SHIFT, DISP. Every part is optional, scale is 1, 2, 4 or 8
+     * and displacements may be numbers, constants or variables.
+     *
+     * @param address
+     * @param byteCode
      * @param line
      * @return
      */
-    private List<Integer> parseInstruction(String line) {
-        List<Integer> byteCode = new ArrayList<>();
-        Instruction ins = new Instruction();
-        Register reg = new Register();
-        Assembly asm = new Assembly();
-        String[] opCode = line.split(" ");
-
-        int operand = ins.getInstructionFromMnemonic(opCode[0]);
-        if (operand == -1) {
-            printWarning("Wrong Operation code", line);
-        } else {
-            byteCode.add(operand);
-            // Resolve label to int
-            if (operand == LABEL || operand == JMP || operand == JE || operand == JNE || operand == JG || operand == JB || operand == CALL) {
-                if (opCode.length != 2) {
-                    printWarning("Wrong formatted label", line);
-                    byteCode.clear();
+    private boolean parseAddress(String address, List<Integer> byteCode, int line) {
+        int base = -1;
+        int index = -1;
+        int shift = 0;
+        int displacement = 0;
+
+        if (address.length() < 3 || address.charAt(0) != '[' || address.charAt(address.length() - 1) != ']') {
+            return printWarning("Wrong formatted address", address, line);
+        }
+        String expression = address.substring(1, address.length() - 1);
+
+        int start = 0;
+        while (start < expression.length()) {
+            boolean negative = (expression.charAt(start) == '-');
+            if (negative || expression.charAt(start) == '+') start++;
+
+            int end = start;
+            while (end < expression.length() && expression.charAt(end) != '+' && expression.charAt(end) != '-') end++;
+
+            String term = expression.substring(start, end);
+            int star = term.indexOf('*');
+            int register = reg.getRegisterFromMnemonic(term);
+            start = end;
+
+            if (star >= 0) {
+                // INDEX * SCALE or SCALE * INDEX
+                String scale = term.substring(star + 1);
+                register = reg.getRegisterFromMnemonic(term.substring(0, star));
+                if (register == -1) {
+                    register = reg.getRegisterFromMnemonic(scale);
+                    scale = term.substring(0, star);
+                }
+
+                int scaleShift = SCALES.indexOf(scale);
+                if (register == -1 || negative || index != -1 || scaleShift == -1 || scale.length() != 1) {
+                    return printWarning("Wrong formatted address", address, line);
+                }
+                index = register;
+                shift = scaleShift;
+            } else if (register != -1) {
+                if (negative || index != -1) {
+                    return printWarning("Wrong formatted address", address, line);
+                }
+                if (base == -1) {
+                    base = register;
                 } else {
-                    byteCode.add(asm.labelToInt(opCode[1]));
+                    index = register;
                 }
             } else {
-                for (int i = 1; i < ins.getInstructionOffset(operand) + 1; i++) {
-                    String arg = opCode[i];
-
-                    if (arg.indexOf(' ') != -1) {
-                        printWarning("Wrong formatted arguments", arg);
-                        byteCode.clear();
-                        break;
-                    } else {
-                        if (isInteger(arg)) {
-                            byteCode.add(Integer.parseInt(arg));
-                        } else if (isHexInteger(arg)) {
-                            byteCode.add(parseHexInteger(arg));
-                        } else {
-                            int register = reg.getRegisterFromMnemonic(arg);
-                            if (register == -1) {
-                                if (constants.containsKey(arg)) {
-                                    byteCode.add(constants.get(arg));
-                                } else if (variableSize.containsKey(arg)) {
-                                    byteCode.add(this.getVariableOffset(arg));
-                                } else {
-                                    printWarning("Wrong register or not defined", arg);
-                                    byteCode.clear();
-                                }
-                            } else {
-                                byteCode.add(register);
-                            }
-                        }
-                    }
+                Integer value = this.parseValue(term);
+                if (value == null) {
+                    return printWarning("Wrong register or not defined", term, line);
                 }
+                displacement += negative ? -value : value;
             }
         }
 
-        return byteCode;
+        byteCode.add(base);
+        byteCode.add(index);
+        byteCode.add(shift);
+        byteCode.add(displacement);
+        return true;
+    }
+
+    /**
+     * Returns value of number, constant or variable offset or null.
+     *
+     * @param arg
+     * @return
+     */
+    private Integer parseValue(String arg) {
+        if (isInteger(arg)) {
+            return Integer.parseInt(arg);
+        } else if (isHexInteger(arg)) {
+            return parseHexInteger(arg);
+        } else if (isFloat(arg)) {
+            return Float.floatToIntBits(Float.parseFloat(arg));
+        } else if (constants.containsKey(arg)) {
+            return constants.get(arg);
+        } else if (variableSize.containsKey(arg)) {
+            return this.getVariableOffset(arg);
+        }
+        return null;
+    }
+
+    /**
+     * Checks for memory instructions with [BASE + INDEX * SCALE + DISP] operand.
+     *
+     * @param operand
+     * @return
+     */
+    private boolean isIndexedMemory(int operand) {
+        return operand == READ_MEM_INT_INDEX || operand == READ_MEM_BYTE_INDEX
+                || operand == WRITE_MEM_INT_INDEX || operand == WRITE_MEM_BYTE_INDEX;
     }
 
     /**
@@ -238,7 +468,7 @@ public class Assembler {
 
             System.out.println("Executable written to: " + destination);
         } catch (FileNotFoundException e) {
-            printWarning("File could not be written", destination);
+            printWarning("File could not be written", destination, 0);
         }
     }
 
@@ -246,153 +476,98 @@ public class Assembler {
      * Writes hard coded asm code to fill space.
      *
      * @param string
-     * @return
+     * @param byteCode
+     * @return Count of written bytes.
      */
-    private List<Integer> buildAssemblerCodeString(String string) {
-        List<Integer> byteCode = new ArrayList<>();
-        if (string.startsWith("'") && string.endsWith("'")) {
-            String cutString = string.substring(1, string.length() - 1);
-            byte[] bytes = cutString.getBytes();
-            int usedSpace = this.getUsedSpace();
-
-            for (int i = 0; i < bytes.length; i++) {
-                byteCode.add(WRITE_MEM_BYTE_DWORD);
-                byteCode.add(usedSpace + i);
-                byteCode.add((int) bytes[i]);
-            }
-        } else {
-            printWarning("Wrong string format -> ' missing?", string);
+    private int buildAssemblerCodeString(String string, List<Integer> byteCode) {
+        byte[] bytes = string.getBytes();
+        int usedSpace = this.getUsedSpace();
+
+        for (int i = 0; i < bytes.length; i++) {
+            byteCode.add(WRITE_MEM_BYTE_DWORD);
+            byteCode.add(usedSpace + i);
+            byteCode.add((int) bytes[i]);
         }
 
-        return byteCode;
+        return bytes.length;
     }
 
     /**
      * Writes hard coded asm code to fill space.
      *
      * @param string
-     * @return
+     * @param byteCode
+     * @param line
+     * @return Count of written bytes or 0 on error.
      */
-    private List<Integer> buildAssemblerCodeByteArray(String string) {
-        List<Integer> byteCode = new ArrayList<>();
-        String[] bytes = string.split(",");
+    private int buildAssemblerCodeByteArray(String string, List<Integer> byteCode, int line) {
         int usedSpace = this.getUsedSpace();
-        int value = 0;
-        
-        for (int i = 0; i < bytes.length; i++) {
-            byteCode.add(WRITE_MEM_BYTE_DWORD);
-            byteCode.add(usedSpace + i);
-           
-            if (isInteger(bytes[i])) {
-            	value = Integer.parseInt(bytes[i]);                
-            } else if (isHexInteger(bytes[i])) {
-            	value = parseHexInteger(bytes[i]);
+        int count = 0;
+        int start = 0;
+
+        while (start <= string.length()) {
+            int end = string.indexOf(',', start);
+            if (end == -1) end = string.length();
+
+            String element = string.substring(start, end);
+            int value;
+
+            if (isInteger(element)) {
+                value = Integer.parseInt(element);
+            } else if (isHexInteger(element)) {
+                value = parseHexInteger(element);
             } else {
-                printWarning("Invalid byte in sequence", bytes[i]);
-                byteCode.clear();
-                break;
-            }
-            
-            if (value <= Byte.MAX_VALUE) {
-            	byteCode.add(value);
+                printWarning("Invalid byte in sequence", element, line);
+                return 0;
             }
-            else {
-            	printWarning("Value is greater than 255 for byte array", bytes[i]);
-                byteCode.clear();
-                break;
+
+            if (value > Byte.MAX_VALUE) {
+                printWarning("Value is greater than 255 for byte array", element, line);
+                return 0;
             }
+
+            byteCode.add(WRITE_MEM_BYTE_DWORD);
+            byteCode.add(usedSpace + count);
+            byteCode.add(value);
+
+            count++;
+            start = end + 1;
         }
 
-        return byteCode;
+        return count;
     }
 
     /**
      * Writes hard coded asm code to fill space.
      *
      * @param dword
-     * @return
+     * @param byteCode
      */
-    private List<Integer> buildAssemblerCodeDword(int dword) {
-        List<Integer> byteCode = new ArrayList<>();
+    private void buildAssemblerCodeDword(int dword, List<Integer> byteCode) {
         int usedSpace = this.getUsedSpace();
 
         byteCode.add(WRITE_MEM_INT_DWORD);
         byteCode.add(usedSpace);
         byteCode.add(dword);
-
-        return byteCode;
-    }
-
-    /**
-     * Rebuilds string directive.
-     */
-    private String[] preProcessDirective(String[] line) {
-        String directive = line[0];
-        String[] rebuilded = new String[3];
-
-        if (directive.equals(STRING)) {
-            rebuilded[0] = line[0]; // directive
-            rebuilded[1] = line[1]; // name
-            rebuilded[2] = ""; // value
-
-            for (int i = 2; i < line.length; i++) {
-                rebuilded[2] = rebuilded[2].concat(line[i]);
-                // end of parts?
-                if (i + 1 < line.length) {
-                    rebuilded[2] = rebuilded[2].concat(" ");
-                }
-            }
-        } else {
-            rebuilded = line;
-        }
-
-        return rebuilded;
     }
 
     /**
-     * Filter line from spaces and comments.
+     * Reserves space for variable and remembers its position in memory.
+     *
+     * @param varName
+     * @param size
      */
-    private String filterLine(String line) {
-        String result = line.trim();
-        String[] lineSplitted = line.split("#");
-
-        if (lineSplitted.length >= 2) {
-            result = lineSplitted[0].trim();
-        } else if (line.startsWith("#")) {
-            result = "";
-        }
-
-        return result;
+    private void addVariable(String varName, int size) {
+        variableSize.put(varName, size);
+        variableOffset.put(varName, usedSpace);
+        usedSpace += size;
     }
 
     /**
-     * Calculates variable position in memory.
+     * Returns variable position in memory.
      */
     private int getVariableOffset(String varName) {
-        int offset = 0;
-        int i = 0;
-
-
-        for (Map.Entry<String, Integer> entry : variableSize.entrySet()) {
-            if (entry.getKey().equals(varName)) break;
-            offset += entry.getValue();
-        }
-
-        return offset;
-    }
-
-    /**
-     * Splits byte array and counts elements.
-     */
-    private int getStringLength(String s) {
-        return s.substring(1, s.length() - 1).length();
-    }
-
-    /**
-     * Splits byte array and counts elements.
-     */
-    private int getByteArrayLength(String s) {
-        return s.split(",").length;
+        return variableOffset.get(varName);
     }
 
     /**
@@ -401,13 +576,7 @@ public class Assembler {
      * @return
      */
     private int getUsedSpace() {
-        int size = 0;
-
-        for (Map.Entry<String, Integer> entry : variableSize.entrySet()) {
-            size += entry.getValue();
-        }
-
-        return size;
+        return usedSpace;
     }
 
     /**
@@ -415,20 +584,23 @@ public class Assembler {
      *
      * @param type
      * @param warning
+     * @param line
+     * @return Always false, so callers can return it directly.
      */
-    private void printWarning(String type, String warning) {
-        System.out.println("[ERROR] " + type + ": " + warning);
+    private boolean printWarning(String type, String warning, int line) {
+        System.out.println("[ERROR] Line " + line + ": " + type + ": " + warning);
         this.containsErrors = true;
+        return false;
     }
 
     /**
-     * Checks if line is directive.
+     * Checks if token ends the line.
      *
-     * @param line
+     * @param token
      * @return
      */
-    private boolean isEmptyLine(String line) {
-        return (line.length() == 0);
+    private boolean isEndOfLine(int token) {
+        return (token == Lexer.EOL || token == Lexer.EOF);
     }
 
     /**
@@ -448,14 +620,19 @@ public class Assembler {
      * @return
      */
     private static boolean isInteger(String s) {
-        try {
-            Integer.parseInt(s);
-        } catch (NumberFormatException e) {
-            return false;
-        } catch (NullPointerException e) {
-            return false;
+        int start = (s.length() > 1 && (s.charAt(0) == '-' || s.charAt(0) == '+')) ? 1 : 0;
+
+        if (s.length() == 0 || s.length() - start > 10) return false;
+
+        for (int i = start; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) return false;
+        }
+
+        // Check range only for long numbers
+        if (s.length() - start == 10) {
+            long value = Long.parseLong(s);
+            return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
         }
-        // only got here if we didn't return false
         return true;
     }
 
@@ -466,30 +643,32 @@ public class Assembler {
      * @return
      */
     private boolean isHexInteger(String s) {
-        String hex = s;
+        if (!s.startsWith("0x") || s.length() == 2 || s.length() > 10) return false;
 
-        if (hex.startsWith("0x")) {
-            hex = hex.substring(2, hex.length());
-        }
-        try {
-            Integer.parseInt(hex, 16);
-        } catch (NumberFormatException e) {
-            return false;
-        } catch (NullPointerException e) {
-            return false;
+        for (int i = 2; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) == -1) return false;
         }
-        // only got here if we didn't return false
         return true;
     }
 
     /**
-     * Checks if argument is Integer in Base 16.
+     * Checks for float literal like 1.5, -0.25 or 1.0e-3. The bits are stored as dword.
+     *
+     * @param s
+     * @return
+     */
+    private static boolean isFloat(String s) {
+        return s.matches("[+-]?[0-9]+\\.[0-9]*([eE][+-]?[0-9]+)?");
+    }
+
+    /**
+     * Parses Integer in Base 16.
      *
      * @param s
      * @return
      */
     private int parseHexInteger(String s) {
-        return Integer.parseInt(s.substring(2, s.length()), 16);
+        return Integer.parseUnsignedInt(s.substring(2), 16);
     }
 
 }
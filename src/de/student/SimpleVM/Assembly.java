@@ -16,9 +16,11 @@ import static de.student.SimpleVM.Instruction.*;
  */
 public class Assembly {
     private List<Integer> assembly;
+    private boolean preprocessed;
 
     public Assembly() {
         assembly = new ArrayList<>();
+        preprocessed = false;
     }
 
     /**
@@ -27,7 +29,10 @@ public class Assembly {
      * @return List of commands.
      */
     public List<Integer> getAssembly() {
-        this.preprocessAssembly();
+        if (!this.preprocessed) {
+            this.preprocessAssembly();
+            this.preprocessed = true;
+        }
         return this.assembly;
     }
 
@@ -66,6 +71,18 @@ public class Assembly {
         return convertedInteger;
     }
 
+    /**
+     * Optimizes assembly. Has to be called before labels are resolved.
+     *
+     * @param optimizer
+     */
+    public void optimize(OptimizerPass optimizer) {
+        if (this.preprocessed) {
+            throw new IllegalStateException("Assembly was already preprocessed.");
+        }
+        this.assembly = optimizer.optimize(this.assembly);
+    }
+
     /**
      * Overwrite assembly.
      *
@@ -73,6 +90,7 @@ public class Assembly {
      */
     public void setAssembly(List<Integer> asm) {
         this.assembly = asm;
+        this.preprocessed = false;
     }
 
     /**
@@ -98,17 +116,19 @@ public class Assembly {
         for (int i = 0; i < assembly.size(); i++) {
             int instruction = assembly.get(i);
 
-            if (instruction == JMP || instruction == JE || instruction == JNE || instruction == JG || instruction == JB || instruction == CALL) {
-                int label = assembly.get(i + 1);
+            if (ins.isBranch(instruction) || instruction == CALL || instruction == SPAWN) {
+                int operand = i + ins.getLabelOperand(instruction);
+                int label = assembly.get(operand);
 
                 // Correct offset
                 if (labelOffsets.get(label) == null) {
                     throw new IllegalArgumentException("Used label is not defined.");
                 } else {
-                    if (instruction == JMP || instruction == JE || instruction == JNE || instruction == JG || instruction == JB) {
-                        assembly.set(i + 1, labelOffsets.get(label) - i);
-                    } else if (instruction == CALL) {
-                        assembly.set(i + 1, labelOffsets.get(label) - 1); // prefetching
+                    if (instruction == CALL || instruction == SPAWN) {
+                        assembly.set(operand, labelOffsets.get(label) - 1); // prefetching
+                    } else {
+                        // RIP points to the offset, when it is added
+                        assembly.set(operand, labelOffsets.get(label) - (operand - 1));
                     }
                 }
             }
@@ -0,0 +1,185 @@
+package de.student.SimpleVM;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * On-disk cache of assembled programs, keyed by source content and assembler version.
+ * Least recently used entries are evicted, when the cache exceeds its size limit.
+ */
+public class AssemblyCache {
+    /**
+     * Default size limit in bytes.
+     */
+    final static long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * File ending of cache entries.
+     */
+    final static String ENTRY_FILE_ENDING = ".svmc";
+
+    /**
+     * Magic number at start of cache entries ("SVMC").
+     */
+    final static int MAGIC = 0x53564D43;
+
+    private File directory;
+    private long maxSize;
+
+    /**
+     * Cache in directory given by system property simplevm.cache.dir (default: ~/.simplevm/cache)
+     * with size limit from simplevm.cache.size.
+     */
+    public AssemblyCache() {
+        this(new File(System.getProperty("simplevm.cache.dir",
+                        System.getProperty("user.home") + File.separator + ".simplevm" + File.separator + "cache")),
+                Long.getLong("simplevm.cache.size", DEFAULT_MAX_SIZE));
+    }
+
+    public AssemblyCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Cache is disabled with a size limit of 0.
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Calculates cache key of source file. Options which change the output have to be part of the key.
+     *
+     * @param sourcePath
+     * @param options
+     * @return Key or null if file could not be read.
+     */
+    public String getKey(String sourcePath, String options) {
+        try (InputStream in = new FileInputStream(sourcePath)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+
+            digest.update((Assembler.VERSION + ";" + options + ";").getBytes("UTF-8"));
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads assembled and preprocessed byte code.
+     *
+     * @param key
+     * @return Byte code or null if not cached.
+     */
+    public List<Integer> load(String key) {
+        File entry = getEntry(key);
+
+        if (!entry.isFile()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)))) {
+            if (in.readInt() != MAGIC) return null;
+
+            int size = in.readInt();
+            if (size < 0 || (long) size * Integer.BYTES + 2 * Integer.BYTES != entry.length()) return null;
+
+            List<Integer> byteCode = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                byteCode.add(in.readInt());
+            }
+
+            // Mark as recently used
+            entry.setLastModified(System.currentTimeMillis());
+
+            return byteCode;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores preprocessed byte code and evicts old entries.
+     *
+     * @param key
+     * @param byteCode
+     */
+    public void store(String key, List<Integer> byteCode) {
+        if (!directory.isDirectory() && !directory.mkdirs()) return;
+
+        File entry = getEntry(key);
+        File temp = null;
+
+        try {
+            // Write to temp file first, so concurrent runs never see half written entries
+            temp = File.createTempFile(key, ".tmp", directory);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(byteCode.size());
+                for (int code : byteCode) {
+                    out.writeInt(code);
+                }
+            }
+
+            Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (temp != null) temp.delete();
+            return;
+        }
+
+        this.evict();
+    }
+
+    /**
+     * Deletes least recently used entries till cache fits into size limit.
+     */
+    private void evict() {
+        File[] entries = directory.listFiles((dir, name) -> name.endsWith(ENTRY_FILE_ENDING));
+        long size = 0;
+
+        if (entries == null) return;
+
+        for (File entry : entries) {
+            size += entry.length();
+        }
+        if (size <= maxSize) return;
+
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+
+        for (File entry : entries) {
+            if (size <= maxSize) break;
+
+            long length = entry.length();
+            if (entry.delete()) size -= length;
+        }
+    }
+
+    /**
+     * Returns file of cache entry.
+     *
+     * @param key
+     * @return
+     */
+    private File getEntry(String key) {
+        return new File(directory, key + ENTRY_FILE_ENDING);
+    }
+}
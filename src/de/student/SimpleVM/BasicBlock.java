@@ -0,0 +1,158 @@
+package de.student.SimpleVM;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.student.SimpleVM.Instruction.*;
+
+/**
+ * Straight line sequence of instructions. Can only be entered at the top and only be left at the bottom.
+ */
+public class BasicBlock {
+    private int index;
+    private List<int[]> instructions;
+
+    // Edges
+    private BasicBlock fallThrough;
+    private BasicBlock target;
+    private List<BasicBlock> predecessors;
+
+    // Liveness as bit mask of registers and flags
+    private long liveIn;
+    private long liveOut;
+
+    public BasicBlock(int index) {
+        this.index = index;
+        this.instructions = new ArrayList<>();
+        this.predecessors = new ArrayList<>();
+    }
+
+    /**
+     * Position of block in control flow graph.
+     *
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Instructions of block. First element of each instruction is the op code.
+     *
+     * @return
+     */
+    public List<int[]> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Checks if block starts with a label.
+     *
+     * @return
+     */
+    public boolean hasLabel() {
+        return !instructions.isEmpty() && instructions.get(0)[0] == LABEL;
+    }
+
+    /**
+     * Returns label id of block. Only valid if hasLabel().
+     *
+     * @return
+     */
+    public int getLabel() {
+        return instructions.get(0)[1];
+    }
+
+    /**
+     * Returns last instruction or null if block is empty.
+     *
+     * @return
+     */
+    public int[] getTerminator() {
+        return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+    }
+
+    /**
+     * Next block, if execution falls through or returns from a call. Null otherwise.
+     *
+     * @return
+     */
+    public BasicBlock getFallThrough() {
+        return fallThrough;
+    }
+
+    public void setFallThrough(BasicBlock fallThrough) {
+        this.fallThrough = fallThrough;
+    }
+
+    /**
+     * Block, which is jumped to or called. Null otherwise.
+     *
+     * @return
+     */
+    public BasicBlock getTarget() {
+        return target;
+    }
+
+    public void setTarget(BasicBlock target) {
+        this.target = target;
+    }
+
+    /**
+     * Returns fall through and target block.
+     *
+     * @return
+     */
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> successors = new ArrayList<>(2);
+
+        if (fallThrough != null) successors.add(fallThrough);
+        if (target != null && target != fallThrough) successors.add(target);
+
+        return successors;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    public long getLiveIn() {
+        return liveIn;
+    }
+
+    public void setLiveIn(long liveIn) {
+        this.liveIn = liveIn;
+    }
+
+    public long getLiveOut() {
+        return liveOut;
+    }
+
+    public void setLiveOut(long liveOut) {
+        this.liveOut = liveOut;
+    }
+
+    /**
+     * Checks if block ends with a call.
+     *
+     * @return
+     */
+    public boolean endsWithCall() {
+        int[] terminator = getTerminator();
+        return terminator != null && terminator[0] == CALL;
+    }
+
+    /**
+     * Checks if block ends with a spawn. Its target is run by another thread.
+     *
+     * @return
+     */
+    public boolean endsWithSpawn() {
+        int[] terminator = getTerminator();
+        return terminator != null && terminator[0] == SPAWN;
+    }
+}
@@ -0,0 +1,239 @@
+package de.student.SimpleVM;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs one program for many independent inputs in parallel. Every input is the console input of one run,
+ * outputs are collected in input order. Each worker thread keeps its own VmInstance.
+ */
+public class BatchRunner implements AutoCloseable {
+    /**
+     * Inputs, which a task runs without splitting further.
+     */
+    final static int THRESHOLD = 16;
+
+    private Program program;
+    private ForkJoinPool pool;
+    private ThreadLocal<VmInstance> instances;
+
+    public BatchRunner(Program program) {
+        this(program, java.lang.Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param program
+     * @param parallelism Count of worker threads.
+     */
+    public BatchRunner(Program program, int parallelism) {
+        this.program = program;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.instances = ThreadLocal.withInitial(VmInstance::new);
+    }
+
+    /**
+     * Runs program for every line of reader.
+     *
+     * @param reader
+     * @return
+     * @throws IOException
+     */
+    public Report run(BufferedReader reader) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            inputs.add(line);
+        }
+        return this.run(inputs);
+    }
+
+    /**
+     * Runs program for every input.
+     *
+     * @param inputs
+     * @return
+     */
+    public Report run(List<String> inputs) {
+        Report report = new Report(inputs.size());
+        long startTime = System.nanoTime();
+
+        pool.invoke(new Batch(inputs, report, 0, inputs.size()));
+        report.wallNanos = System.nanoTime() - startTime;
+
+        return report;
+    }
+
+    /**
+     * Stops worker threads.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    // Helper
+
+    /**
+     * Runs program for a single input with instance of current thread.
+     *
+     * @param index
+     * @param input
+     * @param report
+     */
+    private void runItem(int index, String input, Report report) {
+        VmInstance vm = instances.get();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long startTime = System.nanoTime();
+
+        vm.setConsole(new BufferedReader(new StringReader(input)), new PrintStream(output));
+        try {
+            report.results[index] = vm.run(program);
+        } catch (RuntimeException e) {
+            // Other inputs still run
+            report.results[index] = ExecutionResult.failed("Internal error: " + e);
+        }
+        report.outputs[index] = output.toString();
+        report.latencies[index] = System.nanoTime() - startTime;
+    }
+
+    /**
+     * Splits inputs till THRESHOLD is reached.
+     */
+    private class Batch extends RecursiveAction {
+        private final static long serialVersionUID = 1L;
+
+        private List<String> inputs;
+        private Report report;
+        private int from;
+        private int to;
+
+        Batch(List<String> inputs, Report report, int from, int to) {
+            this.inputs = inputs;
+            this.report = report;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    runItem(i, inputs.get(i), report);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+
+                invokeAll(new Batch(inputs, report, from, middle), new Batch(inputs, report, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Results, console outputs and latencies by input index.
+     */
+    public static class Report {
+        private ExecutionResult[] results;
+        private String[] outputs;
+        private long[] latencies;
+        private long wallNanos;
+        private long[] sorted;
+
+        Report(int size) {
+            results = new ExecutionResult[size];
+            outputs = new String[size];
+            latencies = new long[size];
+        }
+
+        /**
+         * Stores run of input, for example received from a worker process.
+         *
+         * @param index
+         * @param result
+         * @param output
+         * @param latency
+         */
+        void set(int index, ExecutionResult result, String output, long latency) {
+            results[index] = result;
+            outputs[index] = output;
+            latencies[index] = latency;
+            sorted = null;
+        }
+
+        void setWallNanos(long wallNanos) {
+            this.wallNanos = wallNanos;
+        }
+
+        public int size() {
+            return results.length;
+        }
+
+        public ExecutionResult getResult(int index) {
+            return results[index];
+        }
+
+        public String getOutput(int index) {
+            return outputs[index];
+        }
+
+        public long getLatencyNanos(int index) {
+            return latencies[index];
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * Returns count of runs, which ended with a fault.
+         *
+         * @return
+         */
+        public int getFaults() {
+            int faults = 0;
+
+            for (ExecutionResult result : results) {
+                if (!result.isSuccess()) faults++;
+            }
+            return faults;
+        }
+
+        /**
+         * Returns latency, which is not exceeded by percentile of runs (nearest rank).
+         *
+         * @param percentile 0 to 100
+         * @return Nanoseconds, 0 for empty batch.
+         */
+        public long getLatencyPercentile(double percentile) {
+            if (latencies.length == 0) return 0;
+            if (sorted == null) {
+                sorted = latencies.clone();
+                Arrays.sort(sorted);
+            }
+
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.min(Math.max(rank, 1), sorted.length) - 1];
+        }
+
+        /**
+         * Prints throughput and latency percentiles.
+         */
+        public void printSummary() {
+            double seconds = wallNanos / 1e9;
+
+            System.out.println("--> Batch: " + size() + " inputs, " + getFaults() + " faults, "
+                    + wallNanos / 1000000 + " ms, " + (long) (size() / Math.max(seconds, 1e-9)) + " inputs/s");
+            System.out.println("--> Latency: p50 " + getLatencyPercentile(50) / 1000 + " us, p90 "
+                    + getLatencyPercentile(90) / 1000 + " us, p99 " + getLatencyPercentile(99) / 1000 + " us, p99.9 "
+                    + getLatencyPercentile(99.9) / 1000 + " us, max " + getLatencyPercentile(100) / 1000 + " us");
+        }
+    }
+}
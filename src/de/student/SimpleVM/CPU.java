@@ -1,7 +1,11 @@
 package de.student.SimpleVM;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static de.student.SimpleVM.Instruction.*;
 import static de.student.SimpleVM.InterruptHandler.*;
@@ -16,7 +20,7 @@ public class CPU {
     /**
      * Maximum of memory space.
      */
-    final int MEMORY = 65536;
+    final static int MEMORY = 65536;
 
     /**
      * Bytes to print from memory.
@@ -28,10 +32,15 @@ public class CPU {
      */
     final short STACK = 256;
 
+    /**
+     * Default count of nested calls. Can be changed with property simplevm.callstack.depth.
+     */
+    final static int RETURN_STACK = 1024;
+
     /**
      * Registers controlled as array.
      */
-    private int registers[] = new int[COUNT];
+    private int registers[];
 
     /**
      * Flags controlled as array
@@ -41,23 +50,130 @@ public class CPU {
     /**
      * Memory for CPU
      */
-    Memory memory = new Memory(MEMORY);
+    Memory memory;
+
+    /**
+     * Shared memory is not cleared by resetCPU, it belongs to all cores of a Multicore.
+     */
+    private boolean sharedMemory;
+    private int coreId;
+    private int coreCount;
 
     /**
      * Stack for CPU.
      */
     Stack stack = new Stack(STACK);
 
+    /**
+     * Return addresses of active calls.
+     */
+    ReturnStack returnStack;
+
+    /**
+     * Memory stack mode: push, pop, call and retn use memory at RSP. Stack grows down from stackTop to stackLimit.
+     */
+    private boolean memoryStack;
+    private int stackLimit;
+    private int stackTop;
+
     /**
      * Size of OP-Codes
      */
     private int assemblySize;
 
+    /**
+     * Program started last, kept to resume execution.
+     */
+    private int[] program;
+
+    /**
+     * Count of executed instructions since last program start.
+     */
+    private long executedInstructions;
+
+    /**
+     * Execution stops, when executedInstructions reaches this count. Yield sets it to end the current slice.
+     */
+    private long sliceEnd;
+    private boolean yielded;
+
+    /**
+     * No green thread can run, till a sleep ends, console input arrives or a channel is ready.
+     */
+    private boolean blocked;
+
+    /**
+     * Green threads, null till the program spawns, joins or sleeps.
+     */
+    private GreenThreads threads;
+
+    /**
+     * Faults are dumped to console, if set. Otherwise only the reason is kept.
+     */
+    private boolean verbose = true;
+
+    /**
+     * Reason of last fault or null.
+     */
+    private String fault;
+
+    /**
+     * Console of sys functions. Defaults to System.in and System.out.
+     */
+    private BufferedReader input;
+    private PrintStream output;
+
+    /**
+     * Channels of sys functions by id.
+     */
+    private Map<Integer, Channel> channels = new HashMap<>();
+
     /**
      * Virtual CPU, which processes OP-Codes.
      */
     public CPU() {
+        this(Integer.getInteger("simplevm.callstack.depth", RETURN_STACK), Integer.getInteger("simplevm.stack.memory", 0),
+                Integer.getInteger("simplevm.registers", Register.MAX_GENERAL_PURPOSE));
+    }
+
+    /**
+     * @param returnStackSize Maximal count of nested calls.
+     * @param memoryStackSize Bytes at end of memory used as stack, 0 keeps separate stacks.
+     * @param generalPurpose  Count of general purpose registers, 6 to 32.
+     */
+    public CPU(int returnStackSize, int memoryStackSize, int generalPurpose) {
+        this(returnStackSize, memoryStackSize, generalPurpose, null, 0, 1);
+    }
+
+    /**
+     * Core of a multicore CPU. Memory stacks of cores are placed below each other from the end of memory.
+     *
+     * @param returnStackSize Maximal count of nested calls.
+     * @param memoryStackSize Bytes used as stack per core, 0 keeps separate stacks.
+     * @param generalPurpose  Count of general purpose registers, 6 to 32.
+     * @param memory          Shared memory or null for own memory.
+     * @param coreId
+     * @param coreCount
+     */
+    CPU(int returnStackSize, int memoryStackSize, int generalPurpose, Memory memory, int coreId, int coreCount) {
+        int extended = Math.min(Math.max(generalPurpose, BASE_GENERAL_PURPOSE), MAX_GENERAL_PURPOSE) - BASE_GENERAL_PURPOSE;
+        int stackSize = Math.min(Math.max(memoryStackSize, 0), MEMORY) & ~3;
+
+        this.registers = new int[BASE_COUNT + extended];
+        this.returnStack = new ReturnStack(Math.max(1, returnStackSize));
+        this.memory = (memory == null) ? new Memory(MEMORY) : memory;
+        this.sharedMemory = memory != null;
+        this.coreId = coreId;
+        this.coreCount = coreCount;
+        this.memoryStack = stackSize > 0;
+        this.stackTop = MEMORY - coreId * stackSize;
+        this.stackLimit = this.stackTop - stackSize;
+        if (this.stackLimit < 0) {
+            throw new IllegalArgumentException("Memory stacks of " + coreCount + " cores exceed memory");
+        }
+
         // Initialize CPU
+        this.setConsole(null, null);
         this.resetCPU();
     }
 
@@ -67,13 +183,26 @@ public class CPU {
      * Print CPU fault
      */
     private void cpuError() {
-        System.out.println("** FAULT **");
-        System.out.println("Coredump:");
-        this.dumpRegisters();
-        this.dumpStack();
-        this.dumpMemory();
+        this.cpuError(null);
+    }
+
+    /**
+     * Print CPU fault with reason
+     *
+     * @param reason
+     */
+    private void cpuError(String reason) {
+        this.fault = (reason == null) ? "FAULT" : reason;
+        if (this.verbose) {
+            System.out.println((reason == null) ? "** FAULT **" : "** FAULT: " + reason + " **");
+            System.out.println("Coredump:");
+            this.dumpRegisters();
+            this.dumpStack();
+            this.dumpMemory();
+        }
 
         // interrupt execution of assembly
+        this.blocked = false;
         this.halt();
     }
 
@@ -88,13 +217,21 @@ public class CPU {
         System.out.println("R4: " + PrintHelper.printHexNumber(this.getRegister(R4)));
         System.out.println("R5: " + PrintHelper.printHexNumber(this.getRegister(R5)));
         System.out.println("R6: " + PrintHelper.printHexNumber(this.getRegister(R6)));
-        // System.out.println("RBP: " + PrintHelper.printHexNumber(this.getRegister(Register.RBP)));
-        // System.out.println("RSP: " + PrintHelper.printHexNumber(this.getRegister(Register.RSP)));
+        if (this.extendedRegistersUsed()) {
+            for (int i = R7; i < registers.length; i++) {
+                System.out.println("R" + (i - R7 + 7) + ": " + PrintHelper.printHexNumber(registers[i]));
+            }
+        }
+        if (this.memoryStack) {
+            System.out.println("RBP: " + PrintHelper.printHexNumber(this.getRegister(Register.RBP)));
+            System.out.println("RSP: " + PrintHelper.printHexNumber(this.getRegister(Register.RSP)));
+        }
         System.out.println("RIP: " + PrintHelper.printHexNumber(this.getRegister(RIP)));
         System.out.println();
         System.out.println("** Flags **");
         System.out.println("Overflow: " + Boolean.toString(flags[Flag.OVERFLOW]));
         System.out.println("Underflow: " + Boolean.toString(flags[Flag.UNDERFLOW]));
+        System.out.println("Carry: " + Boolean.toString(flags[Flag.CARRY]));
         System.out.println("Greater: " + Boolean.toString(flags[Flag.GREATER]));
         System.out.println("Lower: " + Boolean.toString(flags[Flag.LOWER]));
         System.out.println("Equal: " + Boolean.toString(flags[Flag.EQUAL]));
@@ -106,7 +243,17 @@ public class CPU {
      */
     public void dumpStack() {
         System.out.println("** Stack **");
-        this.stack.print();
+        if (this.memoryStack) {
+            for (int address = registers[RSP]; address >= stackLimit && address + 4 <= stackTop; address += 4) {
+                System.out.println(PrintHelper.printHexNumber(address) + ": " + PrintHelper.printHexNumber(this.memory.readDword(address)));
+            }
+        } else {
+            this.stack.print();
+        }
+        if (!this.returnStack.isEmpty()) {
+            System.out.println("** Return stack **");
+            this.returnStack.print();
+        }
     }
 
     /**
@@ -120,15 +267,26 @@ public class CPU {
     /**
      * Reset cpu
      */
-    private void resetCPU() {
+    public void resetCPU() {
+        // main thread owns the registers
+        this.stopThreads();
         // clear memory
-        this.memory.reset();
+        if (!this.sharedMemory) this.memory.reset();
         // reset registers
         this.clearRegisters();
         // reset flags
         this.clearFlags();
+        // reset calls
+        this.returnStack.reset();
+        if (this.memoryStack) {
+            this.registers[RSP] = this.stackTop;
+            this.registers[RBP] = this.stackTop;
+        }
         // reset assembly size
         this.assemblySize = 0;
+        this.program = new int[0];
+        this.executedInstructions = 0;
+        this.fault = null;
     }
 
     /**
@@ -138,7 +296,10 @@ public class CPU {
      * @param value
      */
     private void setOverflow(int current, int value) {
-        this.flags[Flag.OVERFLOW] = (current + value > Integer.MAX_VALUE);
+        int result = current + value;
+
+        // Signs of both operands differ from sign of result
+        this.flags[Flag.OVERFLOW] = ((current ^ result) & (value ^ result)) < 0;
     }
 
     /**
@@ -148,7 +309,9 @@ public class CPU {
      * @param value
      */
     private void setOverflowMultiply(int current, int value) {
-        this.flags[Flag.OVERFLOW] = (current * value > Integer.MAX_VALUE);
+        long result = (long) current * value;
+
+        this.flags[Flag.OVERFLOW] = (result != (int) result);
     }
 
 
@@ -159,13 +322,36 @@ public class CPU {
      * @param value
      */
     private void setUnderflow(int current, int value) {
-        this.flags[Flag.UNDERFLOW] = (current - value < Integer.MIN_VALUE);
+        int result = current - value;
+
+        // Operands have different signs and sign of result differs from current
+        this.flags[Flag.UNDERFLOW] = ((current ^ value) & (current ^ result)) < 0;
+    }
+
+    /**
+     * Checks for unsigned carry, when adding a value, and sets flag.
+     *
+     * @param current
+     * @param value
+     */
+    private void setCarry(int current, int value) {
+        this.flags[Flag.CARRY] = Integer.compareUnsigned(current + value, current) < 0;
+    }
+
+    /**
+     * Checks for unsigned borrow, when subtracting a value, and sets carry flag.
+     *
+     * @param current
+     * @param value
+     */
+    private void setBorrow(int current, int value) {
+        this.flags[Flag.CARRY] = Integer.compareUnsigned(current, value) < 0;
     }
 
     /**
      * Sets given register to value.
      */
-    private void setRegister(int register, int value) {
+    public void setRegister(int register, int value) {
         if (this.registerInBounds(register)) this.registers[register] = value;
     }
 
@@ -198,9 +384,9 @@ public class CPU {
      * Clears all registers and sets to default.
      */
     private void clearRegisters() {
-        // reset flags
-        for (int i = 0; i < COUNT; i++) {
-            this.setRegister(i, 0);
+        // reset registers
+        for (int i = 0; i < registers.length; i++) {
+            this.registers[i] = 0;
         }
     }
 
@@ -220,26 +406,126 @@ public class CPU {
      * @param assembly
      * @return
      */
-    private int nextInstruction(List<Integer> assembly) {
-        return assembly.get(++registers[RIP]);
+    private int nextInstruction(int[] assembly) {
+        return assembly[++registers[RIP]];
     }
 
     /**
-     * Check if register number is in bounds.
+     * Check if register number is in bounds of register file.
      *
-     * @param registers
+     * @param register
      * @return boolean
      */
-    private boolean registerInBounds(Integer... registers) {
-        for (int i = 0; i < registers.length; i++) {
-            if (registers[i] > COUNT || registers[i] < R1) {
-                this.cpuError();
+    private boolean registerInBounds(int register) {
+        if (register >= this.registers.length || register < R1) {
+            this.cpuError("Invalid register " + register);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check if register numbers are in bounds of register file.
+     *
+     * @param register
+     * @param register2
+     * @return boolean
+     */
+    private boolean registerInBounds(int register, int register2) {
+        return this.registerInBounds(register) && this.registerInBounds(register2);
+    }
+
+    /**
+     * Check if registers start a 64 bit pair inside of register file.
+     *
+     * @param registers Low words.
+     * @return boolean
+     */
+    private boolean pairInBounds(int... registers) {
+        for (int register : registers) {
+            int high = Register.getHighRegister(register);
+
+            if (high == -1 || high >= this.registers.length) {
+                this.cpuError("Invalid register pair " + register);
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Returns 64 bit value of register pair.
+     *
+     * @param register Low word.
+     * @return
+     */
+    private long getLong(int register) {
+        return ((long) this.registers[Register.getHighRegister(register)] << 32) | (this.registers[register] & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Sets 64 bit value of register pair.
+     *
+     * @param register Low word.
+     * @param value
+     */
+    private void setLong(int register, long value) {
+        this.registers[register] = (int) value;
+        this.registers[Register.getHighRegister(register)] = (int) (value >>> 32);
+    }
+
+    /**
+     * Returns register interpreted as IEEE float.
+     *
+     * @param register
+     * @return
+     */
+    private float getFloat(int register) {
+        return Float.intBitsToFloat(this.registers[register]);
+    }
+
+    /**
+     * Stores IEEE float in register.
+     *
+     * @param register
+     * @param value
+     */
+    private void setFloat(int register, float value) {
+        this.registers[register] = Float.floatToRawIntBits(value);
+    }
+
+    /**
+     * Returns register pair interpreted as IEEE double.
+     *
+     * @param register Low word.
+     * @return
+     */
+    private double getDouble(int register) {
+        return Double.longBitsToDouble(this.getLong(register));
+    }
+
+    /**
+     * Stores IEEE double in register pair.
+     *
+     * @param register Low word.
+     * @param value
+     */
+    private void setDouble(int register, double value) {
+        this.setLong(register, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Checks if any register of the extended register file is set.
+     *
+     * @return
+     */
+    private boolean extendedRegistersUsed() {
+        for (int i = R7; i < registers.length; i++) {
+            if (registers[i] != 0) return true;
+        }
+        return false;
+    }
+
     /**
      * Check if flags number is in bounds.
      *
@@ -274,7 +560,7 @@ public class CPU {
      *
      * @param flag
      */
-    private boolean getFlag(int flag) {
+    public boolean getFlag(int flag) {
         boolean flag_value = false;
         if (this.flagsInBounds(flag)) {
             flag_value = flags[flag];
@@ -284,14 +570,195 @@ public class CPU {
 
     // MAIN
     public void executeProgram(List<Integer> assembly) {
+        int[] code = new int[assembly.size()];
+
+        for (int i = 0; i < code.length; i++) {
+            code[i] = assembly.get(i);
+        }
+        this.executeProgram(code);
+    }
+
+    /**
+     * Executes decoded byte code. Registers and memory are not reset, so they may carry input.
+     *
+     * @param assembly
+     */
+    public void executeProgram(int[] assembly) {
+        this.start(assembly);
+        while (!this.resume(Long.MAX_VALUE)) {
+            // Yield points only end slices of a scheduler
+            this.await(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Prepares execution of decoded byte code from the first instruction. Registers and memory are not reset.
+     *
+     * @param assembly
+     */
+    public void start(int[] assembly) {
+        this.start(assembly, 0);
+    }
+
+    /**
+     * Prepares execution of decoded byte code from entry. Registers and memory are not reset.
+     *
+     * @param assembly
+     * @param entry    Position of first instruction.
+     */
+    public void start(int[] assembly, int entry) {
+        this.stopThreads();
         // Update assembly size
-        this.assemblySize = assembly.size();
+        this.program = assembly;
+        this.assemblySize = assembly.length;
+        this.executedInstructions = 0;
+        this.fault = null;
+        this.registers[RIP] = entry;
+    }
+
+    /**
+     * Continues started program at RIP, till it finishes, budget instructions are executed or it yields.
+     * Green threads run in turns, the program is finished, when all threads are finished. If no thread can run,
+     * the program is blocked and returns early, so the caller can wait with await as long as it allows.
+     *
+     * @param budget Maximal count of instructions.
+     * @return True, if program is finished.
+     */
+    public boolean resume(long budget) {
+        long end = (budget > Long.MAX_VALUE - executedInstructions) ? Long.MAX_VALUE : executedInstructions + budget;
+        int[] assembly = this.program;
+
+        this.yielded = false;
+        if (this.blocked) {
+            // Loaded thread still waits, continue with one, which can run
+            this.blocked = false;
+            if (!this.schedule()) return !this.blocked;
+        }
+        while (true) {
+            this.sliceEnd = (this.threads == null) ? end : Math.min(end, executedInstructions + threads.getQuantum());
+            while (registers[RIP] < assembly.length) {
+                if (this.executedInstructions >= this.sliceEnd) break;
+                this.executedInstructions++;
+                this.fetchInstruction(assembly[registers[RIP]], assembly);
+                registers[RIP]++;
+            }
+
+            if (this.threads != null) {
+                if (!this.schedule()) return !this.blocked;
+            } else if (registers[RIP] >= assembly.length) {
+                return true;
+            }
+            if (this.yielded || this.executedInstructions >= end) return false;
+        }
+    }
+
+    /**
+     * Checks if started program is finished.
+     *
+     * @return
+     */
+    public boolean isFinished() {
+        return !this.blocked && registers[RIP] >= assemblySize;
+    }
+
+    /**
+     * Checks if no green thread can run at the moment.
+     *
+     * @return
+     */
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    /**
+     * Waits till a green thread of a blocked program may run again, at most timeout. A program, whose waiting
+     * thread is interrupted, is stopped.
+     *
+     * @param timeout Nanoseconds.
+     */
+    public void await(long timeout) {
+        if (!this.blocked) return;
+        if (!threads.await(timeout)) this.cpuError("Interrupted");
+    }
+
+    /**
+     * Stops started program with fault, for example when its deadline is exceeded.
+     *
+     * @param reason
+     */
+    public void abort(String reason) {
+        this.cpuError(reason);
+    }
+
+    /**
+     * Returns count of instructions executed by last program.
+     *
+     * @return
+     */
+    public long getExecutedInstructions() {
+        return executedInstructions;
+    }
+
+    /**
+     * Returns reason of fault of last program or null.
+     *
+     * @return
+     */
+    public String getFault() {
+        return fault;
+    }
+
+    /**
+     * Enables coredumps on faults.
+     *
+     * @param verbose
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Redirects console of sys functions, null restores System.in or System.out.
+     *
+     * @param input
+     * @param output
+     */
+    public void setConsole(BufferedReader input, PrintStream output) {
+        this.input = (input != null) ? input : InterruptHandler.getConsole();
+        this.output = (output != null) ? output : System.out;
+    }
+
+    /**
+     * Connects channel to id used by sys functions, null removes it.
+     *
+     * @param id
+     * @param channel
+     */
+    public void setChannel(int id, Channel channel) {
+        if (channel == null) {
+            this.channels.remove(id);
+        } else {
+            this.channels.put(id, channel);
+        }
+    }
+
+    /**
+     * Removes all channels.
+     */
+    public void clearChannels() {
+        this.channels.clear();
+    }
 
-        for (registers[RIP] = 0; registers[RIP] < assembly.size(); registers[RIP]++)
-            this.fetchInstruction(assembly.get(registers[RIP]), assembly);
+    /**
+     * Returns count of registers in register file.
+     *
+     * @return
+     */
+    public int getRegisterCount() {
+        return registers.length;
     }
 
-    private void fetchInstruction(Integer instruction, List<Integer> assembly) {
+    private void fetchInstruction(int instruction, int[] assembly) {
         switch (instruction) {
             case MOV_DWORD:
                 this.movDword(nextInstruction(assembly), nextInstruction(assembly));
@@ -323,6 +790,12 @@ public class CPU {
             case SHR_DWORD:
                 this.shrDword(nextInstruction(assembly), nextInstruction(assembly));
                 break;
+            case ADC_DWORD:
+                this.adcDword(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case SBB_DWORD:
+                this.sbbDword(nextInstruction(assembly), nextInstruction(assembly));
+                break;
             case CMP_DWORD:
                 this.cmpDword(nextInstruction(assembly), nextInstruction(assembly));
                 break;
@@ -356,6 +829,12 @@ public class CPU {
             case SHR_REG:
                 this.shrReg(nextInstruction(assembly), nextInstruction(assembly));
                 break;
+            case ADC_REG:
+                this.adcReg(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case SBB_REG:
+                this.sbbReg(nextInstruction(assembly), nextInstruction(assembly));
+                break;
             case CMP_REG:
                 this.cmpReg(nextInstruction(assembly), nextInstruction(assembly));
                 break;
@@ -368,28 +847,136 @@ public class CPU {
             case DEC_REG:
                 this.decReg(nextInstruction(assembly));
                 break;
-            case LABEL:
-                incReg(RIP);
+            case POPCNT_REG:
+                this.popcntReg(nextInstruction(assembly));
                 break;
-            case JMP:
-                this.jmp(nextInstruction(assembly));
+            case CLZ_REG:
+                this.clzReg(nextInstruction(assembly));
                 break;
-            case JE:
-                this.je(nextInstruction(assembly));
+            case CTZ_REG:
+                this.ctzReg(nextInstruction(assembly));
                 break;
-            case JNE:
-                this.jne(nextInstruction(assembly));
+            case BSWAP_REG:
+                this.bswapReg(nextInstruction(assembly));
                 break;
-            case JG:
-                this.jg(nextInstruction(assembly));
+            case ROL_DWORD:
+                this.rolDword(nextInstruction(assembly), nextInstruction(assembly));
                 break;
-            case JB:
-                this.jb(nextInstruction(assembly));
+            case ROR_DWORD:
+                this.rorDword(nextInstruction(assembly), nextInstruction(assembly));
                 break;
-            case WRITE_MEM_BYTE_DWORD:
-                this.writeMemoryByteDword(nextInstruction(assembly), nextInstruction(assembly));
+            case ROL_REG:
+                this.rolReg(nextInstruction(assembly), nextInstruction(assembly));
                 break;
-            case WRITE_MEM_INT_DWORD:
+            case ROR_REG:
+                this.rorReg(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case ADD_LONG:
+                this.addLong(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case SUB_LONG:
+                this.subLong(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case MUL_LONG:
+                this.mulLong(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case DIV_LONG:
+                this.divLong(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case CMP_LONG:
+                this.cmpLong(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case ADD_FLOAT:
+                this.addFloat(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case SUB_FLOAT:
+                this.subFloat(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case MUL_FLOAT:
+                this.mulFloat(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case DIV_FLOAT:
+                this.divFloat(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case CMP_FLOAT:
+                this.cmpFloat(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case ADD_DOUBLE:
+                this.addDouble(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case SUB_DOUBLE:
+                this.subDouble(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case MUL_DOUBLE:
+                this.mulDouble(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case DIV_DOUBLE:
+                this.divDouble(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case CMP_DOUBLE:
+                this.cmpDouble(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case INT_TO_LONG:
+            case INT_TO_FLOAT:
+            case INT_TO_DOUBLE:
+            case FLOAT_TO_INT:
+            case FLOAT_TO_DOUBLE:
+            case DOUBLE_TO_INT:
+            case DOUBLE_TO_FLOAT:
+            case LONG_TO_DOUBLE:
+            case DOUBLE_TO_LONG:
+                this.convert(instruction, nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case LABEL:
+                // Skip label id, labels do not touch flags
+                nextInstruction(assembly);
+                break;
+            case JMP:
+                this.jmp(nextInstruction(assembly));
+                break;
+            case JE:
+                this.je(nextInstruction(assembly));
+                break;
+            case JNE:
+                this.jne(nextInstruction(assembly));
+                break;
+            case JG:
+                this.jg(nextInstruction(assembly));
+                break;
+            case JB:
+                this.jb(nextInstruction(assembly));
+                break;
+            case LOOP:
+                this.loop(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case CMOVE:
+                this.conditionalMove(nextInstruction(assembly), nextInstruction(assembly), this.getFlag(Flag.EQUAL));
+                break;
+            case CMOVNE:
+                this.conditionalMove(nextInstruction(assembly), nextInstruction(assembly), !this.getFlag(Flag.EQUAL));
+                break;
+            case CMOVG:
+                this.conditionalMove(nextInstruction(assembly), nextInstruction(assembly), this.getFlag(Flag.GREATER));
+                break;
+            case CMOVB:
+                this.conditionalMove(nextInstruction(assembly), nextInstruction(assembly), this.getFlag(Flag.LOWER));
+                break;
+            case SETE:
+                this.setCondition(nextInstruction(assembly), this.getFlag(Flag.EQUAL));
+                break;
+            case SETNE:
+                this.setCondition(nextInstruction(assembly), !this.getFlag(Flag.EQUAL));
+                break;
+            case SETG:
+                this.setCondition(nextInstruction(assembly), this.getFlag(Flag.GREATER));
+                break;
+            case SETB:
+                this.setCondition(nextInstruction(assembly), this.getFlag(Flag.LOWER));
+                break;
+            case WRITE_MEM_BYTE_DWORD:
+                this.writeMemoryByteDword(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case WRITE_MEM_INT_DWORD:
                 this.writeMemoryIntDword(nextInstruction(assembly), nextInstruction(assembly));
                 break;
             case READ_MEM_BYTE_DWORD:
@@ -410,6 +997,24 @@ public class CPU {
             case READ_MEM_INT_REG:
                 this.readMemoryIntReg(nextInstruction(assembly), nextInstruction(assembly));
                 break;
+            case READ_MEM_INT_FRAME:
+                this.readMemoryIntFrame(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case WRITE_MEM_INT_FRAME:
+                this.writeMemoryIntFrame(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case READ_MEM_INT_INDEX:
+                this.readMemoryIntIndex(nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case READ_MEM_BYTE_INDEX:
+                this.readMemoryByteIndex(nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case WRITE_MEM_INT_INDEX:
+                this.writeMemoryIntIndex(nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case WRITE_MEM_BYTE_INDEX:
+                this.writeMemoryByteIndex(nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly));
+                break;
             case PUSH_REG:
                 this.pushDword(nextInstruction(assembly));
                 break;
@@ -428,6 +1033,30 @@ public class CPU {
             case INT:
                 this.interrupt(nextInstruction(assembly));
                 break;
+            case YIELD:
+                this.yieldSlice();
+                break;
+            case CAS_REG:
+                this.compareAndSwap(nextInstruction(assembly), nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case XADD_REG:
+                this.exchangeAdd(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case XCHG_REG:
+                this.exchange(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case FENCE:
+                this.memory.fence();
+                break;
+            case SPAWN:
+                this.spawn(nextInstruction(assembly), nextInstruction(assembly));
+                break;
+            case JOIN:
+                this.join(nextInstruction(assembly));
+                break;
+            case SLEEP:
+                this.sleep(nextInstruction(assembly));
+                break;
             default:
                 this.cpuError();
         }
@@ -458,6 +1087,7 @@ public class CPU {
         this.clearFlags();
         if (this.registerInBounds(register)) {
             this.setOverflow(this.registers[register], value);
+            this.setCarry(this.registers[register], value);
             this.registers[register] += value;
         }
     }
@@ -486,6 +1116,10 @@ public class CPU {
      */
     private void divDword(int register, int value) {
         this.clearFlags();
+        if (value == 0) {
+            this.cpuError("Division by zero");
+            return;
+        }
         if (this.registerInBounds(register)) {
             int modulo = this.registers[register] % value;
 
@@ -506,10 +1140,33 @@ public class CPU {
 
         if (this.registerInBounds(register)) {
             this.setUnderflow(this.registers[register], value);
+            this.setBorrow(this.registers[register], value);
             this.registers[register] -= value;
         }
     }
 
+    /**
+     * Adds a value and the carry flag to the register.
+     * ADCD REGISTER, VALUE
+     *
+     * @param register
+     * @param value
+     */
+    private void adcDword(int register, int value) {
+        if (this.registerInBounds(register)) this.generalCarryHandler(register, value, false);
+    }
+
+    /**
+     * Subtracts a value and the carry flag from the register.
+     * SBBD REGISTER, VALUE
+     *
+     * @param register
+     * @param value
+     */
+    private void sbbDword(int register, int value) {
+        if (this.registerInBounds(register)) this.generalCarryHandler(register, value, true);
+    }
+
     /**
      * XORs a value to the register.
      * XORD REGISTER, VALUE
@@ -623,6 +1280,7 @@ public class CPU {
 
             this.clearFlags();
             this.setOverflow(this.registers[register], value);
+            this.setCarry(this.registers[register], value);
             this.registers[register] += value;
         }
     }
@@ -640,6 +1298,7 @@ public class CPU {
 
             this.clearFlags();
             this.setUnderflow(this.registers[register], value);
+            this.setBorrow(this.registers[register], value);
             this.registers[register] -= value;
         }
     }
@@ -668,6 +1327,10 @@ public class CPU {
      */
     private void divReg(int register, int register2) {
         this.clearFlags();
+        if (this.getRegister(register2) == 0) {
+            this.cpuError("Division by zero");
+            return;
+        }
         if (this.registerInBounds(register)) {
             int modulo = this.registers[register] % this.getRegister(register2);
 
@@ -676,6 +1339,28 @@ public class CPU {
         }
     }
 
+    /**
+     * Adds a register and the carry flag to the register.
+     * ADCR REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void adcReg(int register, int register2) {
+        if (this.registerInBounds(register, register2)) this.generalCarryHandler(register, this.registers[register2], false);
+    }
+
+    /**
+     * Subtracts a register and the carry flag from the register.
+     * SBBR REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void sbbReg(int register, int register2) {
+        if (this.registerInBounds(register, register2)) this.generalCarryHandler(register, this.registers[register2], true);
+    }
+
     /**
      * XORs a value to the register.
      * XORR REGISTER, VALUE
@@ -816,6 +1501,96 @@ public class CPU {
         }
     }
 
+    // Bit
+
+    /**
+     * Counts set bits of register.
+     * POPCR REGISTER
+     *
+     * @param register
+     */
+    private void popcntReg(int register) {
+        if (this.registerInBounds(register)) this.registers[register] = Integer.bitCount(this.registers[register]);
+    }
+
+    /**
+     * Counts leading zero bits of register, 32 for zero.
+     * CLZR REGISTER
+     *
+     * @param register
+     */
+    private void clzReg(int register) {
+        if (this.registerInBounds(register)) this.registers[register] = Integer.numberOfLeadingZeros(this.registers[register]);
+    }
+
+    /**
+     * Counts trailing zero bits of register, 32 for zero.
+     * CTZR REGISTER
+     *
+     * @param register
+     */
+    private void ctzReg(int register) {
+        if (this.registerInBounds(register)) this.registers[register] = Integer.numberOfTrailingZeros(this.registers[register]);
+    }
+
+    /**
+     * Reverses byte order of register.
+     * BSWAPR REGISTER
+     *
+     * @param register
+     */
+    private void bswapReg(int register) {
+        if (this.registerInBounds(register)) this.registers[register] = Integer.reverseBytes(this.registers[register]);
+    }
+
+    /**
+     * Rotates value of register by count of value left.
+     * ROLD REGISTER, VALUE
+     *
+     * @param register
+     * @param value
+     */
+    private void rolDword(int register, int value) {
+        if (this.registerInBounds(register)) this.registers[register] = Integer.rotateLeft(this.registers[register], value);
+    }
+
+    /**
+     * Rotates value of register by count of value right.
+     * RORD REGISTER, VALUE
+     *
+     * @param register
+     * @param value
+     */
+    private void rorDword(int register, int value) {
+        if (this.registerInBounds(register)) this.registers[register] = Integer.rotateRight(this.registers[register], value);
+    }
+
+    /**
+     * Rotates value of register left, by count of other register.
+     * ROLR REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void rolReg(int register, int register2) {
+        if (this.registerInBounds(register, register2)) {
+            this.registers[register] = Integer.rotateLeft(this.registers[register], this.registers[register2]);
+        }
+    }
+
+    /**
+     * Rotates value of register right, by count of other register.
+     * RORR REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void rorReg(int register, int register2) {
+        if (this.registerInBounds(register, register2)) {
+            this.registers[register] = Integer.rotateRight(this.registers[register], this.registers[register2]);
+        }
+    }
+
 
     /**
      * Checks for GREATER, EQUAL, LOWER.
@@ -833,6 +1608,65 @@ public class CPU {
         }
     }
 
+    /**
+     * Adds or subtracts value and carry flag. Overflow, underflow and carry are set for the whole operation,
+     * so chained limbs of a multi precision number behave like a single wide operation.
+     *
+     * @param register
+     * @param value
+     * @param subtract
+     */
+    private void generalCarryHandler(int register, int value, boolean subtract) {
+        int carry = this.flags[Flag.CARRY] ? 1 : 0;
+        long current = this.registers[register];
+        long unsigned = (current & 0xFFFFFFFFL);
+        long result;
+
+        this.clearFlags();
+        if (subtract) {
+            result = current - value - carry;
+            this.flags[Flag.UNDERFLOW] = (result != (int) result);
+            this.flags[Flag.CARRY] = unsigned < (value & 0xFFFFFFFFL) + carry;
+        } else {
+            result = current + value + carry;
+            this.flags[Flag.OVERFLOW] = (result != (int) result);
+            this.flags[Flag.CARRY] = unsigned + (value & 0xFFFFFFFFL) + carry > 0xFFFFFFFFL;
+        }
+        this.registers[register] = (int) result;
+    }
+
+    /**
+     * Checks for GREATER, EQUAL, LOWER of 64 bit values.
+     *
+     * @param value1
+     * @param value2
+     */
+    private void generalCompareHandler(long value1, long value2) {
+        if (value2 == value1) {
+            this.setFlag(Flag.EQUAL, true);
+        } else if (value2 > value1) {
+            this.setFlag(Flag.GREATER, true);
+        } else {
+            this.setFlag(Flag.LOWER, true);
+        }
+    }
+
+    /**
+     * Checks for GREATER, EQUAL, LOWER of floating point values. Unordered values set no flag.
+     *
+     * @param value1
+     * @param value2
+     */
+    private void generalCompareHandler(double value1, double value2) {
+        if (value2 == value1) {
+            this.setFlag(Flag.EQUAL, true);
+        } else if (value2 > value1) {
+            this.setFlag(Flag.GREATER, true);
+        } else if (value2 < value1) {
+            this.setFlag(Flag.LOWER, true);
+        }
+    }
+
     /**
      * Jumps unconditionally to location.
      * JMP OFFSET
@@ -874,126 +1708,526 @@ public class CPU {
     }
 
     /**
-     * Corrects the Instruction Pointer
+     * Decrements register and jumps if it is not zero. Flags are not changed.
+     * LOOP REGISTER, OFFSET
      *
-     * @param jumpOffset
+     * @param register
+     * @param offset
      */
-    private void generalJumpHandler(int jumpOffset) {
-        this.setRegister(RIP, this.getRegister(RIP) + jumpOffset);
+    private void loop(int register, int offset) {
+        if (this.registerInBounds(register) && --this.registers[register] != 0) this.generalJumpHandler(offset);
     }
 
-    // MEMORY(DWORD)
+    // Long
 
     /**
-     * Writes byte at memory.
-     * WMBD OFFSET, VALUE
+     * Adds a register pair to a register pair.
+     * LADD REGISTER, REGISTER2
      *
-     * @param offset
-     * @param value
+     * @param register
+     * @param register2
      */
-    private void writeMemoryByteDword(int offset, int value) {
-        // Wrong command for dword
-        if (value > Byte.MAX_VALUE) {
-            this.cpuError();
+    private void addLong(int register, int register2) {
+        this.clearFlags();
+        if (this.pairInBounds(register, register2)) {
+            long value = this.getLong(register);
+            long value2 = this.getLong(register2);
+            long result = value + value2;
+
+            this.flags[Flag.OVERFLOW] = ((value ^ result) & (value2 ^ result)) < 0;
+            this.flags[Flag.CARRY] = Long.compareUnsigned(result, value) < 0;
+            this.setLong(register, result);
         }
-
-        this.memory.writeByte(offset, (byte) value);
     }
 
     /**
-     * Writes dword at memory.
-     * WMID OFFSET, VALUE
+     * Subtracts a register pair from a register pair.
+     * LSUB REGISTER, REGISTER2
      *
-     * @param offset
-     * @param value
+     * @param register
+     * @param register2
      */
-    private void writeMemoryIntDword(int offset, int value) {
-        // Wrong command
-        if (value > Integer.MAX_VALUE) {
-            this.cpuError();
+    private void subLong(int register, int register2) {
+        this.clearFlags();
+        if (this.pairInBounds(register, register2)) {
+            long value = this.getLong(register);
+            long value2 = this.getLong(register2);
+            long result = value - value2;
+
+            this.flags[Flag.UNDERFLOW] = ((value ^ value2) & (value ^ result)) < 0;
+            this.flags[Flag.CARRY] = Long.compareUnsigned(value, value2) < 0;
+            this.setLong(register, result);
         }
-
-        this.memory.writeDword(offset, value);
     }
 
     /**
-     * Reads byte from memory and stores at register.
-     * RMBD REGISTER, OFFSET
+     * Multiplies a register pair with a register pair.
+     * LMUL REGISTER, REGISTER2
      *
      * @param register
-     * @param offset
+     * @param register2
      */
-    private void readMemoryByteDword(int register, int offset) {
-        this.setRegister(register, this.memory.readByte(offset));
+    private void mulLong(int register, int register2) {
+        this.clearFlags();
+        if (this.pairInBounds(register, register2)) {
+            long value = this.getLong(register);
+            long value2 = this.getLong(register2);
+            long result = value * value2;
+
+            this.flags[Flag.OVERFLOW] = Math.multiplyHigh(value, value2) != (result >> 63);
+            this.setLong(register, result);
+        }
     }
 
     /**
-     * Reads dword from memory and stores at register.
-     * RMID REGISTER, OFFSET
+     * Divides a register pair by a register pair. There is no modulo.
+     * LDIV REGISTER, REGISTER2
      *
      * @param register
-     * @param offset
+     * @param register2
      */
-    private void readMemoryIntDword(int register, int offset) {
-        this.setRegister(register, this.memory.readDword(offset));
-    }
+    private void divLong(int register, int register2) {
+        this.clearFlags();
+        if (this.pairInBounds(register, register2)) {
+            long value2 = this.getLong(register2);
 
-    // MEMORY(REGISTER)
+            if (value2 == 0) {
+                this.cpuError("Division by zero");
+                return;
+            }
+            this.setLong(register, this.getLong(register) / value2);
+        }
+    }
 
     /**
-     * Writes byte at memory.
-     * WMBR OFFSET, REGISTER2
+     * Compares a register pair against another register pair.
+     * LCMP REGISTER, REGISTER2
      *
      * @param register
      * @param register2
      */
-    private void writeMemoryByteReg(int register, int register2) {
-        this.writeMemoryByteDword(this.getRegister(register), this.getRegister(register2));
+    private void cmpLong(int register, int register2) {
+        this.setFlags(false, Flag.EQUAL, Flag.GREATER, Flag.LOWER);
+
+        if (this.pairInBounds(register, register2)) {
+            this.generalCompareHandler(this.getLong(register), this.getLong(register2));
+        }
     }
 
+    // Float
+
     /**
-     * Writes dword at memory.
-     * WMIR OFFSET, REGISTER2
+     * Adds float of register to float of register. Flags are not changed.
+     * FADD REGISTER, REGISTER2
      *
      * @param register
      * @param register2
      */
-    private void writeMemoryIntReg(int register, int register2) {
-        this.writeMemoryIntDword(this.getRegister(register), this.getRegister(register2));
+    private void addFloat(int register, int register2) {
+        if (this.registerInBounds(register, register2)) this.setFloat(register, this.getFloat(register) + this.getFloat(register2));
     }
 
     /**
-     * Reads byte from memory and stores at register.
-     * RMBR REGISTER, REGISTER2
+     * Subtracts float of register from float of register. Flags are not changed.
+     * FSUB REGISTER, REGISTER2
      *
      * @param register
      * @param register2
      */
-    private void readMemoryByteReg(int register, int register2) {
-        this.readMemoryByteDword(register, this.getRegister(register2));
+    private void subFloat(int register, int register2) {
+        if (this.registerInBounds(register, register2)) this.setFloat(register, this.getFloat(register) - this.getFloat(register2));
     }
 
     /**
-     * Reads dword from memory and stores at register.
-     * RMIR REGISTER, REGISTER2
+     * Multiplies float of register with float of register. Flags are not changed.
+     * FMUL REGISTER, REGISTER2
      *
      * @param register
      * @param register2
      */
-    private void readMemoryIntReg(int register, int register2) {
-        this.readMemoryIntDword(register, this.getRegister(register2));
+    private void mulFloat(int register, int register2) {
+        if (this.registerInBounds(register, register2)) this.setFloat(register, this.getFloat(register) * this.getFloat(register2));
     }
 
-    // Stack
-
+    /**
+     * Divides float of register by float of register. Division by zero gives infinity or NaN.
+     * FDIV REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void divFloat(int register, int register2) {
+        if (this.registerInBounds(register, register2)) this.setFloat(register, this.getFloat(register) / this.getFloat(register2));
+    }
+
+    /**
+     * Compares float of register against float of register. NaN sets no flag.
+     * FCMP REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void cmpFloat(int register, int register2) {
+        this.setFlags(false, Flag.EQUAL, Flag.GREATER, Flag.LOWER);
+
+        if (this.registerInBounds(register, register2)) {
+            this.generalCompareHandler(this.getFloat(register), this.getFloat(register2));
+        }
+    }
+
+    // Double
+
+    /**
+     * Adds double of register pair to double of register pair. Flags are not changed.
+     * DADD REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void addDouble(int register, int register2) {
+        if (this.pairInBounds(register, register2)) this.setDouble(register, this.getDouble(register) + this.getDouble(register2));
+    }
+
+    /**
+     * Subtracts double of register pair from double of register pair. Flags are not changed.
+     * DSUB REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void subDouble(int register, int register2) {
+        if (this.pairInBounds(register, register2)) this.setDouble(register, this.getDouble(register) - this.getDouble(register2));
+    }
+
+    /**
+     * Multiplies double of register pair with double of register pair. Flags are not changed.
+     * DMUL REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void mulDouble(int register, int register2) {
+        if (this.pairInBounds(register, register2)) this.setDouble(register, this.getDouble(register) * this.getDouble(register2));
+    }
+
+    /**
+     * Divides double of register pair by double of register pair. Division by zero gives infinity or NaN.
+     * DDIV REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void divDouble(int register, int register2) {
+        if (this.pairInBounds(register, register2)) this.setDouble(register, this.getDouble(register) / this.getDouble(register2));
+    }
+
+    /**
+     * Compares double of register pair against double of register pair. NaN sets no flag.
+     * DCMP REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void cmpDouble(int register, int register2) {
+        this.setFlags(false, Flag.EQUAL, Flag.GREATER, Flag.LOWER);
+
+        if (this.pairInBounds(register, register2)) {
+            this.generalCompareHandler(this.getDouble(register), this.getDouble(register2));
+        }
+    }
+
+    /**
+     * Converts source to type of destination. Flags are not changed, floating point to integer saturates.
+     * I2L/I2F/I2D/F2I/F2D/D2I/D2F/L2D/D2L REGISTER, REGISTER2
+     *
+     * @param operation
+     * @param register
+     * @param register2
+     */
+    private void convert(int operation, int register, int register2) {
+        switch (operation) {
+            case INT_TO_LONG:
+                if (this.registerInBounds(register2) && this.pairInBounds(register)) this.setLong(register, this.registers[register2]);
+                break;
+            case INT_TO_FLOAT:
+                if (this.registerInBounds(register, register2)) this.setFloat(register, this.registers[register2]);
+                break;
+            case INT_TO_DOUBLE:
+                if (this.registerInBounds(register2) && this.pairInBounds(register)) this.setDouble(register, this.registers[register2]);
+                break;
+            case FLOAT_TO_INT:
+                if (this.registerInBounds(register, register2)) this.registers[register] = (int) this.getFloat(register2);
+                break;
+            case FLOAT_TO_DOUBLE:
+                if (this.registerInBounds(register2) && this.pairInBounds(register)) this.setDouble(register, this.getFloat(register2));
+                break;
+            case DOUBLE_TO_INT:
+                if (this.registerInBounds(register) && this.pairInBounds(register2)) this.registers[register] = (int) this.getDouble(register2);
+                break;
+            case DOUBLE_TO_FLOAT:
+                if (this.registerInBounds(register) && this.pairInBounds(register2)) this.setFloat(register, (float) this.getDouble(register2));
+                break;
+            case LONG_TO_DOUBLE:
+                if (this.pairInBounds(register, register2)) this.setDouble(register, this.getLong(register2));
+                break;
+            case DOUBLE_TO_LONG:
+                if (this.pairInBounds(register, register2)) this.setLong(register, (long) this.getDouble(register2));
+                break;
+        }
+    }
+
+    // CONDITIONAL
+
+    /**
+     * Copies register2 to register, if condition is true.
+     * CMOVE/CMOVNE/CMOVG/CMOVB REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     * @param condition
+     */
+    private void conditionalMove(int register, int register2, boolean condition) {
+        if (this.registerInBounds(register, register2) && condition) {
+            this.registers[register] = this.registers[register2];
+        }
+    }
+
+    /**
+     * Sets register to 1, if condition is true, and to 0 otherwise.
+     * SETE/SETNE/SETG/SETB REGISTER
+     *
+     * @param register
+     * @param condition
+     */
+    private void setCondition(int register, boolean condition) {
+        this.setRegister(register, condition ? 1 : 0);
+    }
+
+    /**
+     * Corrects the Instruction Pointer
+     *
+     * @param jumpOffset
+     */
+    private void generalJumpHandler(int jumpOffset) {
+        this.setRegister(RIP, this.getRegister(RIP) + jumpOffset);
+    }
+
+    // MEMORY(DWORD)
+
+    /**
+     * Writes byte at memory.
+     * WMBD OFFSET, VALUE
+     *
+     * @param offset
+     * @param value
+     */
+    private void writeMemoryByteDword(int offset, int value) {
+        // Wrong command for dword
+        if (value > Byte.MAX_VALUE) {
+            this.cpuError();
+        }
+
+        if (this.memoryInBounds(offset, 1)) this.memory.writeByte(offset, (byte) value);
+    }
+
+    /**
+     * Writes dword at memory.
+     * WMID OFFSET, VALUE
+     *
+     * @param offset
+     * @param value
+     */
+    private void writeMemoryIntDword(int offset, int value) {
+        // Wrong command
+        if (value > Integer.MAX_VALUE) {
+            this.cpuError();
+        }
+
+        if (this.memoryInBounds(offset, 4)) this.memory.writeDword(offset, value);
+    }
+
+    /**
+     * Reads byte from memory and stores at register.
+     * RMBD REGISTER, OFFSET
+     *
+     * @param register
+     * @param offset
+     */
+    private void readMemoryByteDword(int register, int offset) {
+        if (this.memoryInBounds(offset, 1)) this.setRegister(register, this.memory.readByte(offset));
+    }
+
+    /**
+     * Reads dword from memory and stores at register.
+     * RMID REGISTER, OFFSET
+     *
+     * @param register
+     * @param offset
+     */
+    private void readMemoryIntDword(int register, int offset) {
+        if (this.memoryInBounds(offset, 4)) this.setRegister(register, this.memory.readDword(offset));
+    }
+
+    // MEMORY(REGISTER)
+
+    /**
+     * Writes byte at memory.
+     * WMBR OFFSET, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void writeMemoryByteReg(int register, int register2) {
+        this.writeMemoryByteDword(this.getRegister(register), this.getRegister(register2));
+    }
+
+    /**
+     * Writes dword at memory.
+     * WMIR OFFSET, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void writeMemoryIntReg(int register, int register2) {
+        this.writeMemoryIntDword(this.getRegister(register), this.getRegister(register2));
+    }
+
+    /**
+     * Reads byte from memory and stores at register.
+     * RMBR REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void readMemoryByteReg(int register, int register2) {
+        this.readMemoryByteDword(register, this.getRegister(register2));
+    }
+
+    /**
+     * Reads dword from memory and stores at register.
+     * RMIR REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void readMemoryIntReg(int register, int register2) {
+        this.readMemoryIntDword(register, this.getRegister(register2));
+    }
+
+    // MEMORY(FRAME)
+
+    /**
+     * Reads dword from stack frame and stores at register.
+     * RMIF REGISTER, OFFSET
+     *
+     * @param register
+     * @param offset Relative to RBP.
+     */
+    private void readMemoryIntFrame(int register, int offset) {
+        this.readMemoryIntDword(register, registers[RBP] + offset);
+    }
+
+    /**
+     * Writes register to stack frame.
+     * WMIF OFFSET, REGISTER
+     *
+     * @param offset Relative to RBP.
+     * @param register
+     */
+    private void writeMemoryIntFrame(int offset, int register) {
+        if (this.memoryInBounds(registers[RBP] + offset, 4)) {
+            this.memory.writeDword(registers[RBP] + offset, this.getRegister(register));
+        }
+    }
+
+    // MEMORY(INDEXED)
+
+    /**
+     * Calculates BASE + INDEX * (1 << SHIFT) + DISP. Missing registers are -1.
+     *
+     * @param base
+     * @param index
+     * @param shift
+     * @param displacement
+     * @return
+     */
+    private int getIndexedAddress(int base, int index, int shift, int displacement) {
+        int address = displacement;
+
+        if (base != -1) address += this.getRegister(base);
+        if (index != -1) address += this.getRegister(index) << shift;
+
+        return address;
+    }
+
+    /**
+     * Reads dword from memory and stores at register.
+     * RMIX REGISTER, [BASE + INDEX * SCALE + DISP]
+     *
+     * @param register
+     * @param base
+     * @param index
+     * @param shift
+     * @param displacement
+     */
+    private void readMemoryIntIndex(int register, int base, int index, int shift, int displacement) {
+        this.readMemoryIntDword(register, this.getIndexedAddress(base, index, shift, displacement));
+    }
+
+    /**
+     * Reads byte from memory and stores at register.
+     * RMBX REGISTER, [BASE + INDEX * SCALE + DISP]
+     *
+     * @param register
+     * @param base
+     * @param index
+     * @param shift
+     * @param displacement
+     */
+    private void readMemoryByteIndex(int register, int base, int index, int shift, int displacement) {
+        this.readMemoryByteDword(register, this.getIndexedAddress(base, index, shift, displacement));
+    }
+
+    /**
+     * Writes dword at memory.
+     * WMIX [BASE + INDEX * SCALE + DISP], REGISTER
+     *
+     * @param base
+     * @param index
+     * @param shift
+     * @param displacement
+     * @param register
+     */
+    private void writeMemoryIntIndex(int base, int index, int shift, int displacement, int register) {
+        this.writeMemoryIntDword(this.getIndexedAddress(base, index, shift, displacement), this.getRegister(register));
+    }
+
+    /**
+     * Writes byte at memory.
+     * WMBX [BASE + INDEX * SCALE + DISP], REGISTER
+     *
+     * @param base
+     * @param index
+     * @param shift
+     * @param displacement
+     * @param register
+     */
+    private void writeMemoryByteIndex(int base, int index, int shift, int displacement, int register) {
+        this.writeMemoryByteDword(this.getIndexedAddress(base, index, shift, displacement), this.getRegister(register));
+    }
+
+    // Stack
+
     /**
      * Push value from register to stack.
      *
      * @param register PUSH REGISTER
      */
     private void pushDword(int register) {
-        if (this.stack.isFull()) {
-            this.cpuError();
+        if (this.memoryStack) {
+            this.pushMemory(this.getRegister(register));
+        } else if (this.stack.isFull()) {
+            this.cpuError("Stack overflow");
         } else {
             this.stack.push(this.getRegister(register));
         }
@@ -1005,31 +2239,112 @@ public class CPU {
      * @param register POP REGISTER
      */
     private void popDword(int register) {
-        this.setRegister(register, this.stack.pop());
+        if (this.memoryStack) {
+            if (this.memoryStackInBounds(registers[RSP], "Stack underflow")) {
+                this.setRegister(register, this.memory.readDword(registers[RSP]));
+                registers[RSP] += 4;
+            }
+        } else if (this.stack.isEmpty()) {
+            this.cpuError("Stack underflow");
+        } else {
+            this.setRegister(register, this.stack.pop());
+        }
     }
 
     /**
-     * Pushes RIP to stack and modifies it to given address
+     * Pushes return address to return stack and modifies RIP to given address
      * CALL LABEL
      */
     private void call(int address) {
-        this.stack.push(this.getRegister(RIP) - 1); // -1 because RIP is increased while fetching
-        this.setRegister(RIP, address);
+        if (this.memoryStack) {
+            // RIP points to operand, it is increased after fetching
+            if (this.pushMemory(registers[RIP])) registers[RIP] = address;
+        } else if (this.returnStack.isFull()) {
+            this.cpuError("Call stack overflow");
+        } else {
+            // RIP points to operand, it is increased after fetching
+            this.returnStack.push(registers[RIP]);
+            registers[RIP] = address;
+        }
     }
 
     /**
-     * Sets RIP to address from stack.
+     * Sets RIP to address from return stack. Returning from main halts.
      * RETN
      */
     private void retn() {
-        Instruction ins = new Instruction();
-        if (this.stack.isEmpty()) {
+        if (this.memoryStack) {
+            if (registers[RSP] == this.stackTop) {
+                this.halt();
+            } else if (this.memoryStackInBounds(registers[RSP], "Stack underflow")) {
+                registers[RIP] = this.memory.readDword(registers[RSP]);
+                registers[RSP] += 4;
+            }
+        } else if (this.returnStack.isEmpty()) {
             this.halt();
         } else {
-            this.setRegister(RIP, this.stack.pop() + ins.getInstructionOffset(CALL));
+            registers[RIP] = this.returnStack.pop();
         }
     }
 
+    /**
+     * Decreases RSP and writes value to memory stack.
+     *
+     * @param value
+     * @return False if stack is full.
+     */
+    private boolean pushMemory(int value) {
+        if (!this.memoryStackInBounds(registers[RSP] - 4, "Stack overflow")) return false;
+
+        registers[RSP] -= 4;
+        this.memory.writeDword(registers[RSP], value);
+        return true;
+    }
+
+    /**
+     * Checks if n bytes at address are inside of memory, faults otherwise.
+     *
+     * @param address
+     * @param n
+     * @return
+     */
+    private boolean memoryInBounds(int address, int n) {
+        if (!this.memory.inBounds(address, n)) {
+            this.cpuError("Invalid memory address " + PrintHelper.printHexNumber(address));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if dword at address is inside of memory and aligned to 4, faults otherwise.
+     *
+     * @param address
+     * @return
+     */
+    private boolean atomicInBounds(int address) {
+        if ((address & 3) != 0 || !this.memory.inBounds(address, 4)) {
+            this.cpuError("Invalid atomic address " + PrintHelper.printHexNumber(address));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if dword at address is inside of stack region, faults otherwise.
+     *
+     * @param address
+     * @param reason
+     * @return
+     */
+    private boolean memoryStackInBounds(int address, String reason) {
+        if (address < this.stackLimit || address > this.stackTop - 4) {
+            this.cpuError(reason);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Sets RIP to assemblySize and finishs execution.
      * HALT
@@ -1038,13 +2353,229 @@ public class CPU {
         this.setRegister(RIP, assemblySize);
     }
 
+    /**
+     * Ends current slice after this instruction. Execution continues with the next resume.
+     * YIELD
+     */
+    private void yieldSlice() {
+        this.sliceEnd = this.executedInstructions;
+        this.yielded = true;
+    }
+
+    // THREADS
+
+    /**
+     * Starts thread at address with copy of registers and flags. REGISTER receives the id of the new thread
+     * in both threads. A thread ends with halt or with return from its first procedure.
+     * SPAWN REGISTER, LABEL
+     *
+     * @param register
+     * @param address
+     */
+    private void spawn(int register, int address) {
+        GreenThreads threads = this.getThreads();
+        GreenThread thread;
+
+        if (threads == null) return;
+        thread = threads.spawn(new Stack(STACK), new ReturnStack(this.returnStack.getSize()));
+        if (thread == null) {
+            this.cpuError("Too many threads");
+            return;
+        }
+
+        // RIP of the new thread is not increased after fetching
+        thread.registers[RIP] = address + 1;
+        thread.registers[register] = thread.id;
+        if (this.memoryStack) {
+            thread.registers[RSP] = thread.stackTop;
+            thread.registers[RBP] = thread.stackTop;
+        }
+        this.setRegister(register, thread.id);
+
+        // Threads run in turns from now on
+        this.sliceEnd = Math.min(this.sliceEnd, this.executedInstructions + threads.getQuantum());
+    }
+
+    /**
+     * Waits till thread REGISTER is finished and sets REGISTER to its exit code R1. Frees id of the thread.
+     * JOIN REGISTER
+     *
+     * @param register
+     */
+    private void join(int register) {
+        GreenThreads threads = this.getThreads();
+        GreenThread thread;
+        GreenThread current;
+
+        if (threads == null) return;
+        thread = threads.get(this.getRegister(register));
+        current = threads.getCurrent();
+        if (thread == null || thread.id == 0 || thread == current || thread.joined) {
+            this.cpuError("Invalid thread " + this.getRegister(register));
+            return;
+        }
+
+        thread.joined = true;
+        current.state = GreenThread.JOINING;
+        current.joinedThread = thread.id;
+        current.resultRegister = register;
+        this.yieldSlice();
+    }
+
+    /**
+     * Lets other threads run for at least REGISTER milliseconds.
+     * SLEEP REGISTER
+     *
+     * @param register
+     */
+    private void sleep(int register) {
+        GreenThreads threads = this.getThreads();
+        GreenThread current;
+
+        if (threads == null) return;
+        current = threads.getCurrent();
+        current.state = GreenThread.SLEEPING;
+        current.wakeTime = System.nanoTime() + Math.max(0, this.getRegister(register)) * 1000000L;
+        this.yieldSlice();
+    }
+
+    /**
+     * Returns green threads, the running program becomes thread 0 on first use.
+     *
+     * @return null, if stack of main thread does not fit into its slot.
+     */
+    private GreenThreads getThreads() {
+        if (this.threads == null) {
+            GreenThread main = new GreenThread(0, this.registers, this.flags, this.stack, this.returnStack,
+                    this.stackTop, this.stackLimit);
+
+            this.threads = new GreenThreads(main, this.memory, this.memoryStack);
+            this.stackLimit = main.stackLimit;
+            if (this.memoryStack && registers[RSP] < this.stackLimit) {
+                this.cpuError("Stack overflow");
+                return null;
+            }
+        }
+        return this.threads;
+    }
+
+    /**
+     * Switches to next green thread, which can run. Waits, if all threads are blocked.
+     *
+     * @return False, if all threads are finished.
+     */
+    private boolean schedule() {
+        GreenThread next;
+
+        if (this.fault != null) return false;
+        if (registers[RIP] >= assemblySize) threads.getCurrent().state = GreenThread.FINISHED;
+
+        next = threads.next();
+        if (next == null) {
+            if (threads.isFinished()) {
+                // Result of program is main thread
+                this.stopThreads();
+            } else if (threads.isBlocked()) {
+                this.blocked = true;
+            } else {
+                this.cpuError("Deadlock");
+            }
+            return false;
+        }
+
+        this.load(next);
+        if (next.fault != null) {
+            this.cpuError(next.fault);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Loads context of thread.
+     *
+     * @param thread
+     */
+    private void load(GreenThread thread) {
+        this.registers = thread.registers;
+        this.flags = thread.flags;
+        this.stack = thread.stack;
+        this.returnStack = thread.returnStack;
+        this.stackTop = thread.stackTop;
+        this.stackLimit = thread.stackLimit;
+    }
+
+    /**
+     * Drops green threads and loads context of main thread.
+     */
+    private void stopThreads() {
+        this.blocked = false;
+        if (this.threads == null) return;
+
+        this.load(threads.getMain());
+        this.stackLimit = threads.getStackLimit();
+        this.threads = null;
+    }
+
+    // ATOMIC
+
+    /**
+     * Writes REGISTER3 to memory at REGISTER2, if it contains REGISTER. Sets EQUAL on success,
+     * otherwise REGISTER receives the current dword.
+     * CASR REGISTER, REGISTER2, REGISTER3
+     *
+     * @param register
+     * @param register2
+     * @param register3
+     */
+    private void compareAndSwap(int register, int register2, int register3) {
+        int address = this.getRegister(register2);
+        int expected = this.getRegister(register);
+
+        if (!this.atomicInBounds(address)) return;
+
+        int witness = this.memory.compareAndExchangeDword(address, expected, this.getRegister(register3));
+        this.setFlag(Flag.EQUAL, witness == expected);
+        this.setRegister(register, witness);
+    }
+
+    /**
+     * Adds REGISTER to memory at REGISTER2 and sets REGISTER to the dword before.
+     * XADDR REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void exchangeAdd(int register, int register2) {
+        int address = this.getRegister(register2);
+
+        if (!this.atomicInBounds(address)) return;
+        this.setRegister(register, this.memory.getAndAddDword(address, this.getRegister(register)));
+    }
+
+    /**
+     * Swaps REGISTER with memory at REGISTER2.
+     * XCHGR REGISTER, REGISTER2
+     *
+     * @param register
+     * @param register2
+     */
+    private void exchange(int register, int register2) {
+        int address = this.getRegister(register2);
+
+        if (!this.atomicInBounds(address)) return;
+        this.setRegister(register, this.memory.getAndSetDword(address, this.getRegister(register)));
+    }
+
     /**
      * Handles sys functions.
      *
      * @param function
      */
     private void interrupt(int function) {
-        String string1 = this.memory.readString(this.getRegister(R1));
+        // Channel functions pass an id in R1, only read the string, when a function uses it
+        String string1 = (function >= SYS_READ_LINE && function <= SYS_FILE_SIZE || function == SYS_ATTACH)
+                ? this.memory.readString(this.getRegister(R1)) : null;
         int position;
 
         switch (function) {
@@ -1055,9 +2586,17 @@ public class CPU {
              * Sets R1 to length of read string.
              */
             case SYS_READ_LINE:
+                if (!this.memoryInBounds(this.getRegister(R2), 0)) break;
+                // Other green threads run, till the line is read
+                if (this.threads != null) {
+                    threads.read(this.input, this.output, string1, this.getRegister(R2));
+                    this.yieldSlice();
+                    break;
+                }
                 try {
-                    String result = sysReadLine(string1);
+                    String result = sysReadLine(this.input, this.output, string1);
 
+                    if (!this.memoryInBounds(this.getRegister(R2), result.getBytes().length)) break;
                     this.memory.writeString(this.getRegister(R2), result);
                     this.setRegister(R1, result.length());
                 } catch (IOException e) {
@@ -1069,7 +2608,7 @@ public class CPU {
              * Writes string to console.
              */
             case SYS_WRITE_LINE:
-                sysWriteLine(string1);
+                sysWriteLine(this.output, string1);
                 break;
             /**
              * R1 = filePath
@@ -1113,8 +2652,112 @@ public class CPU {
              * Sets R1 to memory size;
              */
             case SYS_MEM_SIZE:
-                this.setRegister(R1, this.MEMORY);
+                this.setRegister(R1, MEMORY);
+                break;
+
+            /**
+             * Sets R1 to id of core, 0 without multicore.
+             */
+            case SYS_CORE_ID:
+                this.setRegister(R1, this.coreId);
                 break;
+
+            /**
+             * Sets R1 to count of cores.
+             */
+            case SYS_CORE_COUNT:
+                this.setRegister(R1, this.coreCount);
+                break;
+
+            /**
+             * R1 = channel
+             * R2 = position in memory
+             * R3 = count of bytes
+             * Sends or receives bytes. Blocking functions wait till a byte can be moved.
+             * Sets R1 to count of moved bytes, -1 if channel is closed.
+             */
+            case SYS_SEND:
+            case SYS_RECEIVE:
+            case SYS_TRY_SEND:
+            case SYS_TRY_RECEIVE:
+                this.transfer(function == SYS_SEND || function == SYS_TRY_SEND, function == SYS_SEND || function == SYS_RECEIVE);
+                break;
+
+            /**
+             * R1 = channel
+             * Closes channel, receiver gets -1 after all sent bytes.
+             */
+            case SYS_CLOSE:
+                Channel channel = this.getChannel(this.getRegister(R1));
+
+                if (channel != null) channel.close();
+                break;
+
+            /**
+             * R1 = name of shared region
+             * Maps region into memory.
+             * Sets R1 to its address and R2 to its size.
+             */
+            case SYS_ATTACH:
+                SharedRegion region = SharedRegion.get(string1);
+                int base = (region != null) ? this.memory.attach(region) : -1;
+
+                if (region == null) {
+                    this.cpuError("Invalid shared region " + string1);
+                } else if (base < 0) {
+                    this.cpuError("No address space for shared region " + string1);
+                } else {
+                    this.setRegister(R1, base);
+                    this.setRegister(R2, region.getSize());
+                }
+                break;
+        }
+    }
+
+    /**
+     * Moves bytes between memory and channel R1.
+     *
+     * @param send
+     * @param blocking
+     */
+    private void transfer(boolean send, boolean blocking) {
+        Channel channel = this.getChannel(this.getRegister(R1));
+        int address = this.getRegister(R2);
+        int n = this.getRegister(R3);
+
+        if (channel == null) return;
+        if (address < 0 || n < 0 || n > MEMORY - address) {
+            this.cpuError("Invalid memory range " + PrintHelper.printHexNumber(address) + " + " + n);
+            return;
         }
+
+        if (blocking && !(send ? channel.isWritable() : channel.isReadable())) {
+            if (this.threads != null) {
+                // Other green threads run, the sys function is repeated when the channel is ready
+                threads.await(channel, send);
+                registers[RIP] -= 2;
+                this.yieldSlice();
+                return;
+            }
+            if (!(send ? channel.awaitWritable() : channel.awaitReadable())) {
+                this.cpuError("Interrupted");
+                return;
+            }
+        }
+
+        this.setRegister(R1, send ? channel.offer(this.memory, address, n) : channel.poll(this.memory, address, n));
+    }
+
+    /**
+     * Returns channel by id, faults if there is none.
+     *
+     * @param id
+     * @return
+     */
+    private Channel getChannel(int id) {
+        Channel channel = this.channels.get(id);
+
+        if (channel == null) this.cpuError("Invalid channel " + id);
+        return channel;
     }
 }
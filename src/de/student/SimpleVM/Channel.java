@@ -0,0 +1,233 @@
+package de.student.SimpleVM;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free ring buffer of bytes from one producer to one consumer, for example two VM instances of a pipeline.
+ * Blocks are copied directly between the memory of a VM and the buffer. The producer publishes bytes by
+ * releasing tail, the consumer frees them by releasing head, so no locks are needed.
+ * <p>
+ * Only one thread may send and one thread may receive at the same time.
+ */
+public class Channel {
+    /**
+     * Default capacity in bytes. Can be changed with property simplevm.channel.capacity.
+     */
+    final static int DEFAULT_CAPACITY = 1 << 16;
+
+    // Rounds of spinning, before a waiting thread yields and then parks
+    private final static int SPINS = 100;
+    private final static int YIELDS = 100;
+    private final static long PARK_NANOS = 50000;
+
+    private final static VarHandle HEAD;
+    private final static VarHandle TAIL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            HEAD = lookup.findVarHandle(Channel.class, "head", long.class);
+            TAIL = lookup.findVarHandle(Channel.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final byte[] buffer;
+    private final int mask;
+
+    // Count of received bytes, written by consumer
+    private long head;
+    // Count of sent bytes, written by producer
+    private long tail;
+    private volatile boolean closed;
+
+    public Channel() {
+        this(Integer.getInteger("simplevm.channel.capacity", DEFAULT_CAPACITY));
+    }
+
+    /**
+     * @param capacity Rounded up to a power of 2.
+     */
+    public Channel(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+        if (size <= 0) throw new IllegalArgumentException("Invalid channel capacity " + capacity);
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Copies as many bytes of memory as fit into the buffer.
+     *
+     * @param memory
+     * @param offset
+     * @param n
+     * @return Sent bytes, -1 if channel is closed.
+     */
+    public int offer(Memory memory, int offset, int n) {
+        if (closed) return -1;
+
+        long tail = this.tail;
+        int count = (int) Math.min(n, buffer.length - (tail - (long) HEAD.getAcquire(this)));
+        int position = (int) tail & mask;
+        int first = Math.min(count, buffer.length - position);
+
+        memory.copyTo(offset, buffer, position, first);
+        memory.copyTo(offset + first, buffer, 0, count - first);
+        TAIL.setRelease(this, tail + count);
+        return count;
+    }
+
+    /**
+     * Copies as many bytes as fit into the buffer.
+     *
+     * @param bytes
+     * @param offset
+     * @param n
+     * @return Sent bytes, -1 if channel is closed.
+     */
+    public int offer(byte[] bytes, int offset, int n) {
+        if (closed) return -1;
+
+        long tail = this.tail;
+        int count = (int) Math.min(n, buffer.length - (tail - (long) HEAD.getAcquire(this)));
+        int position = (int) tail & mask;
+        int first = Math.min(count, buffer.length - position);
+
+        System.arraycopy(bytes, offset, buffer, position, first);
+        System.arraycopy(bytes, offset + first, buffer, 0, count - first);
+        TAIL.setRelease(this, tail + count);
+        return count;
+    }
+
+    /**
+     * Copies up to n available bytes to memory.
+     *
+     * @param memory
+     * @param offset
+     * @param n
+     * @return Received bytes, -1 if channel is closed and empty.
+     */
+    public int poll(Memory memory, int offset, int n) {
+        // Bytes sent before closing are visible, when closed is read first
+        boolean closed = this.closed;
+        long head = this.head;
+        int available = (int) ((long) TAIL.getAcquire(this) - head);
+
+        if (available == 0) return closed ? -1 : 0;
+
+        int count = Math.min(n, available);
+        int position = (int) head & mask;
+        int first = Math.min(count, buffer.length - position);
+
+        memory.copyFrom(offset, buffer, position, first);
+        memory.copyFrom(offset + first, buffer, 0, count - first);
+        HEAD.setRelease(this, head + count);
+        return count;
+    }
+
+    /**
+     * Copies up to n available bytes to array.
+     *
+     * @param bytes
+     * @param offset
+     * @param n
+     * @return Received bytes, -1 if channel is closed and empty.
+     */
+    public int poll(byte[] bytes, int offset, int n) {
+        boolean closed = this.closed;
+        long head = this.head;
+        int available = (int) ((long) TAIL.getAcquire(this) - head);
+
+        if (available == 0) return closed ? -1 : 0;
+
+        int count = Math.min(n, available);
+        int position = (int) head & mask;
+        int first = Math.min(count, buffer.length - position);
+
+        System.arraycopy(buffer, position, bytes, offset, first);
+        System.arraycopy(buffer, 0, bytes, offset + first, count - first);
+        HEAD.setRelease(this, head + count);
+        return count;
+    }
+
+    /**
+     * Ends the channel. The consumer still receives all bytes sent before.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Checks if a byte can be sent or sending fails because the channel is closed.
+     *
+     * @return
+     */
+    public boolean isWritable() {
+        return closed || tail - (long) HEAD.getAcquire(this) < buffer.length;
+    }
+
+    /**
+     * Checks if a byte can be received or the channel is closed.
+     *
+     * @return
+     */
+    public boolean isReadable() {
+        return closed || (long) TAIL.getAcquire(this) != head;
+    }
+
+    /**
+     * Waits till a byte can be sent. Spins first, because the consumer is often running on another core.
+     *
+     * @return False, if waiting thread was interrupted.
+     */
+    public boolean awaitWritable() {
+        for (int round = 0; !this.isWritable(); round++) {
+            if (!idle(round)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits till a byte can be received.
+     *
+     * @return False, if waiting thread was interrupted.
+     */
+    public boolean awaitReadable() {
+        for (int round = 0; !this.isReadable(); round++) {
+            if (!idle(round)) return false;
+        }
+        return true;
+    }
+
+    // Helper
+
+    /**
+     * Backs off more with every round.
+     *
+     * @param round
+     * @return False, if thread was interrupted.
+     */
+    private static boolean idle(int round) {
+        if (round < SPINS) {
+            Thread.onSpinWait();
+        } else if (round < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+}
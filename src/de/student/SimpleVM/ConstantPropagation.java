@@ -0,0 +1,650 @@
+package de.student.SimpleVM;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static de.student.SimpleVM.Instruction.*;
+
+/**
+ * Conditional constant propagation over registers and flags.
+ * Only blocks, which are reachable with the known constants, are visited. Calls, memory loads and sys functions
+ * produce unknown values.
+ */
+public class ConstantPropagation {
+    // Branch decisions
+    final static int UNKNOWN = 0;
+    final static int TAKEN = 1;
+    final static int NOT_TAKEN = 2;
+
+    private ControlFlowGraph cfg;
+    private Instruction ins;
+    private Map<BasicBlock, State> inStates;
+
+    public ConstantPropagation(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+        this.ins = new Instruction();
+        this.inStates = new HashMap<>();
+
+        this.run();
+    }
+
+    /**
+     * Checks if block can be executed.
+     *
+     * @param block
+     * @return
+     */
+    public boolean isExecutable(BasicBlock block) {
+        return inStates.containsKey(block);
+    }
+
+    /**
+     * Returns copy of known values at begin of block or null if block is not executable.
+     *
+     * @param block
+     * @return
+     */
+    public State getInState(BasicBlock block) {
+        State state = inStates.get(block);
+        return (state == null) ? null : state.copy();
+    }
+
+    /**
+     * Returns known values at end of block or null if block is not executable.
+     *
+     * @param block
+     * @return
+     */
+    public State getOutState(BasicBlock block) {
+        State state = getInState(block);
+
+        if (state != null) {
+            for (int[] instruction : block.getInstructions()) {
+                transfer(instruction, state);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Decides conditional jump at end of block.
+     *
+     * @param block
+     * @return TAKEN, NOT_TAKEN or UNKNOWN
+     */
+    public int getBranchDecision(BasicBlock block) {
+        int[] terminator = block.getTerminator();
+        State state = getOutState(block);
+
+        if (state == null || terminator == null) return UNKNOWN;
+
+        return evaluateCondition(terminator[0], state);
+    }
+
+    /**
+     * Evaluates condition of jump with known flags.
+     *
+     * @param operation
+     * @param state
+     * @return TAKEN, NOT_TAKEN or UNKNOWN
+     */
+    public int evaluateCondition(int operation, State state) {
+        int flag;
+        boolean expected;
+
+        switch (operation) {
+            case JMP:
+                return TAKEN;
+            case JE:
+                flag = Flag.EQUAL;
+                expected = true;
+                break;
+            case JNE:
+                flag = Flag.EQUAL;
+                expected = false;
+                break;
+            case JG:
+                flag = Flag.GREATER;
+                expected = true;
+                break;
+            case JB:
+                flag = Flag.LOWER;
+                expected = true;
+                break;
+            default:
+                return UNKNOWN;
+        }
+
+        if (!state.isFlagKnown(flag)) return UNKNOWN;
+
+        return (state.getFlag(flag) == expected) ? TAKEN : NOT_TAKEN;
+    }
+
+    /**
+     * Applies instruction to known values. Mirrors the semantics of CPU.
+     *
+     * @param instruction
+     * @param state
+     */
+    public void transfer(int[] instruction, State state) {
+        int operation = instruction[0];
+
+        switch (operation) {
+            case MOV_DWORD:
+                state.setRegister(instruction[1], instruction[2]);
+                break;
+            case MOV_REG:
+                state.copyRegister(instruction[1], instruction[2]);
+                break;
+            case CMOVE:
+            case CMOVNE:
+            case CMOVG:
+            case CMOVB:
+                int move = evaluateCondition(ins.getConditionJump(operation), state);
+                if (move == TAKEN) {
+                    state.copyRegister(instruction[1], instruction[2]);
+                } else if (move == UNKNOWN && !(state.isKnown(instruction[1]) && state.isKnown(instruction[2])
+                        && state.getRegister(instruction[1]) == state.getRegister(instruction[2]))) {
+                    state.setUnknown(instruction[1]);
+                }
+                break;
+            case LOOP:
+                // Branch is not decided, only the counter is tracked
+                if (state.isKnown(instruction[1])) {
+                    state.setRegister(instruction[1], state.getRegister(instruction[1]) - 1);
+                }
+                break;
+            case SETE:
+            case SETNE:
+            case SETG:
+            case SETB:
+                int set = evaluateCondition(ins.getConditionJump(operation), state);
+                if (set == UNKNOWN) {
+                    state.setUnknown(instruction[1]);
+                } else {
+                    state.setRegister(instruction[1], (set == TAKEN) ? 1 : 0);
+                }
+                break;
+            case ADD_DWORD:
+            case SUB_DWORD:
+            case MUL_DWORD:
+            case ADC_DWORD:
+            case SBB_DWORD:
+                arithmetic(state, operation, instruction[1], true, instruction[2]);
+                break;
+            case ADD_REG:
+            case SUB_REG:
+            case MUL_REG:
+            case ADC_REG:
+            case SBB_REG:
+                // Result of subr r r does not depend on r
+                if (operation == SUB_REG && instruction[1] == instruction[2]) state.setRegister(instruction[1], 0);
+                arithmetic(state, toDwordOperation(operation), instruction[1], state.isKnown(instruction[2]), state.getRegister(instruction[2]));
+                break;
+            case XOR_DWORD:
+            case AND_DWORD:
+            case OR_DWORD:
+            case SHL_DWORD:
+            case SHR_DWORD:
+            case ROL_DWORD:
+            case ROR_DWORD:
+                if (state.isKnown(instruction[1])) {
+                    state.setRegister(instruction[1], calculate(operation, state.getRegister(instruction[1]), instruction[2]));
+                } else {
+                    state.setUnknown(instruction[1]);
+                }
+                break;
+            case XOR_REG:
+            case AND_REG:
+            case OR_REG:
+            case SHL_REG:
+            case SHR_REG:
+            case ROL_REG:
+            case ROR_REG:
+                if (operation == XOR_REG && instruction[1] == instruction[2]) {
+                    state.setRegister(instruction[1], 0);
+                } else if (state.isKnown(instruction[1]) && state.isKnown(instruction[2])) {
+                    state.setRegister(instruction[1], calculate(toDwordOperation(operation), state.getRegister(instruction[1]), state.getRegister(instruction[2])));
+                } else {
+                    state.setUnknown(instruction[1]);
+                }
+                break;
+            case DIV_DWORD:
+            case DIV_REG:
+                if (operation == DIV_DWORD) {
+                    divide(state, instruction[1], true, instruction[2]);
+                } else {
+                    divide(state, instruction[1], state.isKnown(instruction[2]), state.getRegister(instruction[2]));
+                }
+                break;
+            case NOT_REG:
+            case POPCNT_REG:
+            case CLZ_REG:
+            case CTZ_REG:
+            case BSWAP_REG:
+                if (state.isKnown(instruction[1])) {
+                    state.setRegister(instruction[1], calculate(operation, state.getRegister(instruction[1])));
+                }
+                break;
+            case INC_REG:
+            case DEC_REG:
+                if (state.isKnown(instruction[1])) {
+                    state.setRegister(instruction[1], state.getRegister(instruction[1]) + (operation == INC_REG ? 1 : -1));
+                }
+                break;
+            case CMP_DWORD:
+                // CMPD compares register against value
+                compare(state, true, instruction[2], state.isKnown(instruction[1]), state.getRegister(instruction[1]));
+                break;
+            case CMP_REG:
+                compare(state, state.isKnown(instruction[1]), state.getRegister(instruction[1]), state.isKnown(instruction[2]), state.getRegister(instruction[2]));
+                break;
+            default:
+                // Loads, pops, sys functions and unknown instructions
+                long defs = cfg.getDefs(instruction);
+                for (int register = 0; register < Register.COUNT; register++) {
+                    if ((defs & (1L << register)) != 0) state.setUnknown(register);
+                }
+                break;
+        }
+
+        this.transferFlags(instruction, state);
+    }
+
+    // Helper
+
+    /**
+     * Visits executable blocks till known values do not change anymore.
+     */
+    private void run() {
+        Deque<BasicBlock> worklist = new ArrayDeque<>();
+        BasicBlock entry = cfg.getEntry();
+
+        if (entry == null) return;
+
+        // Registers may be preset by caller
+        inStates.put(entry, State.unknown());
+        worklist.add(entry);
+
+        while (!worklist.isEmpty()) {
+            BasicBlock block = worklist.poll();
+            State state = getOutState(block);
+            BasicBlock fallThrough = block.getFallThrough();
+            BasicBlock target = block.getTarget();
+
+            if (block.endsWithCall()) {
+                // Procedure is entered from several places and may change everything
+                this.merge(target, State.unknown(), worklist);
+                if (fallThrough != null) this.merge(fallThrough, State.unknown(), worklist);
+                continue;
+            }
+
+            int[] terminator = block.getTerminator();
+            int decision = (terminator != null) ? evaluateCondition(terminator[0], state) : UNKNOWN;
+
+            if (target != null && decision != NOT_TAKEN) this.merge(target, state, worklist);
+            if (fallThrough != null && decision != TAKEN) this.merge(fallThrough, state, worklist);
+        }
+    }
+
+    /**
+     * Merges state into begin of block and schedules it, if something changed.
+     *
+     * @param block
+     * @param state
+     * @param worklist
+     */
+    private void merge(BasicBlock block, State state, Deque<BasicBlock> worklist) {
+        State current = inStates.get(block);
+
+        if (current == null) {
+            inStates.put(block, state.copy());
+        } else if (!current.merge(state)) {
+            return;
+        }
+        if (!worklist.contains(block)) worklist.add(block);
+    }
+
+    /**
+     * Updates flags written by instruction. Called after registers are updated.
+     *
+     * @param instruction
+     * @param state
+     */
+    private void transferFlags(int[] instruction, State state) {
+        int operation = instruction[0];
+
+        switch (operation) {
+            case DIV_DWORD:
+            case DIV_REG:
+                // Division clears all flags
+                for (int flag = 0; flag < Flag.COUNT; flag++) state.setFlag(flag, false);
+                break;
+            case ADD_DWORD:
+            case SUB_DWORD:
+            case MUL_DWORD:
+            case ADC_DWORD:
+            case SBB_DWORD:
+            case ADD_REG:
+            case SUB_REG:
+            case MUL_REG:
+            case ADC_REG:
+            case SBB_REG:
+                // Set by arithmetic()
+                break;
+            case SHL_DWORD:
+            case SHR_DWORD:
+            case SHL_REG:
+            case SHR_REG:
+                state.setFlag(Flag.EQUAL, false);
+                state.setFlag(Flag.GREATER, false);
+                state.setFlag(Flag.LOWER, false);
+                break;
+            case INC_REG:
+                // Only maximum wraps around
+                if (state.isKnown(instruction[1])) {
+                    state.setFlag(Flag.OVERFLOW, state.getRegister(instruction[1]) == Integer.MIN_VALUE);
+                } else {
+                    state.setFlagUnknown(Flag.OVERFLOW);
+                }
+                break;
+            case DEC_REG:
+                if (state.isKnown(instruction[1])) {
+                    state.setFlag(Flag.UNDERFLOW, state.getRegister(instruction[1]) == Integer.MAX_VALUE);
+                } else {
+                    state.setFlagUnknown(Flag.UNDERFLOW);
+                }
+                break;
+            case CMP_DWORD:
+            case CMP_REG:
+                // Set by compare()
+                break;
+            default:
+                int written = ins.getFlagsWritten(operation);
+                for (int flag = 0; flag < Flag.COUNT; flag++) {
+                    if ((written & (1 << flag)) != 0) state.setFlagUnknown(flag);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Sets compare flags like CPU.generalCompareHandler.
+     *
+     * @param state
+     * @param known1
+     * @param value1
+     * @param known2
+     * @param value2
+     */
+    private void compare(State state, boolean known1, int value1, boolean known2, int value2) {
+        if (known1 && known2) {
+            state.setFlag(Flag.EQUAL, value2 == value1);
+            state.setFlag(Flag.GREATER, value2 > value1);
+            state.setFlag(Flag.LOWER, value2 < value1);
+        } else {
+            state.setFlagUnknown(Flag.EQUAL);
+            state.setFlagUnknown(Flag.GREATER);
+            state.setFlagUnknown(Flag.LOWER);
+        }
+    }
+
+    /**
+     * Adds, subtracts or multiplies like CPU. Compare flags are cleared, overflow, underflow and carry
+     * are calculated, if operands are known.
+     *
+     * @param state
+     * @param operation Dword operation.
+     * @param register
+     * @param known
+     * @param value
+     */
+    private void arithmetic(State state, int operation, int register, boolean known, int value) {
+        boolean withCarry = (operation == ADC_DWORD || operation == SBB_DWORD);
+        boolean subtract = (operation == SUB_DWORD || operation == SBB_DWORD);
+        boolean carryKnown = !withCarry || state.isFlagKnown(Flag.CARRY);
+        int carry = (withCarry && state.getFlag(Flag.CARRY)) ? 1 : 0;
+
+        for (int flag = 0; flag < Flag.COUNT; flag++) state.setFlag(flag, false);
+
+        if (!known || !carryKnown || !state.isKnown(register)) {
+            state.setUnknown(register);
+            if (operation == MUL_DWORD) {
+                state.setFlagUnknown(Flag.OVERFLOW);
+            } else {
+                state.setFlagUnknown(subtract ? Flag.UNDERFLOW : Flag.OVERFLOW);
+                state.setFlagUnknown(Flag.CARRY);
+            }
+            return;
+        }
+
+        long current = state.getRegister(register);
+        long unsigned = current & 0xFFFFFFFFL;
+        long result;
+        if (operation == MUL_DWORD) {
+            result = current * value;
+            state.setFlag(Flag.OVERFLOW, result != (int) result);
+        } else if (subtract) {
+            result = current - value - carry;
+            state.setFlag(Flag.UNDERFLOW, result != (int) result);
+            state.setFlag(Flag.CARRY, unsigned < (value & 0xFFFFFFFFL) + carry);
+        } else {
+            result = current + value + carry;
+            state.setFlag(Flag.OVERFLOW, result != (int) result);
+            state.setFlag(Flag.CARRY, unsigned + (value & 0xFFFFFFFFL) + carry > 0xFFFFFFFFL);
+        }
+        state.setRegister(register, (int) result);
+    }
+
+    /**
+     * Divides like CPU: register gets quotient, R6 modulo. Division by zero is left unknown.
+     *
+     * @param state
+     * @param register
+     * @param known
+     * @param divisor
+     */
+    private void divide(State state, int register, boolean known, int divisor) {
+        if (known && divisor != 0 && state.isKnown(register)) {
+            int value = state.getRegister(register);
+
+            state.setRegister(register, value / divisor);
+            state.setRegister(Register.R6, value % divisor);
+        } else {
+            state.setUnknown(register);
+            state.setUnknown(Register.R6);
+        }
+    }
+
+    /**
+     * Maps register operation to its dword counterpart.
+     *
+     * @param operation
+     * @return
+     */
+    private int toDwordOperation(int operation) {
+        switch (operation) {
+            case ADD_REG:
+                return ADD_DWORD;
+            case SUB_REG:
+                return SUB_DWORD;
+            case MUL_REG:
+                return MUL_DWORD;
+            case XOR_REG:
+                return XOR_DWORD;
+            case AND_REG:
+                return AND_DWORD;
+            case OR_REG:
+                return OR_DWORD;
+            case SHL_REG:
+                return SHL_DWORD;
+            case ADC_REG:
+                return ADC_DWORD;
+            case SBB_REG:
+                return SBB_DWORD;
+            case ROL_REG:
+                return ROL_DWORD;
+            case ROR_REG:
+                return ROR_DWORD;
+            default:
+                return SHR_DWORD;
+        }
+    }
+
+    /**
+     * Calculates result of dword operation.
+     *
+     * @param operation
+     * @param value1
+     * @param value2
+     * @return
+     */
+    private int calculate(int operation, int value1, int value2) {
+        switch (operation) {
+            case ADD_DWORD:
+                return value1 + value2;
+            case SUB_DWORD:
+                return value1 - value2;
+            case MUL_DWORD:
+                return value1 * value2;
+            case XOR_DWORD:
+                return value1 ^ value2;
+            case AND_DWORD:
+                return value1 & value2;
+            case OR_DWORD:
+                return value1 | value2;
+            case SHL_DWORD:
+                return value1 << value2;
+            case ROL_DWORD:
+                return Integer.rotateLeft(value1, value2);
+            case ROR_DWORD:
+                return Integer.rotateRight(value1, value2);
+            default:
+                return value1 >> value2;
+        }
+    }
+
+    /**
+     * Calculates result of single register operation.
+     *
+     * @param operation
+     * @param value
+     * @return
+     */
+    private int calculate(int operation, int value) {
+        switch (operation) {
+            case POPCNT_REG:
+                return Integer.bitCount(value);
+            case CLZ_REG:
+                return Integer.numberOfLeadingZeros(value);
+            case CTZ_REG:
+                return Integer.numberOfTrailingZeros(value);
+            case BSWAP_REG:
+                return Integer.reverseBytes(value);
+            default:
+                return ~value;
+        }
+    }
+
+    /**
+     * Known registers and flags at a program point.
+     */
+    public static class State {
+        private int[] registers;
+        private long knownRegisters;
+        private int flags;
+        private int knownFlags;
+
+        private State() {
+            registers = new int[Register.COUNT];
+        }
+
+        /**
+         * State where nothing is known.
+         *
+         * @return
+         */
+        public static State unknown() {
+            return new State();
+        }
+
+        public State copy() {
+            State copy = new State();
+
+            copy.registers = registers.clone();
+            copy.knownRegisters = knownRegisters;
+            copy.flags = flags;
+            copy.knownFlags = knownFlags;
+
+            return copy;
+        }
+
+        public boolean isKnown(int register) {
+            return (knownRegisters & (1L << register)) != 0;
+        }
+
+        public int getRegister(int register) {
+            return registers[register];
+        }
+
+        public void setRegister(int register, int value) {
+            registers[register] = value;
+            knownRegisters |= 1L << register;
+        }
+
+        public void setUnknown(int register) {
+            knownRegisters &= ~(1L << register);
+        }
+
+        public void copyRegister(int destination, int source) {
+            if (isKnown(source)) {
+                setRegister(destination, registers[source]);
+            } else {
+                setUnknown(destination);
+            }
+        }
+
+        public boolean isFlagKnown(int flag) {
+            return (knownFlags & (1 << flag)) != 0;
+        }
+
+        public boolean getFlag(int flag) {
+            return (flags & (1 << flag)) != 0;
+        }
+
+        public void setFlag(int flag, boolean value) {
+            knownFlags |= 1 << flag;
+            flags = value ? (flags | (1 << flag)) : (flags & ~(1 << flag));
+        }
+
+        public void setFlagUnknown(int flag) {
+            knownFlags &= ~(1 << flag);
+        }
+
+        /**
+         * Keeps only values, which are equal in both states.
+         *
+         * @param other
+         * @return true if something changed.
+         */
+        public boolean merge(State other) {
+            long known = knownRegisters & other.knownRegisters;
+            int knownFlagsMerged = knownFlags & other.knownFlags & ~(flags ^ other.flags);
+
+            for (int register = 0; register < registers.length; register++) {
+                if ((known & (1L << register)) != 0 && registers[register] != other.registers[register]) {
+                    known &= ~(1L << register);
+                }
+            }
+
+            boolean changed = (known != knownRegisters) || (knownFlagsMerged != knownFlags);
+
+            knownRegisters = known;
+            knownFlags = knownFlagsMerged;
+
+            return changed;
+        }
+    }
+}
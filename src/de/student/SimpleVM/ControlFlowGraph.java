@@ -0,0 +1,596 @@
+package de.student.SimpleVM;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static de.student.SimpleVM.Instruction.*;
+
+/**
+ * Splits assembled code with unresolved labels into basic blocks and links them.
+ * Calls are modelled as an edge to the procedure and a fall through edge to the return site.
+ */
+public class ControlFlowGraph {
+    /**
+     * Flags are stored after the registers in liveness bit masks.
+     */
+    final static int FLAG_SHIFT = 48;
+
+    // Bit masks
+    final static long ALL_REGISTERS = (1L << Register.COUNT) - 1;
+    final static long ALL_FLAGS = (long) Instruction.ALL_FLAGS << FLAG_SHIFT;
+    final static long EVERYTHING = ALL_REGISTERS | ALL_FLAGS;
+    // Sys functions return in R1, attach also returns the size in R2
+    final static long SYS_FUNCTION_DEFS = (1L << Register.R1) | (1L << Register.R2);
+
+    private Instruction ins;
+    private List<BasicBlock> blocks;
+    private Map<Integer, BasicBlock> labels;
+    private int nextLabel;
+
+    public ControlFlowGraph(List<Integer> assembly) {
+        ins = new Instruction();
+        blocks = new ArrayList<>();
+        labels = new HashMap<>();
+        nextLabel = Integer.MIN_VALUE;
+
+        this.build(ins.decode(assembly));
+        this.update();
+    }
+
+    /**
+     * Returns blocks in program order.
+     *
+     * @return
+     */
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Returns first block.
+     *
+     * @return
+     */
+    public BasicBlock getEntry() {
+        return blocks.isEmpty() ? null : blocks.get(0);
+    }
+
+    /**
+     * Returns block starting with label or null.
+     *
+     * @param label
+     * @return
+     */
+    public BasicBlock getBlockByLabel(int label) {
+        return labels.get(label);
+    }
+
+    /**
+     * Returns label id, which is not used yet.
+     *
+     * @return
+     */
+    public int createLabel() {
+        while (labels.containsKey(nextLabel)) nextLabel++;
+        return nextLabel++;
+    }
+
+    /**
+     * Joins blocks to byte code with unresolved labels.
+     *
+     * @return
+     */
+    public List<Integer> toAssembly() {
+        return ins.encode(getInstructions());
+    }
+
+    /**
+     * Returns all instructions in program order.
+     *
+     * @return
+     */
+    public List<int[]> getInstructions() {
+        List<int[]> instructions = new ArrayList<>();
+
+        for (BasicBlock block : blocks) {
+            instructions.addAll(block.getInstructions());
+        }
+
+        return instructions;
+    }
+
+    /**
+     * Splits blocks again. Has to be called, when labels or jumps were added inside of blocks.
+     */
+    public void rebuild() {
+        List<int[]> instructions = getInstructions();
+
+        blocks.clear();
+        this.build(instructions);
+        this.update();
+    }
+
+    /**
+     * Recalculates indices, labels and edges. Has to be called, when blocks or terminators were changed.
+     */
+    public void update() {
+        labels.clear();
+
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+
+            block.setIndex(i);
+            block.getPredecessors().clear();
+            if (block.hasLabel()) {
+                if (labels.containsKey(block.getLabel())) {
+                    throw new IllegalArgumentException("Labels were redefined.");
+                }
+                labels.put(block.getLabel(), block);
+            }
+        }
+
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+            BasicBlock next = (i + 1 < blocks.size()) ? blocks.get(i + 1) : null;
+            int[] terminator = block.getTerminator();
+
+            block.setFallThrough(next);
+            block.setTarget(null);
+
+            if (terminator != null) {
+                int operation = terminator[0];
+
+                if (operation == JMP || operation == RETN || operation == HALT) {
+                    block.setFallThrough(null);
+                }
+                // Spawned threads start at target like a call
+                if (ins.isBranch(operation) || operation == CALL || operation == SPAWN) {
+                    BasicBlock target = labels.get(terminator[ins.getLabelOperand(operation)]);
+                    if (target == null) {
+                        throw new IllegalArgumentException("Used label is not defined.");
+                    }
+                    block.setTarget(target);
+                }
+            }
+
+            for (BasicBlock successor : block.getSuccessors()) {
+                successor.getPredecessors().add(block);
+            }
+        }
+    }
+
+    /**
+     * Checks if all register operands are valid and the instruction pointer is never used directly.
+     * Code, which reads RIP, depends on its position and must not be moved.
+     *
+     * @return
+     */
+    public boolean isSupported() {
+        for (BasicBlock block : blocks) {
+            for (int[] instruction : block.getInstructions()) {
+                int[] kinds = ins.getOperandKinds(instruction[0]);
+
+                if (kinds == null) return false;
+                for (int i = 0; i < kinds.length; i++) {
+                    if (kinds[i] == OPERAND_READ_OPTIONAL && instruction[i + 1] == -1) continue;
+                    if (isPair(kinds[i]) && Register.getHighRegister(instruction[i + 1]) == -1) return false;
+                    if (kinds[i] != OPERAND_READ && kinds[i] != OPERAND_WRITE && kinds[i] != OPERAND_READ_WRITE
+                            && kinds[i] != OPERAND_READ_OPTIONAL && !isPair(kinds[i])) continue;
+                    if (instruction[i + 1] < 0 || instruction[i + 1] >= Register.COUNT || instruction[i + 1] == Register.RIP) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calculates live registers and flags at begin and end of every block.
+     * Everything is live after calls, returns, halts and at program end.
+     */
+    public void computeLiveness() {
+        boolean changed;
+
+        for (BasicBlock block : blocks) {
+            block.setLiveIn(0);
+            block.setLiveOut(0);
+        }
+
+        do {
+            changed = false;
+
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                BasicBlock block = blocks.get(i);
+                long liveOut = this.getLiveOut(block);
+                long live = liveOut;
+
+                for (int j = block.getInstructions().size() - 1; j >= 0; j--) {
+                    int[] instruction = block.getInstructions().get(j);
+                    live = (live & ~getDefs(instruction)) | getUses(instruction);
+                }
+
+                if (live != block.getLiveIn() || liveOut != block.getLiveOut()) {
+                    block.setLiveIn(live);
+                    block.setLiveOut(liveOut);
+                    changed = true;
+                }
+            }
+        } while (changed);
+    }
+
+    /**
+     * Calculates for every block the set of blocks, which are passed on every path from the entry.
+     * Calls are not followed, so procedures are dominated by their callers only through the return site.
+     *
+     * @return Dominators by block index, null for unreachable blocks.
+     */
+    public List<BitSet> computeDominators() {
+        List<BitSet> dominators = new ArrayList<>();
+        BitSet reachable = new BitSet();
+        List<BasicBlock> worklist = new ArrayList<>();
+        boolean changed;
+
+        for (int i = 0; i < blocks.size(); i++) dominators.add(null);
+        if (blocks.isEmpty()) return dominators;
+
+        // Reachable blocks, including procedures
+        worklist.add(getEntry());
+        reachable.set(0);
+        while (!worklist.isEmpty()) {
+            BasicBlock block = worklist.remove(worklist.size() - 1);
+
+            for (BasicBlock successor : block.getSuccessors()) {
+                if (!reachable.get(successor.getIndex())) {
+                    reachable.set(successor.getIndex());
+                    worklist.add(successor);
+                }
+            }
+        }
+
+        for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+            BitSet all = new BitSet();
+            all.or(reachable);
+            dominators.set(i, all);
+        }
+        dominators.get(0).clear();
+        dominators.get(0).set(0);
+
+        do {
+            changed = false;
+
+            for (int i = reachable.nextSetBit(1); i >= 0; i = reachable.nextSetBit(i + 1)) {
+                BasicBlock block = blocks.get(i);
+                BitSet intersection = null;
+
+                for (BasicBlock predecessor : block.getPredecessors()) {
+                    BitSet other = dominators.get(predecessor.getIndex());
+                    if (other == null) continue;
+
+                    if (intersection == null) {
+                        intersection = (BitSet) other.clone();
+                    } else {
+                        intersection.and(other);
+                    }
+                }
+                if (intersection == null) intersection = new BitSet();
+                intersection.set(i);
+
+                if (!intersection.equals(dominators.get(i))) {
+                    dominators.set(i, intersection);
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        return dominators;
+    }
+
+    /**
+     * Finds natural loops. Edges to a dominating block are back edges, calls are no loop edges.
+     * Loops with the same header are merged.
+     *
+     * @param dominators
+     * @return Blocks of each loop by header in program order.
+     */
+    public Map<BasicBlock, BitSet> findLoops(List<BitSet> dominators) {
+        Map<BasicBlock, BitSet> loops = new LinkedHashMap<>();
+
+        for (BasicBlock block : blocks) {
+            BitSet dominatedBy = dominators.get(block.getIndex());
+            if (dominatedBy == null) continue;
+
+            for (BasicBlock successor : block.getSuccessors()) {
+                if ((block.endsWithCall() || block.endsWithSpawn()) && successor == block.getTarget()) continue;
+                if (!dominatedBy.get(successor.getIndex())) continue;
+
+                BitSet loop = loops.computeIfAbsent(successor, header -> new BitSet());
+                this.collectLoopBody(loop, successor, block);
+            }
+        }
+
+        return loops;
+    }
+
+    /**
+     * Returns bit mask of registers and flags, which are read by instruction.
+     *
+     * @param instruction
+     * @return
+     */
+    public long getUses(int[] instruction) {
+        int operation = instruction[0];
+        int[] kinds = ins.getOperandKinds(operation);
+        long uses = (long) ins.getFlagsRead(operation) << FLAG_SHIFT;
+
+        // Result of xorr r r and subr r r does not depend on r
+        if ((operation == XOR_REG || operation == SUB_REG) && instruction[1] == instruction[2]) {
+            return uses;
+        }
+
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == OPERAND_READ || kinds[i] == OPERAND_READ_WRITE) uses |= 1L << instruction[i + 1];
+            if (kinds[i] == OPERAND_READ_OPTIONAL && instruction[i + 1] != -1) uses |= 1L << instruction[i + 1];
+            if (kinds[i] == OPERAND_READ_PAIR || kinds[i] == OPERAND_READ_WRITE_PAIR) uses |= getPair(instruction[i + 1]);
+        }
+
+        // Sys functions take their arguments from registers
+        if (operation == INT) uses |= ALL_REGISTERS;
+        // Frame slots are addressed relative to RBP
+        if (operation == READ_MEM_INT_FRAME || operation == WRITE_MEM_INT_FRAME) uses |= 1L << Register.RBP;
+        // Stack pointer is moved in memory stack mode
+        if (isStackOperation(operation)) uses |= 1L << Register.RSP;
+
+        return uses;
+    }
+
+    /**
+     * Returns bit mask of registers and flags, which are overwritten by instruction.
+     *
+     * @param instruction
+     * @return
+     */
+    public long getDefs(int[] instruction) {
+        int operation = instruction[0];
+        int[] kinds = ins.getOperandKinds(operation);
+        long defs = (long) ins.getFlagsWritten(operation) << FLAG_SHIFT;
+
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == OPERAND_WRITE || kinds[i] == OPERAND_READ_WRITE) defs |= 1L << instruction[i + 1];
+            if (kinds[i] == OPERAND_WRITE_PAIR || kinds[i] == OPERAND_READ_WRITE_PAIR) defs |= getPair(instruction[i + 1]);
+        }
+
+        // Division stores modulo in R6
+        if (operation == DIV_DWORD || operation == DIV_REG) defs |= 1L << Register.R6;
+        if (operation == INT) defs |= SYS_FUNCTION_DEFS;
+        if (isStackOperation(operation)) defs |= 1L << Register.RSP;
+
+        return defs;
+    }
+
+    /**
+     * Returns bit mask of registers, which are named by operands of instruction. Registers, which are only used
+     * implicitly like arguments of sys functions, are not included.
+     *
+     * @param instruction
+     * @return
+     */
+    public long getOperands(int[] instruction) {
+        int[] kinds = ins.getOperandKinds(instruction[0]);
+        long operands = 0;
+
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case OPERAND_READ:
+                case OPERAND_WRITE:
+                case OPERAND_READ_WRITE:
+                    operands |= 1L << instruction[i + 1];
+                    break;
+                case OPERAND_READ_OPTIONAL:
+                    if (instruction[i + 1] != -1) operands |= 1L << instruction[i + 1];
+                    break;
+                case OPERAND_READ_PAIR:
+                case OPERAND_WRITE_PAIR:
+                case OPERAND_READ_WRITE_PAIR:
+                    operands |= getPair(instruction[i + 1]);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return operands;
+    }
+
+    /**
+     * Checks if instruction only changes registers and flags and can not fault.
+     * Such instructions can be removed, when their results are not used.
+     *
+     * @param instruction
+     * @return
+     */
+    public boolean isPure(int[] instruction) {
+        switch (instruction[0]) {
+            case MOV_DWORD:
+            case ADD_DWORD:
+            case SUB_DWORD:
+            case MUL_DWORD:
+            case XOR_DWORD:
+            case AND_DWORD:
+            case OR_DWORD:
+            case CMP_DWORD:
+            case SHL_DWORD:
+            case SHR_DWORD:
+            case MOV_REG:
+            case ADD_REG:
+            case SUB_REG:
+            case MUL_REG:
+            case XOR_REG:
+            case AND_REG:
+            case OR_REG:
+            case CMP_REG:
+            case SHL_REG:
+            case SHR_REG:
+            case NOT_REG:
+            case INC_REG:
+            case DEC_REG:
+            case POPCNT_REG:
+            case CLZ_REG:
+            case CTZ_REG:
+            case BSWAP_REG:
+            case ROL_DWORD:
+            case ROR_DWORD:
+            case ROL_REG:
+            case ROR_REG:
+            case ADC_DWORD:
+            case SBB_DWORD:
+            case ADC_REG:
+            case SBB_REG:
+            case ADD_LONG:
+            case SUB_LONG:
+            case MUL_LONG:
+            case CMP_LONG:
+            case ADD_FLOAT:
+            case SUB_FLOAT:
+            case MUL_FLOAT:
+            case DIV_FLOAT:
+            case CMP_FLOAT:
+            case ADD_DOUBLE:
+            case SUB_DOUBLE:
+            case MUL_DOUBLE:
+            case DIV_DOUBLE:
+            case CMP_DOUBLE:
+            case INT_TO_LONG:
+            case INT_TO_FLOAT:
+            case INT_TO_DOUBLE:
+            case FLOAT_TO_INT:
+            case FLOAT_TO_DOUBLE:
+            case DOUBLE_TO_INT:
+            case DOUBLE_TO_FLOAT:
+            case LONG_TO_DOUBLE:
+            case DOUBLE_TO_LONG:
+            case CMOVE:
+            case CMOVNE:
+            case CMOVG:
+            case CMOVB:
+            case SETE:
+            case SETNE:
+            case SETG:
+            case SETB:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Helper
+
+    /**
+     * Checks for operand kinds, which name a register pair.
+     *
+     * @param kind
+     * @return
+     */
+    private static boolean isPair(int kind) {
+        return kind == OPERAND_READ_PAIR || kind == OPERAND_WRITE_PAIR || kind == OPERAND_READ_WRITE_PAIR;
+    }
+
+    /**
+     * Returns bit mask of both registers of a pair.
+     *
+     * @param register Low word.
+     * @return
+     */
+    private static long getPair(int register) {
+        return (1L << register) | (1L << Register.getHighRegister(register));
+    }
+
+    /**
+     * Checks for instructions, which push or pop.
+     *
+     * @param operation
+     * @return
+     */
+    private static boolean isStackOperation(int operation) {
+        return operation == PUSH_REG || operation == POP_REG || operation == CALL || operation == RETN;
+    }
+
+    /**
+     * Splits instructions into blocks. Labels start and jumps, calls, spawns, returns and halts end blocks.
+     *
+     * @param instructions
+     */
+    private void build(List<int[]> instructions) {
+        BasicBlock current = null;
+
+        for (int[] instruction : instructions) {
+            if (current == null || (instruction[0] == LABEL && !current.getInstructions().isEmpty())) {
+                current = new BasicBlock(blocks.size());
+                blocks.add(current);
+            }
+
+            current.getInstructions().add(instruction);
+
+            int operation = instruction[0];
+            if (ins.isBranch(operation) || operation == CALL || operation == SPAWN || operation == RETN || operation == HALT) {
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Adds all blocks, which reach latch without passing the header.
+     *
+     * @param loop
+     * @param header
+     * @param latch
+     */
+    private void collectLoopBody(BitSet loop, BasicBlock header, BasicBlock latch) {
+        List<BasicBlock> worklist = new ArrayList<>();
+
+        loop.set(header.getIndex());
+        if (!loop.get(latch.getIndex())) {
+            loop.set(latch.getIndex());
+            worklist.add(latch);
+        }
+
+        while (!worklist.isEmpty()) {
+            BasicBlock block = worklist.remove(worklist.size() - 1);
+
+            for (BasicBlock predecessor : block.getPredecessors()) {
+                if (!loop.get(predecessor.getIndex())) {
+                    loop.set(predecessor.getIndex());
+                    worklist.add(predecessor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns live registers and flags at end of block.
+     *
+     * @param block
+     * @return
+     */
+    private long getLiveOut(BasicBlock block) {
+        int[] terminator = block.getTerminator();
+        long liveOut = 0;
+
+        if (terminator != null && (terminator[0] == CALL || terminator[0] == SPAWN || terminator[0] == RETN || terminator[0] == HALT)) {
+            return EVERYTHING;
+        }
+
+        List<BasicBlock> successors = block.getSuccessors();
+        if (successors.isEmpty()) return EVERYTHING;
+
+        for (BasicBlock successor : successors) {
+            liveOut |= successor.getLiveIn();
+        }
+
+        return liveOut;
+    }
+}
@@ -0,0 +1,554 @@
+package de.student.SimpleVM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a batch on several worker processes, so every worker has its own heap and garbage collector. Inputs are
+ * split into chunks and every worker gets a contiguous shard of them. A worker runs its chunks from the front of
+ * its shard with a BatchRunner. When its shard is empty, it steals a chunk from the back of the largest other
+ * shard, so slow workers do not delay the whole batch. Results are merged in input order.
+ * <p>
+ * Workers are started with the class path of this process and connect to the coordinator on the loopback
+ * address. A worker answers inputs, which fail, with a faulted result. Remaining chunks of a worker, which dies
+ * anyway, are given to the others, but the chunk it was running is not: it is faulted, so a single input can not
+ * kill worker after worker.
+ * <pre>
+ * Worker:      int MAGIC, int id, then REQUEST or RESULTS, int n, n * (int index, int n, n * int registers,
+ *              int n, n * boolean flags, long executed instructions, long runtime nanos, UTF fault or "",
+ *              int n, n bytes output, long latency nanos)
+ * Coordinator: PROGRAM, UTF file name, int n, n bytes file, boolean optimize, int unrollFactor
+ *              or CHUNK, int n, n * (int index, int n, n bytes input), no inputs if batch is done
+ * </pre>
+ */
+public class Coordinator implements AutoCloseable {
+    /**
+     * Default count of inputs per chunk. Can be changed with property simplevm.worker.chunk.
+     */
+    final static int DEFAULT_CHUNK = 64;
+
+    // Protocol
+    final static int MAGIC = 0x53564D57; // "SVMW"
+    final static byte PROGRAM = 'P';
+    final static byte CHUNK = 'C';
+    final static byte REQUEST = 'Q';
+    final static byte RESULTS = 'R';
+
+    // Fault of inputs, which no worker could run
+    final static String WORKER_FAILED = "Worker failed";
+
+    // Time to start and connect all workers
+    private final static int CONNECT_TIMEOUT = 30000;
+
+    private ServerSocket socket;
+    private Process[] processes;
+    private Worker[] workers;
+    private int chunkSize;
+
+    // State of running batch, guarded by this
+    private List<String> inputs;
+    private BatchRunner.Report report;
+    private int completed;
+    private int steals;
+
+    /**
+     * Starts worker processes, which use all cores together. JVM options of workers can be set with property
+     * simplevm.worker.options, for example "-Xmx256m -XX:+UseParallelGC".
+     *
+     * @param count Count of worker processes.
+     * @throws IOException
+     */
+    public Coordinator(int count) throws IOException {
+        if (count < 1) throw new IllegalArgumentException("Invalid count of workers " + count);
+
+        this.socket = new ServerSocket(0, count, InetAddress.getLoopbackAddress());
+        this.processes = new Process[count];
+        this.workers = new Worker[count];
+        this.chunkSize = Math.max(1, Integer.getInteger("simplevm.worker.chunk", DEFAULT_CHUNK));
+
+        int threads = Math.max(1, java.lang.Runtime.getRuntime().availableProcessors() / count);
+        try {
+            for (int i = 0; i < count; i++) {
+                processes[i] = this.startProcess(i, threads);
+            }
+            socket.setSoTimeout(CONNECT_TIMEOUT);
+            for (int i = 0; i < count; i++) {
+                this.connect();
+            }
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Runs program for every input on the workers.
+     *
+     * @param path         Assembler file or executable.
+     * @param inputs       Console input of every run.
+     * @param optimize
+     * @param unrollFactor
+     * @return Runs, which were lost with their worker, have a fault.
+     * @throws IOException
+     */
+    public BatchRunner.Report run(String path, List<String> inputs, boolean optimize, int unrollFactor) throws IOException {
+        byte[] file = Files.readAllBytes(Paths.get(path));
+        String name = Paths.get(path).getFileName().toString();
+        long startTime = System.nanoTime();
+
+        // Fails early on assembler errors instead of in every worker
+        Program.decode(name, file, optimize, unrollFactor);
+
+        synchronized (this) {
+            this.inputs = inputs;
+            this.report = new BatchRunner.Report(inputs.size());
+            this.completed = 0;
+            this.steals = 0;
+
+            // Contiguous shard per worker
+            for (int i = 0; i < workers.length; i++) {
+                int from = (int) ((long) inputs.size() * i / workers.length);
+                int to = (int) ((long) inputs.size() * (i + 1) / workers.length);
+
+                workers[i].shard.clear();
+                for (int start = from; start < to; start += chunkSize) {
+                    workers[i].shard.add(new int[]{start, Math.min(start + chunkSize, to)});
+                }
+            }
+            for (Worker worker : workers) {
+                if (!worker.alive) continue;
+                // Worker requests its first chunk after the program
+                worker.idle = false;
+                try {
+                    worker.out.writeByte(PROGRAM);
+                    worker.out.writeUTF(name);
+                    JobServer.writeBlock(worker.out, file);
+                    worker.out.writeBoolean(optimize);
+                    worker.out.writeInt(unrollFactor);
+                    worker.out.flush();
+                } catch (IOException e) {
+                    this.fail(worker);
+                }
+            }
+
+            try {
+                while (completed < inputs.size() && this.isAnyAlive()) {
+                    this.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            for (int i = 0; i < inputs.size(); i++) {
+                if (report.getResult(i) == null) {
+                    report.set(i, ExecutionResult.failed(WORKER_FAILED), "", 0);
+                }
+            }
+            report.setWallNanos(System.nanoTime() - startTime);
+            this.inputs = null;
+            return report;
+        }
+    }
+
+    /**
+     * Returns count of chunks, which were stolen during last batch.
+     *
+     * @return
+     */
+    public synchronized int getSteals() {
+        return steals;
+    }
+
+    /**
+     * Stops all workers.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        for (Worker worker : workers) {
+            if (worker != null) worker.close();
+        }
+        for (Process process : processes) {
+            if (process != null) process.destroy();
+        }
+    }
+
+    /**
+     * Runs worker process till coordinator closes connection.
+     *
+     * @param port    Port of coordinator.
+     * @param id
+     * @param threads Count of threads, which run inputs.
+     * @throws IOException
+     */
+    static void work(int port, int id, int threads) throws IOException {
+        try (Socket connection = new Socket(InetAddress.getLoopbackAddress(), port);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            BatchRunner runner = null;
+            String failure = null;
+
+            connection.setTcpNoDelay(true);
+            out.writeInt(MAGIC);
+            out.writeInt(id);
+            out.flush();
+
+            try {
+                while (true) {
+                    byte type = in.readByte();
+
+                    if (type == PROGRAM) {
+                        String name = in.readUTF();
+                        byte[] file = JobServer.readBlock(in);
+                        boolean optimize = in.readBoolean();
+                        int unrollFactor = in.readInt();
+
+                        if (runner != null) runner.close();
+                        runner = null;
+                        try {
+                            runner = new BatchRunner(Program.decode(name, file, optimize, unrollFactor), threads);
+                            failure = null;
+                        } catch (IllegalArgumentException e) {
+                            // Every input of the batch is faulted
+                            failure = "Invalid program: " + e.getMessage();
+                        }
+                    } else if (type == CHUNK && (runner != null || failure != null)) {
+                        int n = in.readInt();
+                        int[] indices = new int[n];
+                        List<String> chunk = new ArrayList<>(n);
+
+                        for (int i = 0; i < n; i++) {
+                            indices[i] = in.readInt();
+                            chunk.add(new String(JobServer.readBlock(in), StandardCharsets.UTF_8));
+                        }
+                        // Empty chunk ends the batch, worker waits for the next one
+                        if (n == 0) continue;
+                        sendResults(out, indices, runChunk(runner, chunk, failure));
+                    } else {
+                        throw new IOException("Invalid message");
+                    }
+                    out.writeByte(REQUEST);
+                    out.flush();
+                }
+            } finally {
+                if (runner != null) runner.close();
+            }
+        }
+    }
+
+    // Helper
+
+    /**
+     * Starts worker JVM with same class path.
+     *
+     * @param id
+     * @param threads
+     * @return
+     * @throws IOException
+     */
+    private Process startProcess(int id, int threads) throws IOException {
+        List<String> command = new ArrayList<>();
+
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String option : System.getProperty("simplevm.worker.options", "").trim().split("\\s+")) {
+            if (!option.isEmpty()) command.add(option);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.add(Main.WORKER + socket.getLocalPort() + ":" + id + ":" + threads);
+
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * Accepts connection of a worker and serves it on its own thread.
+     *
+     * @throws IOException
+     */
+    private void connect() throws IOException {
+        Socket connection = socket.accept();
+        connection.setTcpNoDelay(true);
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        if (in.readInt() != MAGIC) {
+            connection.close();
+            throw new IOException("Invalid worker");
+        }
+
+        int id = in.readInt();
+        if (id < 0 || id >= workers.length || workers[id] != null) {
+            connection.close();
+            throw new IOException("Invalid worker " + id);
+        }
+
+        Worker worker = new Worker(connection, in, out);
+        workers[id] = worker;
+
+        Thread thread = new Thread(() -> this.serve(worker), "simplevm-coordinator-" + id);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Answers requests and stores results of worker till its connection ends.
+     *
+     * @param worker
+     */
+    private void serve(Worker worker) {
+        try {
+            while (true) {
+                byte type = worker.in.readByte();
+
+                if (type == REQUEST) {
+                    synchronized (this) {
+                        worker.running = null;
+                        this.sendChunk(worker, this.take(worker));
+                    }
+                } else if (type == RESULTS) {
+                    this.receiveResults(worker);
+                } else {
+                    throw new IOException("Invalid message");
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                this.fail(worker);
+            }
+        }
+    }
+
+    /**
+     * Returns next chunk of own shard or steals the last one of the largest other shard.
+     *
+     * @param worker
+     * @return null, if there is no chunk left.
+     */
+    private int[] take(Worker worker) {
+        if (inputs == null) return null;
+
+        int[] chunk = worker.shard.pollFirst();
+        if (chunk != null) return chunk;
+
+        Worker victim = null;
+        for (Worker other : workers) {
+            if (!other.shard.isEmpty() && (victim == null || other.shard.size() > victim.shard.size())) victim = other;
+        }
+        if (victim == null) return null;
+
+        steals++;
+        return victim.shard.pollLast();
+    }
+
+    /**
+     * Sends chunk, an empty one if chunk is null.
+     *
+     * @param worker
+     * @param chunk
+     */
+    private void sendChunk(Worker worker, int[] chunk) {
+        worker.running = chunk;
+        worker.idle = (chunk == null);
+        try {
+            worker.out.writeByte(CHUNK);
+            if (chunk == null) {
+                worker.out.writeInt(0);
+            } else {
+                worker.out.writeInt(chunk[1] - chunk[0]);
+                for (int i = chunk[0]; i < chunk[1]; i++) {
+                    worker.out.writeInt(i);
+                    JobServer.writeBlock(worker.out, inputs.get(i).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            worker.out.flush();
+        } catch (IOException e) {
+            this.fail(worker);
+        }
+    }
+
+    /**
+     * Stores results of a chunk.
+     *
+     * @param worker
+     * @throws IOException
+     */
+    private void receiveResults(Worker worker) throws IOException {
+        DataInputStream in = worker.in;
+        int n = in.readInt();
+
+        for (int i = 0; i < n; i++) {
+            int index = in.readInt();
+            int[] registers = new int[in.readInt()];
+            for (int r = 0; r < registers.length; r++) {
+                registers[r] = in.readInt();
+            }
+            boolean[] flags = new boolean[in.readInt()];
+            for (int f = 0; f < flags.length; f++) {
+                flags[f] = in.readBoolean();
+            }
+            long executedInstructions = in.readLong();
+            long runtimeNanos = in.readLong();
+            String fault = in.readUTF();
+            String output = new String(JobServer.readBlock(in), StandardCharsets.UTF_8);
+            long latency = in.readLong();
+
+            synchronized (this) {
+                if (report == null || index < 0 || index >= report.size()) throw new IOException("Invalid result");
+                if (report.getResult(index) == null) completed++;
+                report.set(index, new ExecutionResult(registers, flags, executedInstructions, runtimeNanos,
+                        fault.isEmpty() ? null : fault), output, latency);
+            }
+        }
+        synchronized (this) {
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Runs chunk in worker. Failures of single inputs are already results of BatchRunner, anything else faults the
+     * whole chunk instead of the worker.
+     *
+     * @param runner
+     * @param chunk
+     * @param failure Fault of every input, if program could not be decoded.
+     * @return
+     */
+    private static BatchRunner.Report runChunk(BatchRunner runner, List<String> chunk, String failure) {
+        if (failure == null) {
+            try {
+                return runner.run(chunk);
+            } catch (RuntimeException e) {
+                failure = "Internal error: " + e;
+            }
+        }
+
+        BatchRunner.Report report = new BatchRunner.Report(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            report.set(i, ExecutionResult.failed(failure), "", 0);
+        }
+        return report;
+    }
+
+    /**
+     * Sends results of chunk.
+     *
+     * @param out
+     * @param indices
+     * @param results
+     * @throws IOException
+     */
+    private static void sendResults(DataOutputStream out, int[] indices, BatchRunner.Report results) throws IOException {
+        out.writeByte(RESULTS);
+        out.writeInt(indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            ExecutionResult result = results.getResult(i);
+
+            out.writeInt(indices[i]);
+            out.writeInt(result.getRegisterCount());
+            for (int r = 0; r < result.getRegisterCount(); r++) {
+                out.writeInt(result.getRegister(r));
+            }
+            out.writeInt(Flag.COUNT);
+            for (int f = 0; f < Flag.COUNT; f++) {
+                out.writeBoolean(result.getFlag(f));
+            }
+            out.writeLong(result.getExecutedInstructions());
+            out.writeLong(result.getRuntimeNanos());
+            out.writeUTF(result.getFault() != null ? result.getFault() : "");
+            JobServer.writeBlock(out, results.getOutput(i).getBytes(StandardCharsets.UTF_8));
+            out.writeLong(results.getLatencyNanos(i));
+        }
+    }
+
+    /**
+     * Faults running chunk of a dead worker, gives its other chunks to the others and wakes idle workers.
+     *
+     * @param worker
+     */
+    private void fail(Worker worker) {
+        if (!worker.alive) return;
+
+        worker.alive = false;
+        worker.close();
+        // Running chunk may have killed the worker, it would kill the others too
+        if (worker.running != null && inputs != null) {
+            for (int i = worker.running[0]; i < worker.running[1]; i++) {
+                if (report.getResult(i) != null) continue;
+                report.set(i, ExecutionResult.failed(WORKER_FAILED), "", 0);
+                completed++;
+            }
+        }
+        worker.running = null;
+
+        if (inputs != null) {
+            for (Worker other : workers) {
+                if (other.alive && other.idle) this.sendChunk(other, this.take(other));
+            }
+        }
+        // Remaining chunks of the dead worker can only be stolen
+        this.notifyAll();
+    }
+
+    /**
+     * Checks if any worker can still deliver results.
+     *
+     * @return
+     */
+    private boolean isAnyAlive() {
+        for (Worker worker : workers) {
+            if (worker.alive) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Connection and shard of a worker process.
+     */
+    private static class Worker {
+        private Socket connection;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        // Chunks as [from, to) of inputs
+        private ArrayDeque<int[]> shard = new ArrayDeque<>();
+        private int[] running;
+        private boolean idle;
+        private boolean alive = true;
+
+        Worker(Socket connection, DataInputStream in, DataOutputStream out) {
+            this.connection = connection;
+            this.in = in;
+            this.out = out;
+        }
+
+        void close() {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package de.student.SimpleVM;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static de.student.SimpleVM.Instruction.*;
+
+/**
+ * Optimizes on the control flow graph: folds constants and branches with conditional constant propagation,
+ * removes unreachable blocks and instructions whose results are never used.
+ */
+public class DataFlowOptimizer implements OptimizerPass {
+    // Rules
+    final static String UNREACHABLE_BLOCKS = "unreachable blocks removed";
+    final static String BRANCHES = "constant branches folded";
+    final static String CONSTANTS = "constant results folded";
+    final static String DEAD_INSTRUCTIONS = "dead instructions removed";
+
+    private Instruction ins;
+    private Map<String, Integer> statistics;
+
+    public DataFlowOptimizer() {
+        ins = new Instruction();
+        statistics = new LinkedHashMap<>();
+
+        statistics.put(UNREACHABLE_BLOCKS, 0);
+        statistics.put(BRANCHES, 0);
+        statistics.put(CONSTANTS, 0);
+        statistics.put(DEAD_INSTRUCTIONS, 0);
+    }
+
+    @Override
+    public List<Integer> optimize(List<Integer> assembly) {
+        ControlFlowGraph cfg = new ControlFlowGraph(assembly);
+
+        if (!cfg.isSupported()) return assembly;
+
+        ConstantPropagation constants = new ConstantPropagation(cfg);
+
+        this.foldBranches(cfg, constants);
+        this.removeUnreachableBlocks(cfg, constants);
+        cfg.update();
+
+        // Constants are still valid, only edges which were never executed were removed
+        cfg.computeLiveness();
+        this.foldConstants(cfg, constants);
+        this.removeDeadInstructions(cfg);
+
+        return cfg.toAssembly();
+    }
+
+    @Override
+    public void printStatistics() {
+        System.out.println("--> Data flow optimizer:");
+        for (Map.Entry<String, Integer> entry : statistics.entrySet()) {
+            System.out.println("    " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    /**
+     * Returns count of applied rewrites for rule.
+     *
+     * @param rule
+     * @return
+     */
+    public int getStatistic(String rule) {
+        return statistics.getOrDefault(rule, 0);
+    }
+
+    // Helper
+
+    /**
+     * Replaces conditional jumps with known outcome by JMP or removes them.
+     *
+     * @param cfg
+     * @param constants
+     */
+    private void foldBranches(ControlFlowGraph cfg, ConstantPropagation constants) {
+        for (BasicBlock block : cfg.getBlocks()) {
+            int[] terminator = block.getTerminator();
+
+            if (terminator == null || terminator[0] == JMP || !ins.isJump(terminator[0])) continue;
+
+            int decision = constants.getBranchDecision(block);
+            if (decision == ConstantPropagation.TAKEN) {
+                terminator[0] = JMP;
+                this.count(BRANCHES, 1);
+            } else if (decision == ConstantPropagation.NOT_TAKEN) {
+                block.getInstructions().remove(block.getInstructions().size() - 1);
+                this.count(BRANCHES, 1);
+            }
+        }
+    }
+
+    /**
+     * Removes blocks, which are never executed.
+     *
+     * @param cfg
+     * @param constants
+     */
+    private void removeUnreachableBlocks(ControlFlowGraph cfg, ConstantPropagation constants) {
+        Iterator<BasicBlock> iterator = cfg.getBlocks().iterator();
+
+        while (iterator.hasNext()) {
+            if (!constants.isExecutable(iterator.next())) {
+                iterator.remove();
+                this.count(UNREACHABLE_BLOCKS, 1);
+            }
+        }
+    }
+
+    /**
+     * Replaces instructions with constant result by MOVD, if the flags they write are not used.
+     *
+     * @param cfg
+     * @param constants
+     */
+    private void foldConstants(ControlFlowGraph cfg, ConstantPropagation constants) {
+        for (BasicBlock block : cfg.getBlocks()) {
+            List<int[]> instructions = block.getInstructions();
+            long[] liveAfter = getLiveAfter(cfg, block);
+            ConstantPropagation.State state = constants.getInState(block);
+
+            for (int i = 0; i < instructions.size(); i++) {
+                int[] instruction = instructions.get(i);
+
+                constants.transfer(instruction, state);
+
+                if (!isFoldable(cfg, instruction)) continue;
+
+                int register = instruction[1];
+                long flags = cfg.getDefs(instruction) & ControlFlowGraph.ALL_FLAGS;
+
+                if (state.isKnown(register) && (flags & liveAfter[i]) == 0) {
+                    instructions.set(i, new int[]{MOV_DWORD, register, state.getRegister(register)});
+                    this.count(CONSTANTS, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes pure instructions, whose registers and flags are overwritten before they are read.
+     *
+     * @param cfg
+     */
+    private void removeDeadInstructions(ControlFlowGraph cfg) {
+        boolean changed;
+
+        do {
+            changed = false;
+            cfg.computeLiveness();
+
+            for (BasicBlock block : cfg.getBlocks()) {
+                List<int[]> instructions = block.getInstructions();
+                long live = block.getLiveOut();
+
+                for (int i = instructions.size() - 1; i >= 0; i--) {
+                    int[] instruction = instructions.get(i);
+                    long defs = cfg.getDefs(instruction);
+
+                    if (cfg.isPure(instruction) && (defs & live) == 0) {
+                        instructions.remove(i);
+                        this.count(DEAD_INSTRUCTIONS, 1);
+                        changed = true;
+                    } else {
+                        live = (live & ~defs) | cfg.getUses(instruction);
+                    }
+                }
+            }
+        } while (changed);
+    }
+
+    /**
+     * Returns live registers and flags after each instruction of block.
+     *
+     * @param cfg
+     * @param block
+     * @return
+     */
+    private long[] getLiveAfter(ControlFlowGraph cfg, BasicBlock block) {
+        List<int[]> instructions = block.getInstructions();
+        long[] liveAfter = new long[instructions.size()];
+        long live = block.getLiveOut();
+
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            liveAfter[i] = live;
+            live = (live & ~cfg.getDefs(instructions.get(i))) | cfg.getUses(instructions.get(i));
+        }
+
+        return liveAfter;
+    }
+
+    /**
+     * Checks if instruction writes one register and could be replaced by MOVD.
+     *
+     * @param cfg
+     * @param instruction
+     * @return
+     */
+    private boolean isFoldable(ControlFlowGraph cfg, int[] instruction) {
+        int operation = instruction[0];
+
+        // Already cheapest form
+        if (operation == MOV_DWORD || operation == CMP_DWORD || operation == CMP_REG) return false;
+        if (operation == XOR_REG && instruction[1] == instruction[2]) return false;
+
+        return cfg.isPure(instruction);
+    }
+
+    /**
+     * Counts applied rule.
+     *
+     * @param rule
+     * @param n
+     */
+    private void count(String rule, int n) {
+        statistics.put(rule, statistics.get(rule) + n);
+    }
+}
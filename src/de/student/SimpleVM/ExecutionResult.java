@@ -0,0 +1,131 @@
+package de.student.SimpleVM;
+
+/**
+ * Registers, flags and statistics of a finished program.
+ */
+public final class ExecutionResult {
+    private final int[] registers;
+    private final boolean[] flags;
+    private final long executedInstructions;
+    private final long runtimeNanos;
+    private final String fault;
+
+    ExecutionResult(CPU cpu, long runtimeNanos) {
+        this.registers = new int[cpu.getRegisterCount()];
+        this.flags = new boolean[Flag.COUNT];
+        this.executedInstructions = cpu.getExecutedInstructions();
+        this.runtimeNanos = runtimeNanos;
+        this.fault = cpu.getFault();
+
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = cpu.getRegister(i);
+        }
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = cpu.getFlag(i);
+        }
+    }
+
+    /**
+     * Result received from another process.
+     *
+     * @param registers
+     * @param flags
+     * @param executedInstructions
+     * @param runtimeNanos
+     * @param fault
+     */
+    ExecutionResult(int[] registers, boolean[] flags, long executedInstructions, long runtimeNanos, String fault) {
+        this.registers = registers;
+        this.flags = flags;
+        this.executedInstructions = executedInstructions;
+        this.runtimeNanos = runtimeNanos;
+        this.fault = fault;
+    }
+
+    /**
+     * Creates result of a program, which could not be executed.
+     *
+     * @param fault
+     * @return
+     */
+    static ExecutionResult failed(String fault) {
+        return new ExecutionResult(new int[Register.COUNT], new boolean[Flag.COUNT], 0, 0, fault);
+    }
+
+    /**
+     * Returns count of registers.
+     *
+     * @return
+     */
+    public int getRegisterCount() {
+        return registers.length;
+    }
+
+    /**
+     * Returns exit code, which is R1.
+     *
+     * @return
+     */
+    public int getExitCode() {
+        return registers[Register.R1];
+    }
+
+    /**
+     * Returns register by mnemonic like "r1".
+     *
+     * @param mnemonic
+     * @return
+     */
+    public int getRegister(String mnemonic) {
+        return this.getRegister(VmInstance.toRegister(mnemonic));
+    }
+
+    /**
+     * Returns register by index.
+     *
+     * @param register
+     * @return
+     */
+    public int getRegister(int register) {
+        if (register < 0 || register >= registers.length) {
+            throw new IllegalArgumentException("Invalid register " + register);
+        }
+        return registers[register];
+    }
+
+    /**
+     * Returns state of flag.
+     *
+     * @param flag
+     * @return
+     */
+    public boolean getFlag(int flag) {
+        return flags[flag];
+    }
+
+    public long getExecutedInstructions() {
+        return executedInstructions;
+    }
+
+    public long getRuntimeNanos() {
+        return runtimeNanos;
+    }
+
+    /**
+     * Returns reason of fault or null.
+     *
+     * @return
+     */
+    public String getFault() {
+        return fault;
+    }
+
+    /**
+     * Checks if program finished without fault.
+     *
+     * @return
+     */
+    public boolean isSuccess() {
+        return fault == null;
+    }
+}
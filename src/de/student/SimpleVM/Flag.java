@@ -7,7 +7,7 @@ public abstract class Flag {
     /**
      * Count of available flags
      */
-    final static int COUNT = 5;
+    final static int COUNT = 6;
 
     /**
      * Setted if overflow.
@@ -29,4 +29,8 @@ public abstract class Flag {
      * Setted if result is equal.
      */
     final static int EQUAL = 4;
+    /**
+     * Setted if unsigned addition carries or unsigned subtraction borrows.
+     */
+    final static int CARRY = 5;
 }
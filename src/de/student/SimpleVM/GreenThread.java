@@ -0,0 +1,76 @@
+package de.student.SimpleVM;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Registers, flags and stacks of a thread inside of a VM. The CPU works on the arrays of the running thread,
+ * so a switch only exchanges references.
+ */
+class GreenThread {
+    // States
+    final static int READY = 0;
+    final static int SLEEPING = 1;
+    final static int JOINING = 2;
+    final static int READING = 3;
+    final static int WAITING = 4;
+    final static int FINISHED = 5;
+
+    final int id;
+    int state;
+
+    // Context
+    int[] registers;
+    boolean[] flags;
+    Stack stack;
+    ReturnStack returnStack;
+    int stackTop;
+    int stackLimit;
+
+    /**
+     * Register, which receives the result of join.
+     */
+    int resultRegister;
+
+    /**
+     * System.nanoTime, when a sleeping thread wakes up.
+     */
+    long wakeTime;
+
+    /**
+     * Thread, which is awaited by join.
+     */
+    int joinedThread;
+
+    /**
+     * Set, if a thread joins this one. A thread can only be joined once.
+     */
+    boolean joined;
+
+    /**
+     * Console line and its memory address, while thread waits for input.
+     */
+    CompletableFuture<String> line;
+    int lineAddress;
+
+    /**
+     * Channel, which has to become writable or readable.
+     */
+    Channel channel;
+    boolean sending;
+
+    /**
+     * Fault of a blocking instruction, which completed while thread was waiting.
+     */
+    String fault;
+
+    GreenThread(int id, int[] registers, boolean[] flags, Stack stack, ReturnStack returnStack, int stackTop, int stackLimit) {
+        this.id = id;
+        this.state = READY;
+        this.registers = registers;
+        this.flags = flags;
+        this.stack = stack;
+        this.returnStack = returnStack;
+        this.stackTop = stackTop;
+        this.stackLimit = stackLimit;
+    }
+}
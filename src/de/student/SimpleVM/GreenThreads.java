@@ -0,0 +1,315 @@
+package de.student.SimpleVM;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Green threads of a CPU. All threads run on the thread, which executes the CPU, in turns of a quantum of
+ * instructions. They switch earlier, when they yield, sleep, join or wait for console input or a channel.
+ * Console input is read in the background, so the other threads keep running.
+ * <p>
+ * When no thread can run, the scheduler does not wait itself. The CPU returns from resume and its caller waits
+ * with await, so slices and deadlines of the caller still hold.
+ */
+class GreenThreads {
+    /**
+     * Default count of threads including main. Can be changed with property simplevm.threads.
+     */
+    final static int DEFAULT_MAX_THREADS = 16;
+
+    /**
+     * Default count of instructions per turn. Can be changed with property simplevm.quantum.
+     */
+    final static long DEFAULT_QUANTUM = 1000;
+
+    // Reads console lines of waiting threads
+    private final static ExecutorService READER = newReader();
+
+    // Channels are polled, while threads wait for them
+    private final static long CHANNEL_POLL_NANOS = 50000;
+
+    private GreenThread[] threads;
+    private int current;
+    private long quantum;
+    private Memory memory;
+
+    /**
+     * Memory stack of main thread before it was split into slots.
+     */
+    private int stackLimit;
+    private int slotSize;
+
+    /**
+     * @param main     Context of running program, gets id 0.
+     * @param memory
+     * @param memoryStack Memory stack of main is split into a slot per thread.
+     */
+    GreenThreads(GreenThread main, Memory memory, boolean memoryStack) {
+        this.threads = new GreenThread[Math.max(2, Integer.getInteger("simplevm.threads", DEFAULT_MAX_THREADS))];
+        this.quantum = Math.max(1, Long.getLong("simplevm.quantum", DEFAULT_QUANTUM));
+        this.memory = memory;
+        this.stackLimit = main.stackLimit;
+        this.slotSize = memoryStack ? ((main.stackTop - main.stackLimit) / threads.length) & ~3 : 0;
+
+        main.stackLimit = main.stackTop - slotSize;
+        threads[0] = main;
+        current = 0;
+    }
+
+    public long getQuantum() {
+        return quantum;
+    }
+
+    public GreenThread getCurrent() {
+        return threads[current];
+    }
+
+    public GreenThread getMain() {
+        return threads[0];
+    }
+
+    /**
+     * Returns limit of memory stack, which main had before threads were started.
+     *
+     * @return
+     */
+    public int getStackLimit() {
+        return stackLimit;
+    }
+
+    /**
+     * Returns thread by id or null.
+     *
+     * @param id
+     * @return
+     */
+    public GreenThread get(int id) {
+        return (id >= 0 && id < threads.length) ? threads[id] : null;
+    }
+
+    /**
+     * Adds thread with copy of registers and flags of current thread.
+     *
+     * @param stack
+     * @param returnStack
+     * @return New thread or null, if all ids are used.
+     */
+    public GreenThread spawn(Stack stack, ReturnStack returnStack) {
+        GreenThread parent = threads[current];
+
+        for (int id = 1; id < threads.length; id++) {
+            if (threads[id] != null) continue;
+
+            int stackTop = threads[0].stackTop - id * slotSize;
+            threads[id] = new GreenThread(id, parent.registers.clone(), parent.flags.clone(), stack, returnStack,
+                    stackTop, stackTop - slotSize);
+            return threads[id];
+        }
+        return null;
+    }
+
+    /**
+     * Starts reading a console line for current thread, which waits till it is available.
+     *
+     * @param input
+     * @param output
+     * @param prompt
+     * @param address
+     */
+    public void read(BufferedReader input, PrintStream output, String prompt, int address) {
+        GreenThread thread = threads[current];
+
+        thread.state = GreenThread.READING;
+        thread.lineAddress = address;
+        thread.line = CompletableFuture.supplyAsync(() -> {
+            try {
+                return InterruptHandler.sysReadLine(input, output, prompt);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, READER);
+    }
+
+    /**
+     * Lets current thread wait till channel is writable or readable.
+     *
+     * @param channel
+     * @param sending
+     */
+    public void await(Channel channel, boolean sending) {
+        GreenThread thread = threads[current];
+
+        thread.state = GreenThread.WAITING;
+        thread.channel = channel;
+        thread.sending = sending;
+    }
+
+    /**
+     * Selects next thread after current, which can run, and completes instructions of woken threads.
+     *
+     * @return null, if no thread can run at the moment.
+     */
+    public GreenThread next() {
+        long now = System.nanoTime();
+
+        for (int i = 1; i <= threads.length; i++) {
+            int id = (current + i) % threads.length;
+            GreenThread thread = threads[id];
+
+            if (thread != null && this.wake(thread, now)) {
+                current = id;
+                return thread;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a thread sleeps or waits for console input or a channel, so it can run later.
+     * Otherwise all threads are finished or wait for each other with join.
+     *
+     * @return
+     */
+    public boolean isBlocked() {
+        for (GreenThread thread : threads) {
+            if (thread == null) continue;
+            if (thread.state == GreenThread.SLEEPING || thread.state == GreenThread.READING
+                    || thread.state == GreenThread.WAITING) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Waits till a sleeping thread wakes, a line was read or timeout elapsed. Channels are polled.
+     *
+     * @param timeout Nanoseconds.
+     * @return False, if waiting thread was interrupted.
+     */
+    public boolean await(long timeout) {
+        long now = System.nanoTime();
+        List<CompletableFuture<String>> lines = new ArrayList<>();
+
+        for (GreenThread thread : threads) {
+            if (thread == null) continue;
+            if (thread.state == GreenThread.SLEEPING) timeout = Math.min(timeout, Math.max(0, thread.wakeTime - now));
+            if (thread.state == GreenThread.READING) lines.add(thread.line);
+            if (thread.state == GreenThread.WAITING) timeout = Math.min(timeout, CHANNEL_POLL_NANOS);
+        }
+        return this.await(lines, timeout);
+    }
+
+    /**
+     * Checks if all threads are finished.
+     *
+     * @return
+     */
+    public boolean isFinished() {
+        for (GreenThread thread : threads) {
+            if (thread != null && thread.state != GreenThread.FINISHED) return false;
+        }
+        return true;
+    }
+
+    // Helper
+
+    /**
+     * Makes thread ready, if it is not blocked anymore.
+     *
+     * @param thread
+     * @param now
+     * @return True, if thread can run.
+     */
+    private boolean wake(GreenThread thread, long now) {
+        switch (thread.state) {
+            case GreenThread.READY:
+                return true;
+            case GreenThread.SLEEPING:
+                if (now - thread.wakeTime < 0) return false;
+                break;
+            case GreenThread.JOINING:
+                GreenThread joined = threads[thread.joinedThread];
+
+                if (joined.state != GreenThread.FINISHED) return false;
+                // Exit code is R1
+                thread.registers[thread.resultRegister] = joined.registers[Register.R1];
+                threads[thread.joinedThread] = null;
+                break;
+            case GreenThread.READING:
+                if (!thread.line.isDone()) return false;
+                try {
+                    String line = thread.line.join();
+
+                    if (!memory.inBounds(thread.lineAddress, line.getBytes().length)) {
+                        // Reported by CPU, when thread is loaded
+                        thread.fault = "Invalid memory address " + PrintHelper.printHexNumber(thread.lineAddress);
+                    } else {
+                        memory.writeString(thread.lineAddress, line);
+                        thread.registers[Register.R1] = line.length();
+                    }
+                } catch (RuntimeException e) {
+                    System.out.println("[IOError]: sysReadLine");
+                }
+                thread.line = null;
+                break;
+            case GreenThread.WAITING:
+                if (!(thread.sending ? thread.channel.isWritable() : thread.channel.isReadable())) return false;
+                thread.channel = null;
+                break;
+            default:
+                return false;
+        }
+        thread.state = GreenThread.READY;
+        return true;
+    }
+
+    /**
+     * Waits till a line was read or timeout elapsed.
+     *
+     * @param lines
+     * @param timeout Nanoseconds.
+     * @return False, if waiting thread was interrupted.
+     */
+    private boolean await(List<CompletableFuture<String>> lines, long timeout) {
+        if (lines.isEmpty()) {
+            LockSupport.parkNanos(timeout);
+        } else {
+            try {
+                CompletableFuture.anyOf(lines.toArray(new CompletableFuture<?>[0])).get(timeout, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                // Failed reads are reported by wake
+            }
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Uses virtual threads, if available.
+     *
+     * @return
+     */
+    private static ExecutorService newReader() {
+        ExecutorService executor = VmPool.newVirtualThreadExecutor();
+
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "simplevm-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,195 @@
+package de.student.SimpleVM;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static de.student.SimpleVM.Instruction.*;
+
+/**
+ * Expands small leaf procedures at their call sites and turns calls in front of a return into jumps.
+ * Call sites inside of loops are preferred, the code may only grow by a fixed budget.
+ */
+public class InliningOptimizer implements OptimizerPass {
+    // Rules
+    final static String INLINED = "call sites inlined";
+    final static String TAIL_CALLS = "call x, retn -> jmp x";
+    final static String GROWTH = "code growth in words";
+
+    // Limits
+    final static int MAX_INLINE_SIZE = 8;
+    final static int MIN_GROWTH_BUDGET = 32;
+    final static int GROWTH_PERCENT = 25;
+    final static int MAX_ROUNDS = 8;
+
+    private Map<String, Integer> statistics;
+
+    public InliningOptimizer() {
+        statistics = new LinkedHashMap<>();
+
+        statistics.put(INLINED, 0);
+        statistics.put(TAIL_CALLS, 0);
+        statistics.put(GROWTH, 0);
+    }
+
+    @Override
+    public List<Integer> optimize(List<Integer> assembly) {
+        ControlFlowGraph cfg = new ControlFlowGraph(assembly);
+        int budget = Math.max(MIN_GROWTH_BUDGET, assembly.size() * GROWTH_PERCENT / 100);
+
+        if (!cfg.isSupported()) return assembly;
+
+        // Inlined procedures may become leafs themselves
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            int growth = this.inline(cfg, budget);
+
+            if (growth < 0) break;
+            budget -= growth;
+            // Joins call sites with their return sites
+            cfg.rebuild();
+        }
+        this.convertTailCalls(cfg);
+
+        return cfg.toAssembly();
+    }
+
+    @Override
+    public void printStatistics() {
+        System.out.println("--> Inlining optimizer:");
+        for (Map.Entry<String, Integer> entry : statistics.entrySet()) {
+            System.out.println("    " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    /**
+     * Returns count of applied rewrites for rule.
+     *
+     * @param rule
+     * @return
+     */
+    public int getStatistic(String rule) {
+        return statistics.getOrDefault(rule, 0);
+    }
+
+    // Helper
+
+    /**
+     * Replaces calls of leaf procedures by their body. Call sites with higher loop depth are inlined first.
+     *
+     * @param cfg
+     * @param budget Words, which may be added to the program.
+     * @return Added words or -1 if nothing was inlined.
+     */
+    private int inline(ControlFlowGraph cfg, int budget) {
+        List<BasicBlock> blocks = cfg.getBlocks();
+        int[] depth = new int[blocks.size()];
+        List<BasicBlock> sites = new ArrayList<>();
+        int growth = 0;
+        boolean inlined = false;
+
+        // Static profile: blocks in loops are executed more often
+        for (BitSet loop : cfg.findLoops(cfg.computeDominators()).values()) {
+            for (int i = loop.nextSetBit(0); i >= 0; i = loop.nextSetBit(i + 1)) depth[i]++;
+        }
+
+        for (BasicBlock block : blocks) {
+            if (block.endsWithCall() && block.getTarget() != block && isLeaf(cfg, block.getTarget())) sites.add(block);
+        }
+        sites.sort((a, b) -> depth[b.getIndex()] - depth[a.getIndex()]);
+
+        for (BasicBlock site : sites) {
+            List<int[]> procedure = site.getTarget().getInstructions();
+            List<int[]> body = procedure.subList(1, procedure.size() - 1);
+            int words = this.getWords(body) - site.getTerminator().length;
+
+            if (words > budget - growth) continue;
+
+            List<int[]> instructions = site.getInstructions();
+            instructions.remove(instructions.size() - 1);
+            for (int[] instruction : body) {
+                instructions.add(instruction.clone());
+            }
+
+            growth += words;
+            inlined = true;
+            this.count(INLINED, 1);
+            this.count(GROWTH, words);
+        }
+
+        return inlined ? growth : -1;
+    }
+
+    /**
+     * Checks if procedure consists of one block, which calls nothing and does not use its stack frame.
+     *
+     * @param cfg
+     * @param procedure
+     * @return
+     */
+    private boolean isLeaf(ControlFlowGraph cfg, BasicBlock procedure) {
+        List<int[]> instructions = procedure.getInstructions();
+        int[] terminator = procedure.getTerminator();
+
+        if (!procedure.hasLabel() || terminator[0] != RETN) return false;
+        if (instructions.size() - 2 > MAX_INLINE_SIZE) return false;
+
+        // Return address may be on the memory stack. Balanced push and pop are still fine.
+        long frame = (1L << Register.RSP) | (1L << Register.RBP);
+        for (int[] instruction : instructions) {
+            int operation = instruction[0];
+
+            // Sys functions do not touch the frame, although they count as using every register
+            if (operation == READ_MEM_INT_FRAME || operation == WRITE_MEM_INT_FRAME) return false;
+            if ((cfg.getOperands(instruction) & frame) != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces calls, which are followed by a return, with a jump. The callee returns to our caller.
+     *
+     * @param cfg
+     */
+    private void convertTailCalls(ControlFlowGraph cfg) {
+        for (BasicBlock block : cfg.getBlocks()) {
+            BasicBlock next = block.getFallThrough();
+
+            if (!block.endsWithCall() || next == null) continue;
+
+            List<int[]> instructions = next.getInstructions();
+            int first = next.hasLabel() ? 1 : 0;
+            if (first < instructions.size() && instructions.get(first)[0] == RETN) {
+                block.getTerminator()[0] = JMP;
+                this.count(TAIL_CALLS, 1);
+            }
+        }
+        cfg.update();
+    }
+
+    /**
+     * Returns size of instructions in byte code.
+     *
+     * @param instructions
+     * @return
+     */
+    private int getWords(List<int[]> instructions) {
+        int words = 0;
+
+        for (int[] instruction : instructions) {
+            words += instruction.length;
+        }
+        return words;
+    }
+
+    /**
+     * Counts applied rule.
+     *
+     * @param rule
+     * @param n
+     */
+    private void count(String rule, int n) {
+        statistics.put(rule, statistics.get(rule) + n);
+    }
+}
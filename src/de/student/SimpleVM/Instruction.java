@@ -1,6 +1,8 @@
 package de.student.SimpleVM;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -13,6 +15,8 @@ public class Instruction {
     final int NULL_PARAMETER = 0;
     final int ONE_PARAMETER = 1;
     final int TWO_PARAMETER = 2;
+    final int THREE_PARAMETER = 3;
+    final int FIVE_PARAMETER = 5;
 
     // DWORD
     final static int MOV_DWORD = 1;             // MOVD REG, VAL
@@ -26,6 +30,8 @@ public class Instruction {
     final static int CMP_DWORD = 7;             // CMPD REG, VAL
     final static int SHL_DWORD = 51;            // SHLD REG, VAL
     final static int SHR_DWORD = 52;            // SHRD REG, VAL
+    final static int ADC_DWORD = 113;           // ADCD REG, VAL
+    final static int SBB_DWORD = 114;           // SBBD REG, VAL
 
     // REGISTER
     final static int MOV_REG = 8;               // MOVR REG, REG2
@@ -42,6 +48,50 @@ public class Instruction {
     final static int DEC_REG = 17;              // DECR REG
     final static int SHL_REG = 53;              // SHLR REG, REG2
     final static int SHR_REG = 54;              // SHRR REG, REG2
+    final static int ADC_REG = 115;             // ADCR REG, REG2
+    final static int SBB_REG = 116;             // SBBR REG, REG2
+
+    // BIT
+    final static int POPCNT_REG = 81;           // POPCR REG
+    final static int CLZ_REG = 82;              // CLZR REG
+    final static int CTZ_REG = 83;              // CTZR REG
+    final static int BSWAP_REG = 84;            // BSWAPR REG
+    final static int ROL_DWORD = 85;            // ROLD REG, VAL
+    final static int ROR_DWORD = 86;            // RORD REG, VAL
+    final static int ROL_REG = 87;              // ROLR REG, REG2
+    final static int ROR_REG = 88;              // RORR REG, REG2
+
+    // LONG (register pair REG:next register, low word first)
+    final static int ADD_LONG = 89;             // LADD REG, REG2
+    final static int SUB_LONG = 90;             // LSUB REG, REG2
+    final static int MUL_LONG = 91;             // LMUL REG, REG2
+    final static int DIV_LONG = 92;             // LDIV REG, REG2
+    final static int CMP_LONG = 93;             // LCMP REG, REG2
+
+    // FLOAT
+    final static int ADD_FLOAT = 94;            // FADD REG, REG2
+    final static int SUB_FLOAT = 95;            // FSUB REG, REG2
+    final static int MUL_FLOAT = 96;            // FMUL REG, REG2
+    final static int DIV_FLOAT = 97;            // FDIV REG, REG2
+    final static int CMP_FLOAT = 98;            // FCMP REG, REG2
+
+    // DOUBLE (register pair)
+    final static int ADD_DOUBLE = 99;           // DADD REG, REG2
+    final static int SUB_DOUBLE = 100;          // DSUB REG, REG2
+    final static int MUL_DOUBLE = 101;          // DMUL REG, REG2
+    final static int DIV_DOUBLE = 102;          // DDIV REG, REG2
+    final static int CMP_DOUBLE = 103;          // DCMP REG, REG2
+
+    // CONVERSION (destination, source)
+    final static int INT_TO_LONG = 104;         // I2L REG, REG2
+    final static int INT_TO_FLOAT = 105;        // I2F REG, REG2
+    final static int INT_TO_DOUBLE = 106;       // I2D REG, REG2
+    final static int FLOAT_TO_INT = 107;        // F2I REG, REG2
+    final static int FLOAT_TO_DOUBLE = 108;     // F2D REG, REG2
+    final static int DOUBLE_TO_INT = 109;       // D2I REG, REG2
+    final static int DOUBLE_TO_FLOAT = 110;     // D2F REG, REG2
+    final static int LONG_TO_DOUBLE = 111;      // L2D REG, REG2
+    final static int DOUBLE_TO_LONG = 112;      // D2L REG, REG2
 
     // JUMPS
     final static int LABEL = 18;                // LABEL:
@@ -50,6 +100,17 @@ public class Instruction {
     final static int JNE = 21;                  // JNE LABEL
     final static int JG = 22;                   // JG LABEL
     final static int JB = 23;                   // JB LABEL
+    final static int LOOP = 78;                 // LOOP REG, LABEL
+
+    // CONDITIONAL
+    final static int CMOVE = 70;                // CMOVE REG, REG2
+    final static int CMOVNE = 71;               // CMOVNE REG, REG2
+    final static int CMOVG = 72;                // CMOVG REG, REG2
+    final static int CMOVB = 73;                // CMOVB REG, REG2
+    final static int SETE = 74;                 // SETE REG
+    final static int SETNE = 75;                // SETNE REG
+    final static int SETG = 76;                 // SETG REG
+    final static int SETB = 77;                 // SETB REG
 
     // MEMORY(DWORD)
     final static int WRITE_MEM_BYTE_DWORD = 24; // WMBD OFFSET, VAL
@@ -63,6 +124,16 @@ public class Instruction {
     final static int READ_MEM_BYTE_REG = 62;    // RMBR REG(OUTPUT), REG2(OFFSET)
     final static int READ_MEM_INT_REG = 63;     // RMIR REG(OUTPUT), REG2(OFFSET)
 
+    // MEMORY(FRAME)
+    final static int READ_MEM_INT_FRAME = 64;   // RMIF REG(OUTPUT), OFFSET(RBP + OFFSET)
+    final static int WRITE_MEM_INT_FRAME = 65;  // WMIF OFFSET(RBP + OFFSET), REG(VAL)
+
+    // MEMORY(INDEXED) [BASE + INDEX * (1 << SHIFT) + DISP], missing registers are -1
+    final static int READ_MEM_INT_INDEX = 66;   // RMIX REG(OUTPUT), BASE, INDEX, SHIFT, DISP
+    final static int READ_MEM_BYTE_INDEX = 67;  // RMBX REG(OUTPUT), BASE, INDEX, SHIFT, DISP
+    final static int WRITE_MEM_INT_INDEX = 68;  // WMIX BASE, INDEX, SHIFT, DISP, REG(VAL)
+    final static int WRITE_MEM_BYTE_INDEX = 69; // WMBX BASE, INDEX, SHIFT, DISP, REG(VAL)
+
     // STACK
     final static int PUSH_REG = 28;             // PUSH REG
     final static int POP_REG = 29;              // POP REG
@@ -72,14 +143,49 @@ public class Instruction {
     // CPU
     final static int HALT = 32;                 // HALT
     final static int INT = 80;                  // INT
+    final static int YIELD = 117;               // YIELD
+
+    // ATOMIC
+    final static int CAS_REG = 118;             // CASR REG(EXPECTED), REG2(OFFSET), REG3(VAL)
+    final static int XADD_REG = 119;            // XADDR REG(VAL), REG2(OFFSET)
+    final static int XCHG_REG = 120;            // XCHGR REG(VAL), REG2(OFFSET)
+    final static int FENCE = 121;               // FENCE
+
+    // THREADS
+    final static int SPAWN = 122;               // SPAWN REG(ID), LABEL
+    final static int JOIN = 123;                // JOIN REG(ID)
+    final static int SLEEP = 124;               // SLEEP REG(MILLISECONDS)
+
+    // Operand kinds
+    final static int OPERAND_VALUE = 0;           // Immediate or memory offset
+    final static int OPERAND_READ = 1;            // Register, which is read
+    final static int OPERAND_WRITE = 2;           // Register, which is written
+    final static int OPERAND_READ_WRITE = 3;      // Register, which is read and written
+    final static int OPERAND_LABEL = 4;           // Label id or jump offset
+    final static int OPERAND_READ_OPTIONAL = 5;   // Register, which is read, or -1
+    final static int OPERAND_READ_PAIR = 6;       // Register pair, which is read
+    final static int OPERAND_WRITE_PAIR = 7;      // Register pair, which is written
+    final static int OPERAND_READ_WRITE_PAIR = 8; // Register pair, which is read and written
+
+    // Flag masks
+    final static int ALL_FLAGS = (1 << Flag.COUNT) - 1;
+    final static int COMPARE_FLAGS = (1 << Flag.EQUAL) | (1 << Flag.GREATER) | (1 << Flag.LOWER);
 
     // CLASS
     private Map<Integer, Integer> instructionOffsets;
     private Map<String, Integer> instructionMnemonics; // 1 to 1 for Mnemonic -> Bytecode
+    private Map<Integer, Integer> instructionFlagsRead; // Bit mask of flags, which are read
+    private Map<Integer, Integer> instructionFlagsWritten; // Bit mask of flags, which are set or cleared
+    private Map<Integer, int[]> instructionOperands; // Kind of each operand
+    private Map<Integer, Integer> instructionConditions; // Jump with same condition
 
     public Instruction() {
         instructionOffsets = new HashMap<>();
         instructionMnemonics = new HashMap<>();
+        instructionFlagsRead = new HashMap<>();
+        instructionFlagsWritten = new HashMap<>();
+        instructionOperands = new HashMap<>();
+        instructionConditions = new HashMap<>();
 
         // Internal byte code
         // DWORD
@@ -94,6 +200,8 @@ public class Instruction {
         instructionOffsets.put(CMP_DWORD, TWO_PARAMETER);
         instructionOffsets.put(SHL_DWORD, TWO_PARAMETER);
         instructionOffsets.put(SHR_DWORD, TWO_PARAMETER);
+        instructionOffsets.put(ADC_DWORD, TWO_PARAMETER);
+        instructionOffsets.put(SBB_DWORD, TWO_PARAMETER);
 
 
         // REGISTER
@@ -106,9 +214,47 @@ public class Instruction {
         instructionOffsets.put(AND_REG, TWO_PARAMETER);
         instructionOffsets.put(SHL_REG, TWO_PARAMETER);
         instructionOffsets.put(SHR_REG, TWO_PARAMETER);
+        instructionOffsets.put(ADC_REG, TWO_PARAMETER);
+        instructionOffsets.put(SBB_REG, TWO_PARAMETER);
         instructionOffsets.put(CMP_REG, TWO_PARAMETER);
         instructionOffsets.put(NOT_REG, ONE_PARAMETER);
         instructionOffsets.put(INC_REG, ONE_PARAMETER);
+
+        // BIT
+        instructionOffsets.put(POPCNT_REG, ONE_PARAMETER);
+        instructionOffsets.put(CLZ_REG, ONE_PARAMETER);
+        instructionOffsets.put(CTZ_REG, ONE_PARAMETER);
+        instructionOffsets.put(BSWAP_REG, ONE_PARAMETER);
+        instructionOffsets.put(ROL_DWORD, TWO_PARAMETER);
+        instructionOffsets.put(ROR_DWORD, TWO_PARAMETER);
+        instructionOffsets.put(ROL_REG, TWO_PARAMETER);
+        instructionOffsets.put(ROR_REG, TWO_PARAMETER);
+
+        // LONG, FLOAT, DOUBLE
+        instructionOffsets.put(ADD_LONG, TWO_PARAMETER);
+        instructionOffsets.put(SUB_LONG, TWO_PARAMETER);
+        instructionOffsets.put(MUL_LONG, TWO_PARAMETER);
+        instructionOffsets.put(DIV_LONG, TWO_PARAMETER);
+        instructionOffsets.put(CMP_LONG, TWO_PARAMETER);
+        instructionOffsets.put(ADD_FLOAT, TWO_PARAMETER);
+        instructionOffsets.put(SUB_FLOAT, TWO_PARAMETER);
+        instructionOffsets.put(MUL_FLOAT, TWO_PARAMETER);
+        instructionOffsets.put(DIV_FLOAT, TWO_PARAMETER);
+        instructionOffsets.put(CMP_FLOAT, TWO_PARAMETER);
+        instructionOffsets.put(ADD_DOUBLE, TWO_PARAMETER);
+        instructionOffsets.put(SUB_DOUBLE, TWO_PARAMETER);
+        instructionOffsets.put(MUL_DOUBLE, TWO_PARAMETER);
+        instructionOffsets.put(DIV_DOUBLE, TWO_PARAMETER);
+        instructionOffsets.put(CMP_DOUBLE, TWO_PARAMETER);
+        instructionOffsets.put(INT_TO_LONG, TWO_PARAMETER);
+        instructionOffsets.put(INT_TO_FLOAT, TWO_PARAMETER);
+        instructionOffsets.put(INT_TO_DOUBLE, TWO_PARAMETER);
+        instructionOffsets.put(FLOAT_TO_INT, TWO_PARAMETER);
+        instructionOffsets.put(FLOAT_TO_DOUBLE, TWO_PARAMETER);
+        instructionOffsets.put(DOUBLE_TO_INT, TWO_PARAMETER);
+        instructionOffsets.put(DOUBLE_TO_FLOAT, TWO_PARAMETER);
+        instructionOffsets.put(LONG_TO_DOUBLE, TWO_PARAMETER);
+        instructionOffsets.put(DOUBLE_TO_LONG, TWO_PARAMETER);
         instructionOffsets.put(DEC_REG, ONE_PARAMETER);
 
         // JUMPS
@@ -118,6 +264,17 @@ public class Instruction {
         instructionOffsets.put(JNE, ONE_PARAMETER);
         instructionOffsets.put(JG, ONE_PARAMETER);
         instructionOffsets.put(JB, ONE_PARAMETER);
+        instructionOffsets.put(LOOP, TWO_PARAMETER);
+
+        // CONDITIONAL
+        instructionOffsets.put(CMOVE, TWO_PARAMETER);
+        instructionOffsets.put(CMOVNE, TWO_PARAMETER);
+        instructionOffsets.put(CMOVG, TWO_PARAMETER);
+        instructionOffsets.put(CMOVB, TWO_PARAMETER);
+        instructionOffsets.put(SETE, ONE_PARAMETER);
+        instructionOffsets.put(SETNE, ONE_PARAMETER);
+        instructionOffsets.put(SETG, ONE_PARAMETER);
+        instructionOffsets.put(SETB, ONE_PARAMETER);
 
         // MEMORY(DWORD)
         instructionOffsets.put(WRITE_MEM_BYTE_DWORD, TWO_PARAMETER);
@@ -131,6 +288,16 @@ public class Instruction {
         instructionOffsets.put(READ_MEM_BYTE_REG, TWO_PARAMETER);
         instructionOffsets.put(READ_MEM_INT_REG, TWO_PARAMETER);
 
+        // MEMORY(FRAME)
+        instructionOffsets.put(READ_MEM_INT_FRAME, TWO_PARAMETER);
+        instructionOffsets.put(WRITE_MEM_INT_FRAME, TWO_PARAMETER);
+
+        // MEMORY(INDEXED)
+        instructionOffsets.put(READ_MEM_INT_INDEX, FIVE_PARAMETER);
+        instructionOffsets.put(READ_MEM_BYTE_INDEX, FIVE_PARAMETER);
+        instructionOffsets.put(WRITE_MEM_INT_INDEX, FIVE_PARAMETER);
+        instructionOffsets.put(WRITE_MEM_BYTE_INDEX, FIVE_PARAMETER);
+
         // STACK
         instructionOffsets.put(PUSH_REG, ONE_PARAMETER);
         instructionOffsets.put(POP_REG, ONE_PARAMETER);
@@ -140,6 +307,225 @@ public class Instruction {
         // CPU
         instructionOffsets.put(HALT, NULL_PARAMETER);
         instructionOffsets.put(INT, ONE_PARAMETER);
+        instructionOffsets.put(YIELD, NULL_PARAMETER);
+
+        // ATOMIC
+        instructionOffsets.put(CAS_REG, THREE_PARAMETER);
+        instructionOffsets.put(XADD_REG, TWO_PARAMETER);
+        instructionOffsets.put(XCHG_REG, TWO_PARAMETER);
+        instructionOffsets.put(FENCE, NULL_PARAMETER);
+
+        // THREADS
+        instructionOffsets.put(SPAWN, TWO_PARAMETER);
+        instructionOffsets.put(JOIN, ONE_PARAMETER);
+        instructionOffsets.put(SLEEP, ONE_PARAMETER);
+
+        // Flags
+        // Arithmetic clears compare flags and sets overflow, underflow and carry
+        instructionFlagsWritten.put(ADD_DWORD, ALL_FLAGS);
+        instructionFlagsWritten.put(SUB_DWORD, ALL_FLAGS);
+        instructionFlagsWritten.put(MUL_DWORD, ALL_FLAGS);
+        instructionFlagsWritten.put(DIV_DWORD, ALL_FLAGS);
+        instructionFlagsWritten.put(ADD_REG, ALL_FLAGS);
+        instructionFlagsWritten.put(SUB_REG, ALL_FLAGS);
+        instructionFlagsWritten.put(MUL_REG, ALL_FLAGS);
+        instructionFlagsWritten.put(DIV_REG, ALL_FLAGS);
+        instructionFlagsWritten.put(ADC_DWORD, ALL_FLAGS);
+        instructionFlagsWritten.put(SBB_DWORD, ALL_FLAGS);
+        instructionFlagsWritten.put(ADC_REG, ALL_FLAGS);
+        instructionFlagsWritten.put(SBB_REG, ALL_FLAGS);
+
+        // Compare and shift
+        instructionFlagsWritten.put(CMP_DWORD, COMPARE_FLAGS);
+        instructionFlagsWritten.put(CMP_REG, COMPARE_FLAGS);
+        instructionFlagsWritten.put(SHL_DWORD, COMPARE_FLAGS);
+        instructionFlagsWritten.put(SHR_DWORD, COMPARE_FLAGS);
+        instructionFlagsWritten.put(SHL_REG, COMPARE_FLAGS);
+        instructionFlagsWritten.put(SHR_REG, COMPARE_FLAGS);
+
+        instructionFlagsWritten.put(INC_REG, 1 << Flag.OVERFLOW);
+        instructionFlagsWritten.put(DEC_REG, 1 << Flag.UNDERFLOW);
+
+        // Equal is set, if compare and swap succeeded
+        instructionFlagsWritten.put(CAS_REG, 1 << Flag.EQUAL);
+
+        // Long arithmetic like dword arithmetic, float arithmetic does not touch flags
+        instructionFlagsWritten.put(ADD_LONG, ALL_FLAGS);
+        instructionFlagsWritten.put(SUB_LONG, ALL_FLAGS);
+        instructionFlagsWritten.put(MUL_LONG, ALL_FLAGS);
+        instructionFlagsWritten.put(DIV_LONG, ALL_FLAGS);
+        instructionFlagsWritten.put(CMP_LONG, COMPARE_FLAGS);
+        instructionFlagsWritten.put(CMP_FLOAT, COMPARE_FLAGS);
+        instructionFlagsWritten.put(CMP_DOUBLE, COMPARE_FLAGS);
+
+        // Conditional jumps
+        instructionFlagsRead.put(JE, 1 << Flag.EQUAL);
+        instructionFlagsRead.put(JNE, 1 << Flag.EQUAL);
+        instructionFlagsRead.put(JG, 1 << Flag.GREATER);
+        instructionFlagsRead.put(JB, 1 << Flag.LOWER);
+
+        // Multi precision arithmetic
+        instructionFlagsRead.put(ADC_DWORD, 1 << Flag.CARRY);
+        instructionFlagsRead.put(SBB_DWORD, 1 << Flag.CARRY);
+        instructionFlagsRead.put(ADC_REG, 1 << Flag.CARRY);
+        instructionFlagsRead.put(SBB_REG, 1 << Flag.CARRY);
+
+        // Conditional moves and sets
+        instructionConditions.put(CMOVE, JE);
+        instructionConditions.put(CMOVNE, JNE);
+        instructionConditions.put(CMOVG, JG);
+        instructionConditions.put(CMOVB, JB);
+        instructionConditions.put(SETE, JE);
+        instructionConditions.put(SETNE, JNE);
+        instructionConditions.put(SETG, JG);
+        instructionConditions.put(SETB, JB);
+        for (Map.Entry<Integer, Integer> entry : instructionConditions.entrySet()) {
+            instructionFlagsRead.put(entry.getKey(), instructionFlagsRead.get(entry.getValue()));
+        }
+
+        // Operands
+        int[] writeValue = {OPERAND_WRITE, OPERAND_VALUE};
+        int[] readWriteValue = {OPERAND_READ_WRITE, OPERAND_VALUE};
+        int[] writeRead = {OPERAND_WRITE, OPERAND_READ};
+        int[] readWriteRead = {OPERAND_READ_WRITE, OPERAND_READ};
+        int[] label = {OPERAND_LABEL};
+
+        // DWORD
+        instructionOperands.put(MOV_DWORD, writeValue);
+        instructionOperands.put(ADD_DWORD, readWriteValue);
+        instructionOperands.put(SUB_DWORD, readWriteValue);
+        instructionOperands.put(MUL_DWORD, readWriteValue);
+        instructionOperands.put(DIV_DWORD, readWriteValue);
+        instructionOperands.put(XOR_DWORD, readWriteValue);
+        instructionOperands.put(AND_DWORD, readWriteValue);
+        instructionOperands.put(OR_DWORD, readWriteValue);
+        instructionOperands.put(CMP_DWORD, new int[]{OPERAND_READ, OPERAND_VALUE});
+        instructionOperands.put(SHL_DWORD, readWriteValue);
+        instructionOperands.put(SHR_DWORD, readWriteValue);
+        instructionOperands.put(ADC_DWORD, readWriteValue);
+        instructionOperands.put(SBB_DWORD, readWriteValue);
+
+        // REGISTER
+        instructionOperands.put(MOV_REG, writeRead);
+        instructionOperands.put(ADD_REG, readWriteRead);
+        instructionOperands.put(SUB_REG, readWriteRead);
+        instructionOperands.put(MUL_REG, readWriteRead);
+        instructionOperands.put(DIV_REG, readWriteRead);
+        instructionOperands.put(XOR_REG, readWriteRead);
+        instructionOperands.put(AND_REG, readWriteRead);
+        instructionOperands.put(OR_REG, readWriteRead);
+        instructionOperands.put(SHL_REG, readWriteRead);
+        instructionOperands.put(SHR_REG, readWriteRead);
+        instructionOperands.put(ADC_REG, readWriteRead);
+        instructionOperands.put(SBB_REG, readWriteRead);
+        instructionOperands.put(CMP_REG, new int[]{OPERAND_READ, OPERAND_READ});
+        instructionOperands.put(NOT_REG, new int[]{OPERAND_READ_WRITE});
+        instructionOperands.put(INC_REG, new int[]{OPERAND_READ_WRITE});
+        instructionOperands.put(DEC_REG, new int[]{OPERAND_READ_WRITE});
+
+        // BIT
+        // Flags are not touched
+        instructionOperands.put(POPCNT_REG, new int[]{OPERAND_READ_WRITE});
+        instructionOperands.put(CLZ_REG, new int[]{OPERAND_READ_WRITE});
+        instructionOperands.put(CTZ_REG, new int[]{OPERAND_READ_WRITE});
+        instructionOperands.put(BSWAP_REG, new int[]{OPERAND_READ_WRITE});
+        instructionOperands.put(ROL_DWORD, readWriteValue);
+        instructionOperands.put(ROR_DWORD, readWriteValue);
+        instructionOperands.put(ROL_REG, readWriteRead);
+        instructionOperands.put(ROR_REG, readWriteRead);
+
+        // LONG, FLOAT, DOUBLE
+        int[] readWritePairReadPair = {OPERAND_READ_WRITE_PAIR, OPERAND_READ_PAIR};
+        instructionOperands.put(ADD_LONG, readWritePairReadPair);
+        instructionOperands.put(SUB_LONG, readWritePairReadPair);
+        instructionOperands.put(MUL_LONG, readWritePairReadPair);
+        instructionOperands.put(DIV_LONG, readWritePairReadPair);
+        instructionOperands.put(CMP_LONG, new int[]{OPERAND_READ_PAIR, OPERAND_READ_PAIR});
+        instructionOperands.put(ADD_FLOAT, readWriteRead);
+        instructionOperands.put(SUB_FLOAT, readWriteRead);
+        instructionOperands.put(MUL_FLOAT, readWriteRead);
+        instructionOperands.put(DIV_FLOAT, readWriteRead);
+        instructionOperands.put(CMP_FLOAT, new int[]{OPERAND_READ, OPERAND_READ});
+        instructionOperands.put(ADD_DOUBLE, readWritePairReadPair);
+        instructionOperands.put(SUB_DOUBLE, readWritePairReadPair);
+        instructionOperands.put(MUL_DOUBLE, readWritePairReadPair);
+        instructionOperands.put(DIV_DOUBLE, readWritePairReadPair);
+        instructionOperands.put(CMP_DOUBLE, new int[]{OPERAND_READ_PAIR, OPERAND_READ_PAIR});
+        instructionOperands.put(INT_TO_LONG, new int[]{OPERAND_WRITE_PAIR, OPERAND_READ});
+        instructionOperands.put(INT_TO_FLOAT, writeRead);
+        instructionOperands.put(INT_TO_DOUBLE, new int[]{OPERAND_WRITE_PAIR, OPERAND_READ});
+        instructionOperands.put(FLOAT_TO_INT, writeRead);
+        instructionOperands.put(FLOAT_TO_DOUBLE, new int[]{OPERAND_WRITE_PAIR, OPERAND_READ});
+        instructionOperands.put(DOUBLE_TO_INT, new int[]{OPERAND_WRITE, OPERAND_READ_PAIR});
+        instructionOperands.put(DOUBLE_TO_FLOAT, new int[]{OPERAND_WRITE, OPERAND_READ_PAIR});
+        instructionOperands.put(LONG_TO_DOUBLE, new int[]{OPERAND_WRITE_PAIR, OPERAND_READ_PAIR});
+        instructionOperands.put(DOUBLE_TO_LONG, new int[]{OPERAND_WRITE_PAIR, OPERAND_READ_PAIR});
+
+        // JUMPS
+        instructionOperands.put(LABEL, label);
+        instructionOperands.put(JMP, label);
+        instructionOperands.put(JE, label);
+        instructionOperands.put(JNE, label);
+        instructionOperands.put(JG, label);
+        instructionOperands.put(JB, label);
+        instructionOperands.put(LOOP, new int[]{OPERAND_READ_WRITE, OPERAND_LABEL});
+
+        // CONDITIONAL
+        // Destination keeps its value, if condition is false
+        instructionOperands.put(CMOVE, readWriteRead);
+        instructionOperands.put(CMOVNE, readWriteRead);
+        instructionOperands.put(CMOVG, readWriteRead);
+        instructionOperands.put(CMOVB, readWriteRead);
+        instructionOperands.put(SETE, new int[]{OPERAND_WRITE});
+        instructionOperands.put(SETNE, new int[]{OPERAND_WRITE});
+        instructionOperands.put(SETG, new int[]{OPERAND_WRITE});
+        instructionOperands.put(SETB, new int[]{OPERAND_WRITE});
+
+        // MEMORY(DWORD)
+        instructionOperands.put(WRITE_MEM_BYTE_DWORD, new int[]{OPERAND_VALUE, OPERAND_VALUE});
+        instructionOperands.put(WRITE_MEM_INT_DWORD, new int[]{OPERAND_VALUE, OPERAND_VALUE});
+        instructionOperands.put(READ_MEM_BYTE_DWORD, writeValue);
+        instructionOperands.put(READ_MEM_INT_DWORD, writeValue);
+
+        // MEMORY(REGISTER)
+        instructionOperands.put(WRITE_MEM_BYTE_REG, new int[]{OPERAND_READ, OPERAND_READ});
+        instructionOperands.put(WRITE_MEM_INT_REG, new int[]{OPERAND_READ, OPERAND_READ});
+        instructionOperands.put(READ_MEM_BYTE_REG, writeRead);
+        instructionOperands.put(READ_MEM_INT_REG, writeRead);
+
+        // MEMORY(FRAME)
+        instructionOperands.put(READ_MEM_INT_FRAME, writeValue);
+        instructionOperands.put(WRITE_MEM_INT_FRAME, new int[]{OPERAND_VALUE, OPERAND_READ});
+
+        // MEMORY(INDEXED)
+        int[] readIndexed = {OPERAND_WRITE, OPERAND_READ_OPTIONAL, OPERAND_READ_OPTIONAL, OPERAND_VALUE, OPERAND_VALUE};
+        int[] writeIndexed = {OPERAND_READ_OPTIONAL, OPERAND_READ_OPTIONAL, OPERAND_VALUE, OPERAND_VALUE, OPERAND_READ};
+        instructionOperands.put(READ_MEM_INT_INDEX, readIndexed);
+        instructionOperands.put(READ_MEM_BYTE_INDEX, readIndexed);
+        instructionOperands.put(WRITE_MEM_INT_INDEX, writeIndexed);
+        instructionOperands.put(WRITE_MEM_BYTE_INDEX, writeIndexed);
+
+        // STACK
+        instructionOperands.put(PUSH_REG, new int[]{OPERAND_READ});
+        instructionOperands.put(POP_REG, new int[]{OPERAND_WRITE});
+        instructionOperands.put(CALL, label);
+        instructionOperands.put(RETN, new int[]{});
+
+        // CPU
+        instructionOperands.put(HALT, new int[]{});
+        instructionOperands.put(INT, new int[]{OPERAND_VALUE});
+        instructionOperands.put(YIELD, new int[]{});
+
+        // ATOMIC
+        instructionOperands.put(CAS_REG, new int[]{OPERAND_READ_WRITE, OPERAND_READ, OPERAND_READ});
+        instructionOperands.put(XADD_REG, readWriteRead);
+        instructionOperands.put(XCHG_REG, readWriteRead);
+        instructionOperands.put(FENCE, new int[]{});
+
+        // THREADS
+        instructionOperands.put(SPAWN, new int[]{OPERAND_WRITE, OPERAND_LABEL});
+        instructionOperands.put(JOIN, new int[]{OPERAND_READ_WRITE});
+        instructionOperands.put(SLEEP, new int[]{OPERAND_READ});
 
         // Mnemonics
         // DWORD
@@ -154,6 +540,8 @@ public class Instruction {
         instructionMnemonics.put("cmpd", CMP_DWORD);
         instructionMnemonics.put("shld", SHL_DWORD);
         instructionMnemonics.put("shrd", SHR_DWORD);
+        instructionMnemonics.put("adcd", ADC_DWORD);
+        instructionMnemonics.put("sbbd", SBB_DWORD);
 
         // REGISTER
         instructionMnemonics.put("movr", MOV_REG);
@@ -169,6 +557,44 @@ public class Instruction {
         instructionMnemonics.put("decr", DEC_REG);
         instructionMnemonics.put("shlr", SHL_REG);
         instructionMnemonics.put("shrr", SHR_REG);
+        instructionMnemonics.put("adcr", ADC_REG);
+        instructionMnemonics.put("sbbr", SBB_REG);
+
+        // BIT
+        instructionMnemonics.put("popcr", POPCNT_REG);
+        instructionMnemonics.put("clzr", CLZ_REG);
+        instructionMnemonics.put("ctzr", CTZ_REG);
+        instructionMnemonics.put("bswapr", BSWAP_REG);
+        instructionMnemonics.put("rold", ROL_DWORD);
+        instructionMnemonics.put("rord", ROR_DWORD);
+        instructionMnemonics.put("rolr", ROL_REG);
+        instructionMnemonics.put("rorr", ROR_REG);
+
+        // LONG, FLOAT, DOUBLE
+        instructionMnemonics.put("ladd", ADD_LONG);
+        instructionMnemonics.put("lsub", SUB_LONG);
+        instructionMnemonics.put("lmul", MUL_LONG);
+        instructionMnemonics.put("ldiv", DIV_LONG);
+        instructionMnemonics.put("lcmp", CMP_LONG);
+        instructionMnemonics.put("fadd", ADD_FLOAT);
+        instructionMnemonics.put("fsub", SUB_FLOAT);
+        instructionMnemonics.put("fmul", MUL_FLOAT);
+        instructionMnemonics.put("fdiv", DIV_FLOAT);
+        instructionMnemonics.put("fcmp", CMP_FLOAT);
+        instructionMnemonics.put("dadd", ADD_DOUBLE);
+        instructionMnemonics.put("dsub", SUB_DOUBLE);
+        instructionMnemonics.put("dmul", MUL_DOUBLE);
+        instructionMnemonics.put("ddiv", DIV_DOUBLE);
+        instructionMnemonics.put("dcmp", CMP_DOUBLE);
+        instructionMnemonics.put("i2l", INT_TO_LONG);
+        instructionMnemonics.put("i2f", INT_TO_FLOAT);
+        instructionMnemonics.put("i2d", INT_TO_DOUBLE);
+        instructionMnemonics.put("f2i", FLOAT_TO_INT);
+        instructionMnemonics.put("f2d", FLOAT_TO_DOUBLE);
+        instructionMnemonics.put("d2i", DOUBLE_TO_INT);
+        instructionMnemonics.put("d2f", DOUBLE_TO_FLOAT);
+        instructionMnemonics.put("l2d", LONG_TO_DOUBLE);
+        instructionMnemonics.put("d2l", DOUBLE_TO_LONG);
 
         // JUMPS
         // Label aliases
@@ -182,6 +608,17 @@ public class Instruction {
         instructionMnemonics.put("jne", JNE);
         instructionMnemonics.put("jg", JG);
         instructionMnemonics.put("jb", JB);
+        instructionMnemonics.put("loop", LOOP);
+
+        // CONDITIONAL
+        instructionMnemonics.put("cmove", CMOVE);
+        instructionMnemonics.put("cmovne", CMOVNE);
+        instructionMnemonics.put("cmovg", CMOVG);
+        instructionMnemonics.put("cmovb", CMOVB);
+        instructionMnemonics.put("sete", SETE);
+        instructionMnemonics.put("setne", SETNE);
+        instructionMnemonics.put("setg", SETG);
+        instructionMnemonics.put("setb", SETB);
 
         // MEMORY(DWORD)
         instructionMnemonics.put("wmbd", WRITE_MEM_BYTE_DWORD);
@@ -195,6 +632,16 @@ public class Instruction {
         instructionMnemonics.put("rmbr", READ_MEM_BYTE_REG);
         instructionMnemonics.put("rmir", READ_MEM_INT_REG);
 
+        // MEMORY(FRAME)
+        instructionMnemonics.put("rmif", READ_MEM_INT_FRAME);
+        instructionMnemonics.put("wmif", WRITE_MEM_INT_FRAME);
+
+        // MEMORY(INDEXED)
+        instructionMnemonics.put("rmix", READ_MEM_INT_INDEX);
+        instructionMnemonics.put("rmbx", READ_MEM_BYTE_INDEX);
+        instructionMnemonics.put("wmix", WRITE_MEM_INT_INDEX);
+        instructionMnemonics.put("wmbx", WRITE_MEM_BYTE_INDEX);
+
         // STACK
         instructionMnemonics.put("push", PUSH_REG);
         instructionMnemonics.put("pop", POP_REG);
@@ -208,6 +655,18 @@ public class Instruction {
         // CPU
         instructionMnemonics.put("hlt", HALT);
         instructionMnemonics.put("int", INT);
+        instructionMnemonics.put("yield", YIELD);
+
+        // ATOMIC
+        instructionMnemonics.put("casr", CAS_REG);
+        instructionMnemonics.put("xaddr", XADD_REG);
+        instructionMnemonics.put("xchgr", XCHG_REG);
+        instructionMnemonics.put("fence", FENCE);
+
+        // THREADS
+        instructionMnemonics.put("spawn", SPAWN);
+        instructionMnemonics.put("join", JOIN);
+        instructionMnemonics.put("sleep", SLEEP);
 
     }
 
@@ -221,6 +680,122 @@ public class Instruction {
         return instructionOffsets.get(cmd);
     }
 
+    /**
+     * Returns bit mask of flags, which are read by instruction.
+     *
+     * @param cmd
+     * @return
+     */
+    public int getFlagsRead(int cmd) {
+        return instructionFlagsRead.getOrDefault(cmd, 0);
+    }
+
+    /**
+     * Returns bit mask of flags, which are modified by instruction.
+     *
+     * @param cmd
+     * @return
+     */
+    public int getFlagsWritten(int cmd) {
+        return instructionFlagsWritten.getOrDefault(cmd, 0);
+    }
+
+    /**
+     * Returns kind of each operand.
+     *
+     * @param cmd
+     * @return
+     */
+    public int[] getOperandKinds(int cmd) {
+        return instructionOperands.get(cmd);
+    }
+
+    /**
+     * Returns jump, which tests the same condition as a conditional move or set, or -1.
+     *
+     * @param cmd
+     * @return
+     */
+    public int getConditionJump(int cmd) {
+        return instructionConditions.getOrDefault(cmd, -1);
+    }
+
+    /**
+     * Checks if instruction is a jump to a label.
+     *
+     * @param cmd
+     * @return
+     */
+    public boolean isJump(int cmd) {
+        return (cmd == JMP || cmd == JE || cmd == JNE || cmd == JG || cmd == JB);
+    }
+
+    /**
+     * Checks if instruction may continue at a label. Includes LOOP, which decrements a register as well.
+     *
+     * @param cmd
+     * @return
+     */
+    public boolean isBranch(int cmd) {
+        return (this.isJump(cmd) || cmd == LOOP);
+    }
+
+    /**
+     * Returns position of label operand in instruction, op code is at 0. -1 if there is none.
+     *
+     * @param cmd
+     * @return
+     */
+    public int getLabelOperand(int cmd) {
+        int[] kinds = instructionOperands.get(cmd);
+
+        if (kinds != null) {
+            for (int i = 0; i < kinds.length; i++) {
+                if (kinds[i] == OPERAND_LABEL) return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits byte code into instructions. First element is the op code, followed by its operands.
+     *
+     * @param assembly
+     * @return
+     */
+    public List<int[]> decode(List<Integer> assembly) {
+        List<int[]> instructions = new ArrayList<>();
+
+        for (int i = 0; i < assembly.size(); ) {
+            int[] instruction = new int[this.getInstructionOffset(assembly.get(i)) + 1];
+
+            for (int j = 0; j < instruction.length; j++) {
+                instruction[j] = assembly.get(i++);
+            }
+            instructions.add(instruction);
+        }
+
+        return instructions;
+    }
+
+    /**
+     * Joins instructions to byte code.
+     *
+     * @param instructions
+     * @return
+     */
+    public List<Integer> encode(List<int[]> instructions) {
+        List<Integer> assembly = new ArrayList<>();
+
+        for (int[] instruction : instructions) {
+            for (int code : instruction) {
+                assembly.add(code);
+            }
+        }
+
+        return assembly;
+    }
+
     /**
      * Returns byte code from mnemonic.
      *
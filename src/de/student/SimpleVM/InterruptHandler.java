@@ -14,29 +14,70 @@ public class InterruptHandler {
     final static int SYS_WRITE_FILE = 3;
     final static int SYS_FILE_SIZE = 4;
     final static int SYS_MEM_SIZE = 5;
+    final static int SYS_CORE_ID = 6;
+    final static int SYS_CORE_COUNT = 7;
+    final static int SYS_SEND = 8;
+    final static int SYS_RECEIVE = 9;
+    final static int SYS_TRY_SEND = 10;
+    final static int SYS_TRY_RECEIVE = 11;
+    final static int SYS_CLOSE = 12;
+    final static int SYS_ATTACH = 13;
+
+    // Shared by all CPUs, a reader per call would lose buffered lines
+    private final static BufferedReader CONSOLE = new BufferedReader(new InputStreamReader(System.in));
 
     public InterruptHandler() {
         // nothing
     }
 
+    /**
+     * Returns reader for System.in.
+     *
+     * @return
+     */
+    public static BufferedReader getConsole() {
+        return CONSOLE;
+    }
+
     /**
      * Reads line from cmd with prompt.
      */
     public static String sysReadLine(String prompt) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        return sysReadLine(getConsole(), System.out, prompt);
+    }
 
-        System.out.print(prompt);
+    /**
+     * Reads line from input with prompt. Blocks only the calling thread, which is parked on virtual threads.
+     *
+     * @param input
+     * @param output
+     * @param prompt
+     * @return Line or empty string at end of input.
+     * @throws IOException
+     */
+    public static String sysReadLine(BufferedReader input, PrintStream output, String prompt) throws IOException {
+        output.print(prompt);
 
-        String input = br.readLine();
+        String line = input.readLine();
 
-        return input;
+        return (line != null) ? line : "";
     }
 
     /**
      * Writes line to terminal.
      */
     public static void sysWriteLine(String text) {
-        System.out.println(text);
+        sysWriteLine(System.out, text);
+    }
+
+    /**
+     * Writes line to output.
+     *
+     * @param output
+     * @param text
+     */
+    public static void sysWriteLine(PrintStream output, String text) {
+        output.println(text);
     }
 
     /**
@@ -0,0 +1,160 @@
+package de.student.SimpleVM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Thin client of JobServer. Sends program file and console input, writes streamed output and returns the result.
+ * A client keeps its connection, so several jobs can be sent one after another. The token of the server is read
+ * from its token file, so only its user can connect.
+ */
+public class JobClient implements AutoCloseable {
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    public JobClient() throws IOException {
+        this(Integer.getInteger("simplevm.server.port", JobServer.DEFAULT_PORT));
+    }
+
+    /**
+     * Connects to server on loopback address with token from its token file.
+     *
+     * @param port
+     * @throws IOException
+     */
+    public JobClient(int port) throws IOException {
+        this(port, JobServer.readToken(port));
+    }
+
+    /**
+     * Connects to server on loopback address.
+     *
+     * @param port
+     * @param token Token of server.
+     * @throws IOException
+     */
+    public JobClient(int port, String token) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        // Sent with the first job
+        out.writeInt(JobServer.MAGIC);
+        out.writeUTF(token);
+    }
+
+    /**
+     * Runs assembler file or executable on server.
+     *
+     * @param path
+     * @param input        Console input of program.
+     * @param optimize
+     * @param unrollFactor
+     * @param output       Receives console output, while program runs.
+     * @return
+     * @throws IOException
+     */
+    public Result run(String path, byte[] input, boolean optimize, int unrollFactor, OutputStream output) throws IOException {
+        return this.run(Paths.get(path).getFileName().toString(), Files.readAllBytes(Paths.get(path)), input,
+                optimize, unrollFactor, output);
+    }
+
+    /**
+     * Runs program file content on server.
+     *
+     * @param name         File name, its ending decides between assembler file and executable.
+     * @param file
+     * @param input        Console input of program.
+     * @param optimize
+     * @param unrollFactor
+     * @param output       Receives console output, while program runs.
+     * @return
+     * @throws IOException
+     */
+    public Result run(String name, byte[] file, byte[] input, boolean optimize, int unrollFactor, OutputStream output) throws IOException {
+        out.writeInt(JobServer.MAGIC);
+        out.writeBoolean(optimize);
+        out.writeInt(unrollFactor);
+        out.writeUTF(name);
+        JobServer.writeBlock(out, file);
+        JobServer.writeBlock(out, input);
+        out.flush();
+
+        while (true) {
+            byte type = in.readByte();
+
+            if (type == JobServer.OUTPUT) {
+                byte[] bytes = JobServer.readBlock(in);
+                output.write(bytes);
+                output.flush();
+            } else if (type == JobServer.RESULT) {
+                int exitCode = in.readInt();
+                long executedInstructions = in.readLong();
+                long runtimeNanos = in.readLong();
+                String fault = in.readUTF();
+
+                return new Result(exitCode, executedInstructions, runtimeNanos, fault.isEmpty() ? null : fault);
+            } else if (type == JobServer.ERROR) {
+                throw new IllegalArgumentException(in.readUTF());
+            } else {
+                throw new IOException("Invalid response");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Result of a job on the server.
+     */
+    public static final class Result {
+        private int exitCode;
+        private long executedInstructions;
+        private long runtimeNanos;
+        private String fault;
+
+        Result(int exitCode, long executedInstructions, long runtimeNanos, String fault) {
+            this.exitCode = exitCode;
+            this.executedInstructions = executedInstructions;
+            this.runtimeNanos = runtimeNanos;
+            this.fault = fault;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public long getExecutedInstructions() {
+            return executedInstructions;
+        }
+
+        public long getRuntimeNanos() {
+            return runtimeNanos;
+        }
+
+        /**
+         * Returns reason, why the program was stopped.
+         *
+         * @return null, if program finished normally.
+         */
+        public String getFault() {
+            return fault;
+        }
+
+        public boolean isSuccess() {
+            return fault == null;
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package de.student.SimpleVM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long running server, which executes jobs of JobClient on a warm VmPool. Programs are decoded once and cached
+ * by content, so a job only pays for its execution and not for starting a JVM, assembling and JIT warm-up.
+ * Console output is streamed back while the program runs. The server only listens on the loopback address.
+ * <p>
+ * Programs read and write files as the user of the server, so a connection has to start with a random token.
+ * The server writes it to a file, which only its user can read: server-port.token in ~/.simplevm or in the
+ * directory given by property simplevm.server.dir. The file is removed, when the server is closed.
+ * <p>
+ * Jobs run in slices. Between slices a job is cancelled, when it exceeds its timeout or its client disconnected,
+ * so a runaway program does not keep a pooled instance forever.
+ * <p>
+ * A connection sends any number of jobs, each is answered before the next one is read:
+ * <pre>
+ * Start:    int MAGIC, UTF token, answered with ERROR and closed, if token is wrong
+ * Job:      int MAGIC, boolean optimize, int unrollFactor, UTF file name, int n, n bytes file,
+ *           int n, n bytes console input
+ * Response: any number of (byte OUTPUT, int n, n bytes), then
+ *           byte RESULT, int exit code, long executed instructions, long runtime nanos, UTF fault or ""
+ *           or byte ERROR, UTF message
+ * </pre>
+ */
+public class JobServer implements AutoCloseable {
+    /**
+     * Default port. Can be changed with property simplevm.server.port.
+     */
+    final static int DEFAULT_PORT = 7878;
+
+    /**
+     * Default count of cached programs. Can be changed with property simplevm.server.programs.
+     */
+    final static int DEFAULT_CACHED_PROGRAMS = 256;
+
+    /**
+     * Default milliseconds a job may run, 0 for no timeout. Can be changed with property simplevm.server.timeout.
+     */
+    final static long DEFAULT_TIMEOUT = 60000;
+
+    // Fault of jobs, whose client went away
+    final static String DISCONNECTED = "Client disconnected";
+
+    // Nanoseconds between checks of the connection
+    private final static long CHECK_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // Protocol
+    final static int MAGIC = 0x53564D4A; // "SVMJ"
+    final static byte OUTPUT = 'O';
+    final static byte RESULT = 'R';
+    final static byte ERROR = 'X';
+
+    // Largest program or input of a job
+    final static int MAX_SIZE = 64 << 20;
+
+    // Random bytes of a token
+    private final static int TOKEN_BYTES = 32;
+
+    private ServerSocket socket;
+    private VmPool pool;
+    private ExecutorService connections;
+    private Map<String, Program> programs;
+    private Thread acceptor;
+    private long timeout;
+    private long slice;
+    private String token;
+    private File tokenFile;
+
+    public JobServer() throws IOException {
+        this(Integer.getInteger("simplevm.server.port", DEFAULT_PORT), new VmPool());
+    }
+
+    /**
+     * Starts accepting connections.
+     *
+     * @param port 0 for any free port.
+     * @param pool Instances, which run the jobs.
+     * @throws IOException
+     */
+    public JobServer(int port, VmPool pool) throws IOException {
+        int cachedPrograms = Math.max(1, Integer.getInteger("simplevm.server.programs", DEFAULT_CACHED_PROGRAMS));
+        long timeout = Math.max(0, Long.getLong("simplevm.server.timeout", DEFAULT_TIMEOUT));
+
+        this.socket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.token = newToken();
+        this.tokenFile = getTokenFile(this.getPort());
+        try {
+            writeToken(tokenFile, token);
+        } catch (IOException e) {
+            socket.close();
+            throw new IOException("Could not write token: " + e.getMessage(), e);
+        }
+        // Also removed, when the server is stopped by a signal
+        tokenFile.deleteOnExit();
+        this.pool = pool;
+        this.slice = Math.max(1, Long.getLong("simplevm.slice", Scheduler.DEFAULT_SLICE));
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.connections = VmPool.newVirtualThreadExecutor();
+        if (this.connections == null) this.connections = Executors.newCachedThreadPool();
+        // Least recently used programs are removed first
+        this.programs = new LinkedHashMap<String, Program>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+                return size() > cachedPrograms;
+            }
+        };
+
+        this.acceptor = new Thread(this::accept, "simplevm-server");
+        this.acceptor.start();
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Returns token, which clients have to send.
+     *
+     * @return
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Waits till server is closed.
+     *
+     * @throws InterruptedException
+     */
+    public void await() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * Stops accepting connections, cancels running jobs and closes open connections.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        connections.shutdownNow();
+        pool.close();
+        tokenFile.delete();
+    }
+
+    // Helper
+
+    /**
+     * Hands every connection to its own thread.
+     */
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                connections.execute(() -> this.serve(connection));
+            } catch (SocketException e) {
+                // Closed
+                break;
+            } catch (IOException e) {
+                System.out.println("--> Could not accept connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs jobs of connection till client closes it.
+     *
+     * @param connection
+     */
+    private void serve(Socket connection) {
+        try (Socket client = connection;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()))) {
+            client.setTcpNoDelay(true);
+            if (in.readInt() != MAGIC || !isToken(in.readUTF())) {
+                out.writeByte(ERROR);
+                out.writeUTF("Invalid token");
+                return;
+            }
+            while (!Thread.currentThread().isInterrupted() && this.serveJob(client, in, out)) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+
+    /**
+     * Reads a job, runs it and writes response.
+     *
+     * @param client
+     * @param in
+     * @param out
+     * @return False, if connection has no more jobs.
+     * @throws IOException
+     */
+    private boolean serveJob(Socket client, DataInputStream in, DataOutputStream out) throws IOException {
+        int magic;
+
+        try {
+            magic = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        if (magic != MAGIC) throw new IOException("Invalid job");
+
+        boolean optimize = in.readBoolean();
+        int unrollFactor = in.readInt();
+        String name = in.readUTF();
+        byte[] file = readBlock(in);
+        byte[] input = readBlock(in);
+
+        Program program;
+        try {
+            program = this.getProgram(name, file, optimize, Math.max(1, unrollFactor));
+        } catch (IllegalArgumentException e) {
+            out.writeByte(ERROR);
+            out.writeUTF(e.getMessage());
+            return true;
+        }
+
+        PrintStream console = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out)), true);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(input)));
+        ExecutionResult result;
+
+        try {
+            result = pool.execute(vm -> this.runJob(vm.setConsole(reader, console).start(program), client, in,
+                    console));
+        } catch (Exception e) {
+            console.flush();
+            out.writeByte(ERROR);
+            out.writeUTF("Execution failed: " + e);
+            return true;
+        }
+        console.flush();
+        if (console.checkError() || DISCONNECTED.equals(result.getFault())) {
+            throw new IOException("Could not send output");
+        }
+
+        out.writeByte(RESULT);
+        out.writeInt(result.getExitCode());
+        out.writeLong(result.getExecutedInstructions());
+        out.writeLong(result.getRuntimeNanos());
+        out.writeUTF(result.getFault() != null ? result.getFault() : "");
+        return true;
+    }
+
+    /**
+     * Runs started program in slices till it is finished, exceeds the timeout or its client disconnects.
+     *
+     * @param vm
+     * @param client
+     * @param in
+     * @param console
+     * @return
+     */
+    private ExecutionResult runJob(VmInstance vm, Socket client, DataInputStream in, PrintStream console) {
+        long startTime = System.nanoTime();
+        long lastCheck = startTime;
+
+        while (!vm.resume(slice)) {
+            long now = System.nanoTime();
+
+            if (timeout > 0 && now - startTime >= timeout) {
+                vm.cancel(Scheduler.DEADLINE_EXCEEDED);
+            } else if (Thread.currentThread().isInterrupted()) {
+                // Server is closed
+                vm.cancel(Scheduler.CANCELLED);
+            } else if (now - lastCheck >= CHECK_INTERVAL) {
+                lastCheck = now;
+                if (console.checkError() || isDisconnected(client, in)) vm.cancel(DISCONNECTED);
+            }
+            if (vm.isFinished()) break;
+            // Green threads may sleep or wait, checks above still run every interval
+            if (timeout > 0) {
+                vm.await(Math.min(CHECK_INTERVAL, Math.max(0, startTime + timeout - System.nanoTime())));
+            } else {
+                vm.await(CHECK_INTERVAL);
+            }
+        }
+        return vm.getResult();
+    }
+
+    /**
+     * Checks without consuming bytes, if client closed the connection. A client may already send its next job.
+     *
+     * @param client
+     * @param in
+     * @return
+     */
+    private static boolean isDisconnected(Socket client, DataInputStream in) {
+        try {
+            if (in.available() > 0) return false;
+
+            client.setSoTimeout(1);
+            in.mark(1);
+            try {
+                return in.read() < 0;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                in.reset();
+                client.setSoTimeout(0);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns cached program or decodes file.
+     *
+     * @param name
+     * @param file
+     * @param optimize
+     * @param unrollFactor
+     * @return
+     */
+    private Program getProgram(String name, byte[] file, boolean optimize, int unrollFactor) {
+        boolean assembly = name.endsWith(Program.ASSEMBLY_FILE_ENDING);
+        String key = getKey(file, assembly + ";" + (optimize ? "O;unroll=" + unrollFactor : ""));
+        Program program;
+
+        synchronized (programs) {
+            program = programs.get(key);
+        }
+        if (program != null) return program;
+
+        program = Program.decode(name, file, optimize, unrollFactor);
+
+        synchronized (programs) {
+            programs.put(key, program);
+        }
+        return program;
+    }
+
+    /**
+     * Hashes file content with options, which change the decoded program.
+     *
+     * @param file
+     * @param options
+     * @return
+     */
+    private static String getKey(byte[] file, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder key = new StringBuilder();
+
+            digest.update(options.getBytes());
+            digest.update((byte) 0);
+            for (byte b : digest.digest(file)) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compares token without leaking, how many characters match.
+     *
+     * @param candidate
+     * @return
+     */
+    private boolean isToken(String candidate) {
+        byte[] expected = token.getBytes(StandardCharsets.UTF_8);
+
+        return MessageDigest.isEqual(expected, candidate.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates random token.
+     *
+     * @return
+     */
+    private static String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        StringBuilder token = new StringBuilder();
+
+        new SecureRandom().nextBytes(bytes);
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+        return token.toString();
+    }
+
+    /**
+     * Returns file with token of server on port.
+     *
+     * @param port
+     * @return
+     */
+    static File getTokenFile(int port) {
+        return new File(System.getProperty("simplevm.server.dir", System.getProperty("user.home") + File.separator
+                + ".simplevm"), "server-" + port + ".token");
+    }
+
+    /**
+     * Reads token of server on port.
+     *
+     * @param port
+     * @return
+     * @throws IOException
+     */
+    static String readToken(int port) throws IOException {
+        return new String(Files.readAllBytes(getTokenFile(port).toPath()), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Writes token to a new file, which only the user can read and write.
+     *
+     * @param file
+     * @param token
+     * @throws IOException
+     */
+    private static void writeToken(File file, String token) throws IOException {
+        Path path = file.toPath();
+
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // No POSIX permissions, for example on Windows
+            Files.createFile(path);
+            if (!file.setReadable(false, false) || !file.setReadable(true, true)
+                    || !file.setWritable(false, false) || !file.setWritable(true, true)) {
+                throw new IOException("Could not restrict access to " + file);
+            }
+        }
+        Files.write(path, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads length and bytes.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    static byte[] readBlock(DataInputStream in) throws IOException {
+        int n = in.readInt();
+
+        if (n < 0 || n > MAX_SIZE) throw new IOException("Invalid block size " + n);
+
+        byte[] bytes = new byte[n];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes length and bytes.
+     *
+     * @param out
+     * @param bytes
+     * @throws IOException
+     */
+    static void writeBlock(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Sends every write as an output frame and flushes it, so the client sees output while the program runs.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private DataOutputStream out;
+
+        FrameOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            out.writeByte(OUTPUT);
+            out.writeInt(len);
+            out.write(b, off, len);
+            out.flush();
+        }
+    }
+}
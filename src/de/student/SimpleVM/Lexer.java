@@ -0,0 +1,293 @@
+package de.student.SimpleVM;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming tokenizer for assembler files.
+ * Reads through a fixed char buffer, so input of any size can be processed.
+ */
+public class Lexer implements Closeable {
+    // Token types
+    final static int EOF = 0;
+    final static int EOL = 1;
+    final static int WORD = 2;
+    final static int STRING = 3;
+
+    /**
+     * Size of read buffer.
+     */
+    final static int BUFFER_SIZE = 8192;
+
+    /**
+     * Size of symbol table. Has to be a power of two.
+     */
+    final static int SYMBOL_TABLE_SIZE = 1024;
+
+    // Special characters
+    final static char COMMENT = '#';
+    final static char QUOTE = '\'';
+    final static char ESCAPE = '\\';
+
+    private Reader reader;
+    private char[] buffer;
+    private int position;
+    private int limit;
+
+    private char[] token;
+    private int tokenLength;
+    private int tokenType;
+    private String tokenText;
+
+    private String[] symbols;
+    private int symbolCount;
+
+    private int line;
+    private String error;
+
+    public Lexer(Reader reader) {
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+        this.position = 0;
+        this.limit = 0;
+
+        this.token = new char[64];
+        this.tokenLength = 0;
+        this.tokenType = EOF;
+
+        this.symbols = new String[SYMBOL_TABLE_SIZE];
+        this.symbolCount = 0;
+
+        this.line = 1;
+    }
+
+    /**
+     * Reads next token.
+     *
+     * @return Type of token.
+     * @throws IOException
+     */
+    public int next() throws IOException {
+        int c;
+
+        // Line number belongs to previous EOL
+        if (tokenType == EOL) line++;
+
+        tokenLength = 0;
+        tokenText = null;
+        error = null;
+
+        // Skip whitespaces and comments
+        while (true) {
+            c = read();
+            if (c == COMMENT) {
+                while (c != -1 && c != '\n') c = read();
+            }
+            if (c == -1) return tokenType = EOF;
+            if (c == '\n') return tokenType = EOL;
+            if (!Character.isWhitespace(c)) break;
+        }
+
+        if (c == QUOTE) {
+            readString();
+            return tokenType = STRING;
+        }
+
+        // Word till whitespace, comment or quote
+        while (c != -1 && c != COMMENT && c != QUOTE && !Character.isWhitespace(c)) {
+            append((char) c);
+            c = read();
+        }
+        unread();
+
+        return tokenType = WORD;
+    }
+
+    /**
+     * Returns type of current token.
+     *
+     * @return
+     */
+    public int getType() {
+        return tokenType;
+    }
+
+    /**
+     * Returns text of current token. Words are interned, so repeated mnemonics, registers and names are not allocated
+     * again.
+     *
+     * @return
+     */
+    public String getText() {
+        if (tokenText == null) {
+            tokenText = (tokenType == WORD) ? intern() : new String(token, 0, tokenLength);
+        }
+        return tokenText;
+    }
+
+    /**
+     * Returns line of current token.
+     *
+     * @return
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Returns error of current token or null.
+     *
+     * @return
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Skips all tokens till end of line.
+     *
+     * @throws IOException
+     */
+    public void skipLine() throws IOException {
+        while (tokenType != EOL && tokenType != EOF) next();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // Helper
+
+    /**
+     * Reads quoted string. Supports \' \\ \n \t and \0 escapes.
+     *
+     * @throws IOException
+     */
+    private void readString() throws IOException {
+        int c;
+
+        while (true) {
+            c = read();
+            if (c == -1 || c == '\n') {
+                error = "Unterminated string";
+                unread();
+                return;
+            } else if (c == QUOTE) {
+                return;
+            } else if (c == ESCAPE) {
+                c = read();
+                switch (c) {
+                    case 'n':
+                        append('\n');
+                        break;
+                    case 't':
+                        append('\t');
+                        break;
+                    case '0':
+                        append('\0');
+                        break;
+                    case QUOTE:
+                    case ESCAPE:
+                        append((char) c);
+                        break;
+                    default:
+                        error = "Invalid escape sequence";
+                        unread();
+                        break;
+                }
+            } else {
+                append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Returns next char or -1 at end of input.
+     *
+     * @return
+     * @throws IOException
+     */
+    private int read() throws IOException {
+        if (position == limit) {
+            int read = reader.read(buffer, 0, buffer.length);
+            if (read <= 0) {
+                // mark end, so unread stays in bounds
+                position = limit = 0;
+                return -1;
+            }
+            position = 0;
+            limit = read;
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Steps back one char. Only valid directly after read().
+     */
+    private void unread() {
+        if (position > 0) position--;
+    }
+
+    /**
+     * Appends char to current token.
+     *
+     * @param c
+     */
+    private void append(char c) {
+        if (tokenLength == token.length) {
+            char[] grown = new char[token.length * 2];
+            System.arraycopy(token, 0, grown, 0, tokenLength);
+            token = grown;
+        }
+        token[tokenLength++] = c;
+    }
+
+    /**
+     * Looks up current token in symbol table and returns shared string.
+     *
+     * @return
+     */
+    private String intern() {
+        int hash = 0;
+
+        for (int i = 0; i < tokenLength; i++) {
+            hash = 31 * hash + token[i];
+        }
+
+        int mask = symbols.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+
+        while (symbols[index] != null) {
+            String symbol = symbols[index];
+            if (symbol.hashCode() == hash && equalsToken(symbol)) return symbol;
+            index = (index + 1) & mask;
+        }
+
+        String symbol = new String(token, 0, tokenLength);
+
+        // Table is full enough, stop caching new symbols
+        if (symbolCount < symbols.length / 2) {
+            symbols[index] = symbol;
+            symbolCount++;
+        }
+
+        return symbol;
+    }
+
+    /**
+     * Compares current token with string.
+     *
+     * @param s
+     * @return
+     */
+    private boolean equalsToken(String s) {
+        if (s.length() != tokenLength) return false;
+
+        for (int i = 0; i < tokenLength; i++) {
+            if (s.charAt(i) != token[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,446 @@
+package de.student.SimpleVM;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static de.student.SimpleVM.Instruction.*;
+
+/**
+ * Optimizes natural loops of the control flow graph.
+ * Invariant moves and memory reads are hoisted into a preheader and counted loops with known trip count are unrolled.
+ */
+public class LoopOptimizer implements OptimizerPass {
+    // Rules
+    final static String LOOPS = "loops found";
+    final static String HOISTED = "invariant instructions hoisted";
+    final static String UNROLLED = "loops unrolled";
+    final static String SAVED_PER_ITERATION = "executed instructions saved per iteration";
+    final static String SAVED_PER_ENTRY = "executed instructions saved per loop entry";
+
+    // Limits
+    final static int DEFAULT_UNROLL_FACTOR = 4;
+    final static int MAX_UNROLLED_SIZE = 64;
+    final static int MAX_TRIP_COUNT = 1 << 20;
+    final static int MAX_ROUNDS = 64;
+
+    private Instruction ins;
+    private Map<String, Integer> statistics;
+    private int unrollFactor;
+
+    public LoopOptimizer() {
+        this(DEFAULT_UNROLL_FACTOR);
+    }
+
+    /**
+     * @param unrollFactor Maximal copies of loop body, 1 disables unrolling.
+     */
+    public LoopOptimizer(int unrollFactor) {
+        ins = new Instruction();
+        statistics = new LinkedHashMap<>();
+        this.unrollFactor = unrollFactor;
+
+        statistics.put(LOOPS, 0);
+        statistics.put(HOISTED, 0);
+        statistics.put(UNROLLED, 0);
+        statistics.put(SAVED_PER_ITERATION, 0);
+        statistics.put(SAVED_PER_ENTRY, 0);
+    }
+
+    @Override
+    public List<Integer> optimize(List<Integer> assembly) {
+        ControlFlowGraph cfg = new ControlFlowGraph(assembly);
+        boolean changed = true;
+
+        if (!cfg.isSupported()) return assembly;
+
+        for (int round = 0; changed && round < MAX_ROUNDS; round++) {
+            changed = false;
+
+            cfg.computeLiveness();
+            List<BitSet> dominators = cfg.computeDominators();
+            List<Loop> loops = this.findLoops(cfg, dominators);
+
+            if (round == 0) this.count(LOOPS, loops.size());
+
+            for (Loop loop : loops) {
+                if (this.hoist(cfg, loop, dominators) || this.unroll(cfg, loop)) {
+                    // Blocks have changed, analyse again
+                    changed = true;
+                    break;
+                }
+            }
+        }
+
+        return cfg.toAssembly();
+    }
+
+    @Override
+    public void printStatistics() {
+        System.out.println("--> Loop optimizer:");
+        for (Map.Entry<String, Integer> entry : statistics.entrySet()) {
+            System.out.println("    " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    /**
+     * Returns count of applied rewrites for rule.
+     *
+     * @param rule
+     * @return
+     */
+    public int getStatistic(String rule) {
+        return statistics.getOrDefault(rule, 0);
+    }
+
+    // Helper
+
+    /**
+     * Natural loop with all its back edges.
+     */
+    private static class Loop {
+        BasicBlock header;
+        BitSet blocks = new BitSet();
+
+        boolean contains(BasicBlock block) {
+            return blocks.get(block.getIndex());
+        }
+    }
+
+    /**
+     * Finds natural loops, which can be optimized.
+     *
+     * @param cfg
+     * @param dominators
+     * @return Loops in program order of their headers.
+     */
+    private List<Loop> findLoops(ControlFlowGraph cfg, List<BitSet> dominators) {
+        List<Loop> result = new ArrayList<>();
+
+        for (Map.Entry<BasicBlock, BitSet> entry : cfg.findLoops(dominators).entrySet()) {
+            Loop loop = new Loop();
+
+            loop.header = entry.getKey();
+            loop.blocks = entry.getValue();
+            if (isSimple(loop, cfg)) result.add(loop);
+        }
+        result.sort((a, b) -> a.header.getIndex() - b.header.getIndex());
+
+        return result;
+    }
+
+    /**
+     * Checks if loop contains no calls and no procedure entries. Callees could change everything.
+     *
+     * @param loop
+     * @param cfg
+     * @return
+     */
+    private boolean isSimple(Loop loop, ControlFlowGraph cfg) {
+        for (int i = loop.blocks.nextSetBit(0); i >= 0; i = loop.blocks.nextSetBit(i + 1)) {
+            BasicBlock block = cfg.getBlocks().get(i);
+
+            if (block.endsWithCall()) return false;
+            for (BasicBlock predecessor : block.getPredecessors()) {
+                if (predecessor.endsWithCall() && predecessor.getTarget() == block) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves invariant instructions into a new preheader in front of the loop header.
+     * An instruction is invariant, if it is the only definition of its register in the loop, its sources are
+     * not changed in the loop and the old value of its register is not used in the loop. It has to be executed
+     * before every exit of the loop, so the register holds the same value after the loop.
+     *
+     * @param cfg
+     * @param loop
+     * @param dominators
+     * @return True if instructions were hoisted.
+     */
+    private boolean hoist(ControlFlowGraph cfg, Loop loop, List<BitSet> dominators) {
+        List<BasicBlock> blocks = cfg.getBlocks();
+        BasicBlock header = loop.header;
+        int[] definitions = new int[Register.COUNT];
+        boolean writesMemory = false;
+        List<BasicBlock> exits = new ArrayList<>();
+
+        for (int i = loop.blocks.nextSetBit(0); i >= 0; i = loop.blocks.nextSetBit(i + 1)) {
+            BasicBlock block = blocks.get(i);
+
+            for (int[] instruction : block.getInstructions()) {
+                long defs = cfg.getDefs(instruction) & ControlFlowGraph.ALL_REGISTERS;
+
+                for (int register = 0; register < Register.COUNT; register++) {
+                    if ((defs & (1L << register)) != 0) definitions[register]++;
+                }
+                // Sys functions may fill memory
+                if (instruction[0] == INT) writesMemory = true;
+                if (isMemoryWrite(instruction[0])) writesMemory = true;
+            }
+
+            List<BasicBlock> successors = block.getSuccessors();
+            if (successors.isEmpty()) exits.add(block);
+            for (BasicBlock successor : successors) {
+                if (!loop.contains(successor)) {
+                    exits.add(block);
+                    break;
+                }
+            }
+        }
+
+        // Loops without exits may never execute an instruction, which would be hoisted
+        if (exits.isEmpty()) return false;
+
+        // Preheader is placed in front of header, so header must not be entered by falling through from the loop
+        int headerPosition = header.getIndex();
+        if (headerPosition > 0) {
+            BasicBlock previous = blocks.get(headerPosition - 1);
+            if (loop.contains(previous) && previous.getFallThrough() == header) return false;
+        }
+
+        List<int[]> hoisted = new ArrayList<>();
+        for (int i = loop.blocks.nextSetBit(0); i >= 0; i = loop.blocks.nextSetBit(i + 1)) {
+            BasicBlock block = blocks.get(i);
+
+            if (!dominatesAll(dominators, block, exits)) continue;
+
+            for (int[] instruction : block.getInstructions()) {
+                if (isInvariant(instruction, definitions, writesMemory, header.getLiveIn())) {
+                    hoisted.add(instruction);
+                }
+            }
+            block.getInstructions().removeAll(hoisted);
+        }
+
+        if (hoisted.isEmpty()) return false;
+
+        BasicBlock preheader = new BasicBlock(headerPosition);
+        List<BasicBlock> entries = new ArrayList<>();
+        for (BasicBlock predecessor : header.getPredecessors()) {
+            if (!loop.contains(predecessor) && predecessor.getTarget() == header) entries.add(predecessor);
+        }
+
+        // Jumps from outside of the loop have to enter through the preheader
+        if (!entries.isEmpty()) {
+            int label = cfg.createLabel();
+
+            preheader.getInstructions().add(new int[]{LABEL, label});
+            for (BasicBlock entry : entries) {
+                int[] terminator = entry.getTerminator();
+                terminator[ins.getLabelOperand(terminator[0])] = label;
+            }
+        }
+        preheader.getInstructions().addAll(hoisted);
+
+        blocks.add(headerPosition, preheader);
+        cfg.update();
+
+        this.count(HOISTED, hoisted.size());
+        this.count(SAVED_PER_ITERATION, hoisted.size());
+
+        return true;
+    }
+
+    /**
+     * Checks if instruction produces the same value in every iteration.
+     *
+     * @param instruction
+     * @param definitions Count of definitions per register in loop.
+     * @param writesMemory
+     * @param headerLiveIn
+     * @return
+     */
+    private boolean isInvariant(int[] instruction, int[] definitions, boolean writesMemory, long headerLiveIn) {
+        int operation = instruction[0];
+
+        switch (operation) {
+            case MOV_DWORD:
+                break;
+            case MOV_REG:
+                if (definitions[instruction[2]] != 0) return false;
+                break;
+            case READ_MEM_BYTE_DWORD:
+            case READ_MEM_INT_DWORD:
+                if (writesMemory) return false;
+                break;
+            case READ_MEM_BYTE_REG:
+            case READ_MEM_INT_REG:
+                if (writesMemory || definitions[instruction[2]] != 0) return false;
+                break;
+            default:
+                return false;
+        }
+
+        return definitions[instruction[1]] == 1 && (headerLiveIn & (1L << instruction[1])) == 0;
+    }
+
+    /**
+     * Unrolls loops, which consist of one block and are left by a compare of a counter with a constant.
+     * The trip count has to be known and divisible by the factor, so compare and jump are only kept in the
+     * last copy of the body.
+     *
+     * @param cfg
+     * @param loop
+     * @return True if loop was unrolled.
+     */
+    private boolean unroll(ControlFlowGraph cfg, Loop loop) {
+        BasicBlock block = loop.header;
+        List<int[]> instructions = block.getInstructions();
+        int[] terminator = block.getTerminator();
+
+        if (unrollFactor < 2 || loop.blocks.cardinality() != 1 || !block.hasLabel()) return false;
+        if (terminator[0] == JMP || !ins.isJump(terminator[0]) || block.getTarget() != block) return false;
+
+        // Compare, which decides the jump. No other instruction may read flags.
+        int flagsRead = ins.getFlagsRead(terminator[0]);
+        int compareIndex = -1;
+        for (int i = instructions.size() - 2; i > 0; i--) {
+            int operation = instructions.get(i)[0];
+
+            if (ins.getFlagsRead(operation) != 0 || operation == INT) return false;
+            if (compareIndex < 0 && (ins.getFlagsWritten(operation) & flagsRead) != 0) compareIndex = i;
+        }
+        if (compareIndex < 0) return false;
+
+        int[] compare = instructions.get(compareIndex);
+        if (compare[0] != CMP_DWORD && compare[0] != CMP_REG) return false;
+
+        // Compared registers may only be changed by one step instruction
+        int[] definitions = new int[Register.COUNT];
+        for (int[] instruction : instructions) {
+            long defs = cfg.getDefs(instruction) & ControlFlowGraph.ALL_REGISTERS;
+
+            for (int register = 0; register < Register.COUNT; register++) {
+                if ((defs & (1L << register)) != 0) definitions[register]++;
+            }
+        }
+        for (int i = 1; i <= (compare[0] == CMP_REG ? 2 : 1); i++) {
+            if (definitions[compare[i]] > 1) return false;
+        }
+
+        int trips = this.getTripCount(cfg, block, compare);
+        if (trips <= 0) return false;
+
+        int factor = 0;
+        int bodySize = instructions.size() - 1;
+        for (int f = unrollFactor; f >= 2; f--) {
+            if (trips % f == 0 && bodySize * f <= MAX_UNROLLED_SIZE) {
+                factor = f;
+                break;
+            }
+        }
+        if (factor == 0) return false;
+
+        List<int[]> unrolled = new ArrayList<>();
+        unrolled.add(instructions.get(0));
+        for (int copy = 1; copy < factor; copy++) {
+            for (int i = 1; i < instructions.size() - 1; i++) {
+                if (i != compareIndex) unrolled.add(instructions.get(i).clone());
+            }
+        }
+        unrolled.addAll(instructions.subList(1, instructions.size()));
+
+        instructions.clear();
+        instructions.addAll(unrolled);
+
+        this.count(UNROLLED, 1);
+        // Compare and jump are left out in all but every factor-th iteration
+        this.count(SAVED_PER_ENTRY, 2 * (trips - trips / factor));
+
+        return true;
+    }
+
+    /**
+     * Simulates loop with the constant values, which reach the loop from outside.
+     *
+     * @param cfg
+     * @param block
+     * @param compare
+     * @return Count of iterations or 0 if unknown.
+     */
+    private int getTripCount(ControlFlowGraph cfg, BasicBlock block, int[] compare) {
+        ConstantPropagation constants = new ConstantPropagation(cfg);
+        ConstantPropagation.State entry = null;
+
+        for (BasicBlock predecessor : block.getPredecessors()) {
+            if (predecessor == block) continue;
+            // State after call is not the state at the end of the calling block
+            if (predecessor.endsWithCall()) return 0;
+
+            ConstantPropagation.State state = constants.getOutState(predecessor);
+            if (state == null) continue;
+
+            if (entry == null) {
+                entry = state;
+            } else {
+                entry.merge(state);
+            }
+        }
+
+        if (entry == null || !entry.isKnown(compare[1])) return 0;
+        if (compare[0] == CMP_REG && !entry.isKnown(compare[2])) return 0;
+
+        ConstantPropagation.State state = ConstantPropagation.State.unknown();
+        state.setRegister(compare[1], entry.getRegister(compare[1]));
+        if (compare[0] == CMP_REG) state.setRegister(compare[2], entry.getRegister(compare[2]));
+
+        int[] terminator = block.getTerminator();
+        for (int trips = 1; trips <= MAX_TRIP_COUNT; trips++) {
+            for (int[] instruction : block.getInstructions()) {
+                if (instruction != terminator) constants.transfer(instruction, state);
+            }
+
+            int decision = constants.evaluateCondition(terminator[0], state);
+            if (decision == ConstantPropagation.NOT_TAKEN) return trips;
+            if (decision != ConstantPropagation.TAKEN) return 0;
+        }
+        return 0;
+    }
+
+    /**
+     * Checks if block is passed on the way to every other block.
+     *
+     * @param dominators
+     * @param block
+     * @param others
+     * @return
+     */
+    private boolean dominatesAll(List<BitSet> dominators, BasicBlock block, List<BasicBlock> others) {
+        for (BasicBlock other : others) {
+            BitSet dominatedBy = dominators.get(other.getIndex());
+            if (dominatedBy == null || !dominatedBy.get(block.getIndex())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if instruction writes memory. Push writes memory in memory stack mode. Atomic instructions and fences
+     * may observe writes of other cores and other green threads run during yield, join and sleep, so no load is
+     * hoisted out of their loops.
+     *
+     * @param operation
+     * @return
+     */
+    private boolean isMemoryWrite(int operation) {
+        return operation == WRITE_MEM_BYTE_DWORD || operation == WRITE_MEM_INT_DWORD
+                || operation == WRITE_MEM_BYTE_REG || operation == WRITE_MEM_INT_REG
+                || operation == WRITE_MEM_INT_FRAME || operation == WRITE_MEM_INT_INDEX
+                || operation == WRITE_MEM_BYTE_INDEX || operation == PUSH_REG
+                || operation == CAS_REG || operation == XADD_REG || operation == XCHG_REG || operation == FENCE
+                || operation == YIELD || operation == SPAWN || operation == JOIN || operation == SLEEP || operation == INT;
+    }
+
+    /**
+     * Counts applied rule.
+     *
+     * @param rule
+     * @param n
+     */
+    private void count(String rule, int n) {
+        statistics.put(rule, statistics.get(rule) + n);
+    }
+}
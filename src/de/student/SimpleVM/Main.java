@@ -1,5 +1,14 @@
 package de.student.SimpleVM;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Simple test class.
  */
@@ -7,21 +16,353 @@ public class Main {
     final static int RUNTIME_ARGS = 1;
     final static int ASSEMBLER_ARGS = 2;
 
+    // Options
+    final static String OPTIMIZE = "-O";
+    final static String UNROLL = "-unroll=";
+    final static String BATCH = "-batch=";
+    final static String SMP = "-smp=";
+    final static String PIPELINE = "-pipeline=";
+    final static String SHARED = "-shared=";
+    final static String SERVER = "-server";
+    final static String CLIENT = "-client";
+    final static String WORKERS = "-workers=";
+    // Started by Coordinator
+    final static String WORKER = "-worker=";
+    final static String STDIN = "-";
+
     public static void main(String[] args) {
+        List<String> files = new ArrayList<>();
+        boolean optimize = false;
+        int unrollFactor = LoopOptimizer.DEFAULT_UNROLL_FACTOR;
+        String batchInput = null;
+        int cores = 1;
+        String pipeline = null;
+        String server = null;
+        String client = null;
+        int workers = 0;
+
+        // Split options from files
+        for (String arg : args) {
+            if (arg.equals(OPTIMIZE)) {
+                optimize = true;
+            } else if (arg.startsWith(UNROLL)) {
+                try {
+                    unrollFactor = Math.max(1, Integer.parseInt(arg.substring(UNROLL.length())));
+                } catch (NumberFormatException e) {
+                    System.out.println("--> Invalid unroll factor: " + arg);
+                    return;
+                }
+            } else if (arg.startsWith(SMP)) {
+                try {
+                    cores = Math.max(1, Integer.parseInt(arg.substring(SMP.length())));
+                } catch (NumberFormatException e) {
+                    System.out.println("--> Invalid count of cores: " + arg);
+                    return;
+                }
+            } else if (arg.startsWith(SHARED)) {
+                if (!loadShared(arg.substring(SHARED.length()))) return;
+            } else if (arg.startsWith(WORKERS)) {
+                try {
+                    workers = Math.max(1, Integer.parseInt(arg.substring(WORKERS.length())));
+                } catch (NumberFormatException e) {
+                    System.out.println("--> Invalid count of workers: " + arg);
+                    return;
+                }
+            } else if (arg.startsWith(WORKER)) {
+                runWorker(arg.substring(WORKER.length()));
+                return;
+            } else if (arg.startsWith(SERVER)) {
+                server = arg.substring(SERVER.length());
+            } else if (arg.startsWith(CLIENT)) {
+                client = arg.substring(CLIENT.length());
+            } else if (arg.startsWith(PIPELINE)) {
+                pipeline = arg.substring(PIPELINE.length());
+            } else if (arg.startsWith(BATCH)) {
+                batchInput = arg.substring(BATCH.length());
+            } else {
+                files.add(arg);
+            }
+        }
+
         // Runtime or compilation
-        if (args.length == RUNTIME_ARGS) {
-            Runtime runtime = new Runtime(args[0]);
+        if (server != null && files.isEmpty()) {
+            runServer(server);
+        } else if (client != null && files.size() == RUNTIME_ARGS) {
+            runClient(client, files.get(0), optimize, unrollFactor);
+        } else if (pipeline != null && files.isEmpty()) {
+            runPipeline(pipeline.split(","), optimize, unrollFactor);
+        } else if (batchInput != null && files.size() == RUNTIME_ARGS) {
+            runBatch(files.get(0), batchInput, optimize, unrollFactor, workers);
+        } else if (files.size() == RUNTIME_ARGS) {
+            Runtime runtime = new Runtime(files.get(0));
+            runtime.setOptimize(optimize);
+            runtime.setUnrollFactor(unrollFactor);
+            runtime.setCores(cores);
             runtime.run();
-        } else if (args.length == ASSEMBLER_ARGS) {
-            Assembler asm = new Assembler(args[0]);
-            if (asm.assemble()) asm.writeFile(args[1]);
-            else System.out.println("--> File contains errors!");
+        } else if (files.size() == ASSEMBLER_ARGS) {
+            Assembler asm = new Assembler(files.get(0));
+            asm.setUnrollFactor(unrollFactor);
+            if (asm.assemble()) {
+                if (optimize) asm.optimize();
+                asm.writeFile(files.get(1));
+            } else {
+                System.out.println("--> File contains errors!");
+            }
         } else {
             System.out.println("Usage:");
             System.out.println("->Runtime");
-            System.out.println("SimpleCPU.jar <filePath>");
+            System.out.println("SimpleCPU.jar [-O] [-unroll=n] [-smp=n] [-shared=name:filePath] <filePath>");
             System.out.println("->Assembler");
-            System.out.println("SimpleCPU.jar <inputFilePath> <outputFilePath>");
+            System.out.println("SimpleCPU.jar [-O] [-unroll=n] <inputFilePath> <outputFilePath>");
+            System.out.println("->Batch");
+            System.out.println("SimpleCPU.jar [-O] [-unroll=n] [-workers=n] -batch=<inputsFilePath|-> <filePath>");
+            System.out.println("->Pipeline");
+            System.out.println("SimpleCPU.jar [-O] [-unroll=n] -pipeline=<filePath>,<filePath>...");
+            System.out.println("->Job server");
+            System.out.println("SimpleCPU.jar [-shared=name:filePath] -server[=port]");
+            System.out.println("SimpleCPU.jar [-O] [-unroll=n] -client[=port] <filePath>");
+            System.out.println("->Options");
+            System.out.println("-O  Optimize assembled code");
+            System.out.println("-unroll=n  Unroll counted loops up to n times (default " + LoopOptimizer.DEFAULT_UNROLL_FACTOR + ")");
+            System.out.println("-batch=f  Run program in parallel for every line of f (- for stdin) as console input");
+            System.out.println("-workers=n  Run batch on n worker processes, which steal inputs from each other");
+            System.out.println("-smp=n  Run program on n cores sharing one memory");
+            System.out.println("-shared=name:f  Load file f once into shared region name, which programs attach with sys function 13");
+            System.out.println("-server=p  Run jobs of clients on a warm pool, listening on localhost port p (default " + JobServer.DEFAULT_PORT + ")");
+            System.out.println("-client=p  Run program on server with stdin as input and print its output");
+            System.out.println("-pipeline=a,b  Chain programs by channels, stdin is sent to the first, output of the last is printed");
+        }
+    }
+
+    /**
+     * Creates shared region with content of file.
+     *
+     * @param option name:filePath
+     * @return False, if region could not be created.
+     */
+    private static boolean loadShared(String option) {
+        int split = option.indexOf(':');
+
+        if (split <= 0) {
+            System.out.println("--> Invalid shared region: " + option);
+            return false;
+        }
+        String path = option.substring(split + 1);
+        try {
+            SharedRegion.load(option.substring(0, split), Files.readAllBytes(Paths.get(path)));
+        } catch (IOException e) {
+            System.out.println("--> Could not read shared region: " + path);
+            return false;
+        } catch (IllegalArgumentException e) {
+            System.out.println("--> " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs program for every input line and prints outputs in input order.
+     *
+     * @param path
+     * @param inputs
+     * @param optimize
+     * @param unrollFactor
+     * @param workers      Count of worker processes, 0 runs batch in this process.
+     */
+    private static void runBatch(String path, String inputs, boolean optimize, int unrollFactor, int workers) {
+        if (workers > 0) {
+            runDistributedBatch(path, inputs, optimize, unrollFactor, workers);
+            return;
+        }
+
+        Program program;
+
+        try {
+            program = Program.load(path, optimize, unrollFactor);
+        } catch (IllegalArgumentException e) {
+            System.out.println("--> " + e.getMessage());
+            return;
+        }
+
+        try (BatchRunner runner = new BatchRunner(program);
+             BufferedReader reader = inputs.equals(STDIN) ? new BufferedReader(new InputStreamReader(System.in))
+                     : new BufferedReader(new FileReader(inputs))) {
+            printReport(runner.run(reader));
+        } catch (IOException e) {
+            System.out.println("--> Could not read inputs: " + inputs);
+        }
+    }
+
+    /**
+     * Runs batch on worker processes and prints outputs in input order.
+     *
+     * @param path
+     * @param inputs
+     * @param optimize
+     * @param unrollFactor
+     * @param workers
+     */
+    private static void runDistributedBatch(String path, String inputs, boolean optimize, int unrollFactor, int workers) {
+        List<String> lines = new ArrayList<>();
+
+        try (BufferedReader reader = inputs.equals(STDIN) ? new BufferedReader(new InputStreamReader(System.in))
+                : new BufferedReader(new FileReader(inputs))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            System.out.println("--> Could not read inputs: " + inputs);
+            return;
+        }
+
+        try (Coordinator coordinator = new Coordinator(workers)) {
+            printReport(coordinator.run(path, lines, optimize, unrollFactor));
+            System.out.println("--> Workers: " + coordinator.getWorkerCount() + ", stolen chunks: " + coordinator.getSteals());
+        } catch (IllegalArgumentException e) {
+            System.out.println("--> " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("--> Workers failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints outputs and faults in input order and summary.
+     *
+     * @param report
+     */
+    private static void printReport(BatchRunner.Report report) {
+
+        for (int i = 0; i < report.size(); i++) {
+            System.out.print(report.getOutput(i));
+            if (!report.getResult(i).isSuccess()) {
+                System.out.println("--> Input " + (i + 1) + " fault: " + report.getResult(i).getFault());
+            }
+        }
+        report.printSummary();
+    }
+
+    /**
+     * Runs worker process of Coordinator.
+     *
+     * @param option port:id:threads
+     */
+    private static void runWorker(String option) {
+        String[] parts = option.split(":");
+
+        try {
+            Coordinator.work(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("--> Invalid worker: " + option);
+        } catch (IllegalArgumentException e) {
+            System.out.println("--> Worker failed: " + e.getMessage());
+        } catch (IOException e) {
+            // Coordinator closed connection
+        }
+    }
+
+    /**
+     * Runs programs as pipeline with stdin as input and prints output of last stage.
+     *
+     * @param paths
+     * @param optimize
+     * @param unrollFactor
+     */
+    private static void runPipeline(String[] paths, boolean optimize, int unrollFactor) {
+        List<Program> programs = new ArrayList<>();
+
+        try {
+            for (String path : paths) {
+                programs.add(Program.load(path, optimize, unrollFactor));
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("--> " + e.getMessage());
+            return;
+        }
+
+        byte[] input;
+        try {
+            input = System.in.readAllBytes();
+        } catch (IOException e) {
+            System.out.println("--> Could not read input");
+            return;
+        }
+
+        Pipeline.Result result = new Pipeline(programs).run(input);
+        System.out.write(result.getOutput(), 0, result.getOutput().length);
+        System.out.flush();
+
+        for (int i = 0; i < result.size(); i++) {
+            ExecutionResult stage = result.getResult(i);
+
+            if (stage != null && !stage.isSuccess()) {
+                System.out.println("--> Stage " + (i + 1) + " fault: " + stage.getFault());
+            }
+        }
+        System.out.println("--> Pipeline: " + result.getOutput().length + " bytes in "
+                + result.getRuntimeNanos() / 1000000 + " ms.");
+    }
+
+    /**
+     * Runs job server till process is stopped.
+     *
+     * @param option Empty or =port.
+     */
+    private static void runServer(String option) {
+        Integer port = parsePort(option);
+
+        if (port == null) return;
+        try (JobServer server = new JobServer(port, new VmPool())) {
+            System.out.println("--> Job server listening on localhost:" + server.getPort());
+            server.await();
+        } catch (IOException e) {
+            System.out.println("--> Could not start job server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends program with stdin as input to job server and prints its output.
+     *
+     * @param option       Empty or =port.
+     * @param path
+     * @param optimize
+     * @param unrollFactor
+     */
+    private static void runClient(String option, String path, boolean optimize, int unrollFactor) {
+        Integer port = parsePort(option);
+
+        if (port == null) return;
+        try (JobClient client = new JobClient(port)) {
+            JobClient.Result result = client.run(path, System.in.readAllBytes(), optimize, unrollFactor, System.out);
+
+            if (!result.isSuccess()) System.out.println("** FAULT: " + result.getFault() + " **");
+            System.out.println("--> Process finished with exit code " + result.getExitCode());
+            System.out.println("--> Executed instructions: " + result.getExecutedInstructions());
+            System.out.println("--> Runtime: " + result.getRuntimeNanos() / 1000000 + " ms.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("--> " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("--> Job server failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses port of -server or -client.
+     *
+     * @param option Empty or =port.
+     * @return null, if port is invalid.
+     */
+    private static Integer parsePort(String option) {
+        if (option.isEmpty()) return Integer.getInteger("simplevm.server.port", JobServer.DEFAULT_PORT);
+        try {
+            if (!option.startsWith("=")) throw new NumberFormatException();
+            return Integer.parseInt(option.substring(1));
+        } catch (NumberFormatException e) {
+            System.out.println("--> Invalid port: " + option);
+            return null;
         }
     }
-}
\ No newline at end of file
+}
@@ -1,22 +1,110 @@
 package de.student.SimpleVM;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 /**
  * Memory class
  */
 public class Memory {
+    // Dwords are big endian like readDword and writeDword
+    private final static VarHandle DWORD = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    // Shared regions are attached behind space at multiples of a page
+    private final static int PAGE = 4096;
+
     private byte[] space;
 
+    /**
+     * Attached shared regions by address, replaced on change because cores of a multicore read it concurrently.
+     */
+    private volatile Mapping[] mappings = new Mapping[0];
+    // Mapping of last access outside of space
+    private Mapping last;
+
+    // Written bytes since last reset are in [dirtyStart, dirtyEnd)
+    private int dirtyStart;
+    private int dirtyEnd;
+
     public Memory(int availableSpace) {
         space = new byte[availableSpace];
+        dirtyStart = space.length;
+        dirtyEnd = 0;
     }
 
     // Helper
 
     /**
-     * Sets all bytes in space to zero.
+     * Sets all written bytes in space to zero.
      */
     public void reset() {
-        fill(0, space.length, (byte) 0);
+        // Range of a failed write may exceed space
+        int start = Math.max(dirtyStart, 0);
+        int end = Math.min(dirtyEnd, space.length);
+
+        if (start < end) Arrays.fill(space, start, end, (byte) 0);
+        dirtyStart = space.length;
+        dirtyEnd = 0;
+        this.detachAll();
+    }
+
+    /**
+     * Sets whole space to zero. Used for memory shared by several CPUs, where written ranges are not tracked reliably.
+     */
+    public void clear() {
+        Arrays.fill(space, (byte) 0);
+        dirtyStart = space.length;
+        dirtyEnd = 0;
+        this.detachAll();
+    }
+
+    /**
+     * Maps shared region behind space and all regions attached before.
+     *
+     * @param region
+     * @return Address of region, same as before if it is already attached, -1 if address space is full.
+     */
+    public synchronized int attach(SharedRegion region) {
+        long base = space.length;
+
+        for (Mapping mapping : mappings) {
+            if (mapping.region == region) return mapping.base;
+            base = Math.max(base, mapping.end);
+        }
+        base = (base + PAGE - 1) & -PAGE;
+        if (base + region.getSize() > Integer.MAX_VALUE) return -1;
+
+        Mapping[] attached = Arrays.copyOf(mappings, mappings.length + 1);
+        attached[mappings.length] = new Mapping((int) base, region);
+        mappings = attached;
+        return (int) base;
+    }
+
+    /**
+     * Removes all shared regions from address space.
+     */
+    public synchronized void detachAll() {
+        if (mappings.length > 0) mappings = new Mapping[0];
+        last = null;
+    }
+
+    /**
+     * Checks if n bytes at offset are inside of space or of one attached region.
+     *
+     * @param offset
+     * @param n
+     * @return
+     */
+    public boolean inBounds(int offset, int n) {
+        if (offset < 0 || n < 0) return false;
+        if (offset < space.length) return n <= space.length - offset;
+
+        for (Mapping mapping : mappings) {
+            if (offset >= mapping.base && offset < mapping.end) return n <= mapping.end - offset;
+        }
+        return false;
     }
 
     /**
@@ -27,9 +115,48 @@ public class Memory {
      * @param value
      */
     public void fill(int offset, int n, byte value) {
-        for (int i = offset; i < offset + n; i++) {
-            space[i] = value;
+        touch(offset, n);
+        Arrays.fill(space, offset, offset + n, value);
+    }
+
+    /**
+     * Returns size of memory.
+     *
+     * @return
+     */
+    public int getSize() {
+        return space.length;
+    }
+
+    /**
+     * Remembers written range for reset. Called before writing, so bytes of a write, which fails in the middle,
+     * are cleared as well.
+     *
+     * @param offset
+     * @param n
+     */
+    private void touch(int offset, int n) {
+        if (offset < dirtyStart) dirtyStart = offset;
+        if (offset + n > dirtyEnd) dirtyEnd = offset + n;
+    }
+
+    /**
+     * Returns attached region at offset behind space.
+     *
+     * @param offset
+     * @return
+     */
+    private Mapping map(int offset) {
+        Mapping mapping = last;
+
+        if (mapping != null && offset >= mapping.base && offset < mapping.end) return mapping;
+        for (Mapping candidate : mappings) {
+            if (offset >= candidate.base && offset < candidate.end) {
+                last = candidate;
+                return candidate;
+            }
         }
+        throw new IndexOutOfBoundsException("Invalid memory address " + PrintHelper.printHexNumber(offset));
     }
 
     // Main functions
@@ -41,7 +168,13 @@ public class Memory {
      * @param value
      */
     public void writeByte(int offset, byte value) {
+        if (offset >= space.length) {
+            Mapping mapping = this.map(offset);
+            mapping.region.writeByte(offset - mapping.base, value);
+            return;
+        }
         space[offset] = value;
+        touch(offset, 1);
     }
 
     /**
@@ -51,6 +184,12 @@ public class Memory {
      * @param value
      */
     public void writeDword(int offset, int value) {
+        if (offset >= space.length) {
+            Mapping mapping = this.map(offset);
+            mapping.region.writeDword(offset - mapping.base, value);
+            return;
+        }
+        touch(offset, 4);
         space[offset] = (byte) ((byte) (value >> 24) & 0xFF);
         space[offset + 1] = (byte) ((byte) (value >> 16) & 0xFF);
         space[offset + 2] = (byte) ((byte) (value >> 8) & 0xFF);
@@ -64,6 +203,10 @@ public class Memory {
      * @return
      */
     public char readByte(int offset) {
+        if (offset >= space.length) {
+            Mapping mapping = this.map(offset);
+            return (char) (mapping.region.readByte(offset - mapping.base) & 0xFF);
+        }
         return (char) (space[offset] & 0xFF);
     }
 
@@ -76,6 +219,11 @@ public class Memory {
     public int readDword(int offset) {
         int result;
 
+        if (offset >= space.length) {
+            Mapping mapping = this.map(offset);
+            return mapping.region.readDword(offset - mapping.base);
+        }
+
         result = readByte(offset) << 24;
         result += readByte(offset + 1) << 16;
         result += readByte(offset + 2) << 8;
@@ -84,6 +232,70 @@ public class Memory {
         return result;
     }
 
+    // Atomic functions, offset has to be aligned to 4
+
+    /**
+     * Replaces dword at offset with value, if it equals expected.
+     *
+     * @param offset
+     * @param expected
+     * @param value
+     * @return Dword before, equals expected if value was written.
+     */
+    public int compareAndExchangeDword(int offset, int expected, int value) {
+        if (offset >= space.length) {
+            Mapping mapping = this.map(offset);
+            return mapping.region.compareAndExchangeDword(offset - mapping.base, expected, value);
+        }
+        int witness = (int) DWORD.compareAndExchange(space, offset, expected, value);
+
+        touch(offset, 4);
+        return witness;
+    }
+
+    /**
+     * Adds value to dword at offset.
+     *
+     * @param offset
+     * @param value
+     * @return Dword before.
+     */
+    public int getAndAddDword(int offset, int value) {
+        if (offset >= space.length) {
+            Mapping mapping = this.map(offset);
+            return mapping.region.getAndAddDword(offset - mapping.base, value);
+        }
+        int previous = (int) DWORD.getAndAdd(space, offset, value);
+
+        touch(offset, 4);
+        return previous;
+    }
+
+    /**
+     * Replaces dword at offset with value.
+     *
+     * @param offset
+     * @param value
+     * @return Dword before.
+     */
+    public int getAndSetDword(int offset, int value) {
+        if (offset >= space.length) {
+            Mapping mapping = this.map(offset);
+            return mapping.region.getAndSetDword(offset - mapping.base, value);
+        }
+        int previous = (int) DWORD.getAndSet(space, offset, value);
+
+        touch(offset, 4);
+        return previous;
+    }
+
+    /**
+     * Orders all memory accesses before the fence before all accesses after it.
+     */
+    public void fence() {
+        VarHandle.fullFence();
+    }
+
     /**
      * Reads string till 0 at offset.
      *
@@ -94,6 +306,15 @@ public class Memory {
         StringBuilder result = new StringBuilder();
         int i = offset;
 
+        if (offset < 0) return "";
+        if (offset >= space.length) {
+            // String in shared region
+            while (this.inBounds(i, 1) && this.readByte(i) != 0) {
+                result.append(this.readByte(i));
+                i++;
+            }
+            return result.toString();
+        }
         while (i < space.length && this.space[i] != 0) {
             result.append((char) this.space[i]);
             i++;
@@ -110,11 +331,59 @@ public class Memory {
     public void writeString(int offset, String string) {
         byte[] bytes = string.getBytes();
 
+        touch(offset, bytes.length);
         for (int i = 0; i < bytes.length; i++) {
             this.space[offset + i] = bytes[i];
         }
     }
 
+    /**
+     * Copies bytes to memory position.
+     *
+     * @param offset
+     * @param bytes
+     */
+    public void writeBytes(int offset, byte[] bytes) {
+        touch(offset, bytes.length);
+        System.arraycopy(bytes, 0, space, offset, bytes.length);
+    }
+
+    /**
+     * Copies n bytes from memory position to array.
+     *
+     * @param offset
+     * @param target
+     * @param targetOffset
+     * @param n
+     */
+    public void copyTo(int offset, byte[] target, int targetOffset, int n) {
+        System.arraycopy(space, offset, target, targetOffset, n);
+    }
+
+    /**
+     * Copies n bytes from array to memory position.
+     *
+     * @param offset
+     * @param source
+     * @param sourceOffset
+     * @param n
+     */
+    public void copyFrom(int offset, byte[] source, int sourceOffset, int n) {
+        touch(offset, n);
+        System.arraycopy(source, sourceOffset, space, offset, n);
+    }
+
+    /**
+     * Copies n bytes from memory position.
+     *
+     * @param offset
+     * @param n
+     * @return
+     */
+    public byte[] readBytes(int offset, int n) {
+        return Arrays.copyOfRange(space, offset, offset + n);
+    }
+
     /**
      * Prints mmeory with given size.
      *
@@ -138,4 +407,19 @@ public class Memory {
         }
         System.out.println();
     }
+
+    /**
+     * Shared region at its address.
+     */
+    private static final class Mapping {
+        final int base;
+        final int end;
+        final SharedRegion region;
+
+        Mapping(int base, SharedRegion region) {
+            this.base = base;
+            this.end = base + region.getSize();
+            this.region = region;
+        }
+    }
 }
@@ -0,0 +1,231 @@
+package de.student.SimpleVM;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a program on several cores, which share one memory. Every core is a CPU with own registers, flags and
+ * stacks on its own thread. Cores read their id with sys function 6 and their count with sys function 7.
+ * <p>
+ * Plain memory accesses of different cores are not ordered. Cores synchronize with the atomic instructions
+ * casr, xaddr and xchgr, which need addresses aligned to 4, and order plain accesses with fence.
+ * If a core faults, the other cores are stopped after their current slice.
+ * <p>
+ * Variables are initialized once: core 0 runs the initializers in front of the code, then all cores start behind
+ * them. So a late core does not overwrite values, which other cores already changed.
+ */
+public class Multicore {
+    // Longest wait of a blocked core, till it checks for faults of other cores
+    private final static long STOP_CHECK = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private Memory memory;
+    private CPU[] cores;
+    private boolean dirty;
+
+    /**
+     * Reason to stop all cores or null.
+     */
+    private volatile String stop;
+
+    /**
+     * Configured by system properties like CPU.
+     *
+     * @param cores
+     */
+    public Multicore(int cores) {
+        this(cores, Integer.getInteger("simplevm.callstack.depth", CPU.RETURN_STACK), Integer.getInteger("simplevm.stack.memory", 0),
+                Integer.getInteger("simplevm.registers", Register.MAX_GENERAL_PURPOSE));
+    }
+
+    /**
+     * @param cores           Count of cores.
+     * @param returnStackSize Maximal count of nested calls per core.
+     * @param memoryStackSize Bytes used as stack per core, 0 keeps separate stacks.
+     * @param generalPurpose  Count of general purpose registers, 6 to 32.
+     */
+    public Multicore(int cores, int returnStackSize, int memoryStackSize, int generalPurpose) {
+        if (cores < 1) throw new IllegalArgumentException("Invalid count of cores " + cores);
+
+        this.memory = new Memory(CPU.MEMORY);
+        this.cores = new CPU[cores];
+        for (int i = 0; i < cores; i++) {
+            this.cores[i] = new CPU(returnStackSize, memoryStackSize, generalPurpose, memory, i, cores);
+            // Faults are returned in ExecutionResult
+            this.cores[i].setVerbose(false);
+        }
+        this.reset();
+    }
+
+    public int getCoreCount() {
+        return cores.length;
+    }
+
+    /**
+     * Clears registers, flags and stacks of all cores and the whole memory.
+     *
+     * @return
+     */
+    public Multicore reset() {
+        memory.clear();
+        for (CPU core : cores) {
+            core.resetCPU();
+        }
+        dirty = false;
+        return this;
+    }
+
+    /**
+     * Copies input bytes to memory.
+     *
+     * @param offset
+     * @param bytes
+     * @return
+     */
+    public Multicore writeMemory(int offset, byte[] bytes) {
+        this.checkMemory(offset, bytes.length);
+        this.prepare();
+        memory.writeBytes(offset, bytes);
+        return this;
+    }
+
+    /**
+     * Writes input dword to memory.
+     *
+     * @param offset
+     * @param value
+     * @return
+     */
+    public Multicore writeDword(int offset, int value) {
+        this.checkMemory(offset, Integer.BYTES);
+        this.prepare();
+        memory.writeDword(offset, value);
+        return this;
+    }
+
+    /**
+     * Copies bytes from memory, for example results of last program.
+     *
+     * @param offset
+     * @param n
+     * @return
+     */
+    public byte[] readMemory(int offset, int n) {
+        this.checkMemory(offset, n);
+        return memory.readBytes(offset, n);
+    }
+
+    /**
+     * Reads dword from memory.
+     *
+     * @param offset
+     * @return
+     */
+    public int readDword(int offset) {
+        this.checkMemory(offset, Integer.BYTES);
+        return memory.readDword(offset);
+    }
+
+    /**
+     * Executes program on all cores and waits till every core is finished.
+     *
+     * @param program
+     * @return Results by core id.
+     */
+    public ExecutionResult[] run(Program program) {
+        Thread[] threads = new Thread[cores.length];
+        ExecutionResult[] results = new ExecutionResult[cores.length];
+
+        this.prepare();
+        dirty = true;
+        stop = null;
+
+        for (int i = 0; i < cores.length; i++) {
+            int id = i;
+            cores[i].start(program.getCode(), (i == 0) ? 0 : program.getPrologueEnd());
+            threads[i] = new Thread(() -> results[id] = this.runCore(id), "simplevm-core-" + i);
+        }
+        // Initialize variables before any core can change them
+        cores[0].resume(program.getPrologueSize());
+        if (cores[0].getFault() != null) stop = "Stopped by fault of core 0";
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    // Cores stop at their next slice
+                    stop = "Interrupted";
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        return results;
+    }
+
+    /**
+     * Prints registers and stack of every core and the shared memory.
+     */
+    public void dump() {
+        for (int i = 0; i < cores.length; i++) {
+            System.out.println("** Core " + i + " **");
+            cores[i].dumpRegisters();
+            cores[i].dumpStack();
+        }
+        cores[0].dumpMemory();
+    }
+
+    // Helper
+
+    /**
+     * Runs core in slices till program is finished or another core faulted.
+     *
+     * @param id
+     * @return
+     */
+    private ExecutionResult runCore(int id) {
+        CPU core = cores[id];
+        long startTime = System.nanoTime();
+
+        try {
+            // Core 0 may already have faulted in the initializers
+            if (stop != null && !core.isFinished()) core.abort(stop);
+            while (!core.resume(Scheduler.DEFAULT_SLICE)) {
+                if (stop != null) {
+                    core.abort(stop);
+                } else {
+                    core.await(STOP_CHECK);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Errors, which are not faults of the program, stop the core as well
+            core.abort("Internal error: " + e);
+        }
+        if (core.getFault() != null && stop == null) stop = "Stopped by fault of core " + id;
+
+        return new ExecutionResult(core, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Resets machine, if it holds results of the last program.
+     */
+    private void prepare() {
+        if (dirty) this.reset();
+    }
+
+    /**
+     * Checks if range is inside of memory.
+     *
+     * @param offset
+     * @param n
+     */
+    private void checkMemory(int offset, int n) {
+        if (offset < 0 || n < 0 || offset + n > memory.getSize()) {
+            throw new IllegalArgumentException("Invalid memory range " + offset + " + " + n);
+        }
+    }
+}
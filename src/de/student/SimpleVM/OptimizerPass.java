@@ -0,0 +1,21 @@
+package de.student.SimpleVM;
+
+import java.util.List;
+
+/**
+ * Optimization stage, which works on assembled code before labels are resolved.
+ */
+public interface OptimizerPass {
+    /**
+     * Optimizes assembly.
+     *
+     * @param assembly Byte code with unresolved labels.
+     * @return Optimized byte code.
+     */
+    List<Integer> optimize(List<Integer> assembly);
+
+    /**
+     * Prints what was changed.
+     */
+    void printStatistics();
+}
@@ -0,0 +1,160 @@
+package de.student.SimpleVM;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static de.student.SimpleVM.Instruction.*;
+
+/**
+ * Rewrites short instruction sequences into cheaper ones.
+ * Works on assembled code before labels are resolved. Every rewrite keeps registers and read flags exact.
+ */
+public class PeepholeOptimizer implements OptimizerPass {
+    // Rules
+    final static String MOVE_TO_SELF = "movr r r removed";
+    final static String FOLD_ADD = "addd/subd folded";
+    final static String MULTIPLY_TO_SHIFT = "muld r 2^k -> shld r k";
+    final static String MOVE_ZERO = "movd r 0 -> xorr r r";
+    final static String JUMP_TO_NEXT = "jump to next instruction removed";
+
+    /**
+     * Flags, which arithmetic clears but shifts keep.
+     */
+    final static int ARITHMETIC_FLAGS = (1 << Flag.OVERFLOW) | (1 << Flag.UNDERFLOW) | (1 << Flag.CARRY);
+
+    private Instruction ins;
+    private Map<String, Integer> statistics;
+
+    public PeepholeOptimizer() {
+        ins = new Instruction();
+        statistics = new LinkedHashMap<>();
+
+        statistics.put(MOVE_TO_SELF, 0);
+        statistics.put(FOLD_ADD, 0);
+        statistics.put(MULTIPLY_TO_SHIFT, 0);
+        statistics.put(MOVE_ZERO, 0);
+        statistics.put(JUMP_TO_NEXT, 0);
+    }
+
+    /**
+     * Optimizes assembly till no rule matches anymore.
+     *
+     * @param assembly Byte code with unresolved labels.
+     * @return Optimized byte code.
+     */
+    @Override
+    public List<Integer> optimize(List<Integer> assembly) {
+        List<int[]> instructions = ins.decode(assembly);
+        int flagsRead = 0;
+        boolean changed;
+
+        for (int[] instruction : instructions) {
+            flagsRead |= ins.getFlagsRead(instruction[0]);
+        }
+        // Rewrites which change overflow/underflow are only exact, if no instruction reads them
+        boolean arithmeticFlagsUnused = (flagsRead & ARITHMETIC_FLAGS) == 0;
+
+        do {
+            changed = false;
+
+            for (int i = 0; i < instructions.size(); i++) {
+                int[] current = instructions.get(i);
+                int[] next = (i + 1 < instructions.size()) ? instructions.get(i + 1) : null;
+
+                if (current[0] == MOV_REG && current[1] == current[2]) {
+                    instructions.remove(i--);
+                    changed = count(MOVE_TO_SELF);
+                } else if (arithmeticFlagsUnused && isAddImmediate(current) && next != null && isAddImmediate(next) && current[1] == next[1]) {
+                    current[0] = ADD_DWORD;
+                    current[2] = getAddend(current) + getAddend(next);
+                    instructions.remove(i + 1);
+                    i--;
+                    changed = count(FOLD_ADD);
+                } else if (arithmeticFlagsUnused && current[0] == MUL_DWORD && current[2] > 0 && Integer.bitCount(current[2]) == 1) {
+                    current[0] = SHL_DWORD;
+                    current[2] = Integer.numberOfTrailingZeros(current[2]);
+                    changed = count(MULTIPLY_TO_SHIFT);
+                } else if (current[0] == MOV_DWORD && current[2] == 0) {
+                    current[0] = XOR_REG;
+                    current[2] = current[1];
+                    changed = count(MOVE_ZERO);
+                } else if (ins.isJump(current[0]) && isFollowedByLabel(instructions, i, current[1])) {
+                    instructions.remove(i--);
+                    changed = count(JUMP_TO_NEXT);
+                }
+            }
+        } while (changed);
+
+        return ins.encode(instructions);
+    }
+
+    /**
+     * Prints count of applied rewrites per rule.
+     */
+    @Override
+    public void printStatistics() {
+        System.out.println("--> Peephole optimizer:");
+        for (Map.Entry<String, Integer> entry : statistics.entrySet()) {
+            System.out.println("    " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    /**
+     * Returns count of applied rewrites for rule.
+     *
+     * @param rule
+     * @return
+     */
+    public int getStatistic(String rule) {
+        return statistics.getOrDefault(rule, 0);
+    }
+
+    // Helper
+
+    /**
+     * Counts applied rule.
+     *
+     * @param rule
+     * @return Always true.
+     */
+    private boolean count(String rule) {
+        statistics.put(rule, statistics.get(rule) + 1);
+        return true;
+    }
+
+    /**
+     * Checks for ADDD or SUBD.
+     *
+     * @param instruction
+     * @return
+     */
+    private boolean isAddImmediate(int[] instruction) {
+        return (instruction[0] == ADD_DWORD || instruction[0] == SUB_DWORD);
+    }
+
+    /**
+     * Returns signed value, which is added by ADDD or SUBD.
+     *
+     * @param instruction
+     * @return
+     */
+    private int getAddend(int[] instruction) {
+        return (instruction[0] == ADD_DWORD) ? instruction[2] : -instruction[2];
+    }
+
+    /**
+     * Checks if label follows instruction, only other labels may be in between.
+     *
+     * @param instructions
+     * @param index
+     * @param label
+     * @return
+     */
+    private boolean isFollowedByLabel(List<int[]> instructions, int index, int label) {
+        for (int i = index + 1; i < instructions.size() && instructions.get(i)[0] == LABEL; i++) {
+            if (instructions.get(i)[1] == label) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,190 @@
+package de.student.SimpleVM;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/**
+ * Chains programs by channels. Every stage runs on its own thread and its own VM instance. A stage receives from
+ * channel 0 and sends to channel 1 with sys functions 8 to 12. Channel 0 of the first stage is fed with the
+ * input, channel 1 of the last stage is collected as output.
+ * <p>
+ * When a stage is finished, both of its channels are closed. The next stage receives the remaining bytes and
+ * then -1, the previous stage gets -1 on its next send.
+ */
+public class Pipeline {
+    // Channels of a stage
+    final static int INPUT = 0;
+    final static int OUTPUT = 1;
+
+    private Program[] programs;
+    private VmInstance[] stages;
+    private int capacity;
+
+    /**
+     * @param programs Stages in order.
+     */
+    public Pipeline(List<Program> programs) {
+        this(programs, Integer.getInteger("simplevm.channel.capacity", Channel.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * @param programs Stages in order.
+     * @param capacity Bytes buffered between two stages.
+     */
+    public Pipeline(List<Program> programs, int capacity) {
+        if (programs.isEmpty()) throw new IllegalArgumentException("Pipeline needs a stage");
+
+        this.programs = programs.toArray(new Program[0]);
+        this.stages = new VmInstance[this.programs.length];
+        this.capacity = capacity;
+        for (int i = 0; i < stages.length; i++) {
+            // Faults are returned in Result
+            stages[i] = new VmInstance().setVerbose(false);
+        }
+    }
+
+    public int size() {
+        return stages.length;
+    }
+
+    /**
+     * Runs all stages with input and waits till every stage is finished.
+     *
+     * @param input
+     * @return
+     */
+    public Result run(byte[] input) {
+        Channel[] channels = new Channel[stages.length + 1];
+        Thread[] threads = new Thread[stages.length];
+        ExecutionResult[] results = new ExecutionResult[stages.length];
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new Channel(capacity);
+        }
+        for (int i = 0; i < stages.length; i++) {
+            int id = i;
+
+            stages[i].reset().clearChannels().setChannel(INPUT, channels[i]).setChannel(OUTPUT, channels[i + 1]);
+            threads[i] = new Thread(() -> {
+                try {
+                    results[id] = stages[id].run(programs[id]);
+                } finally {
+                    channels[id].close();
+                    channels[id + 1].close();
+                }
+            }, "simplevm-stage-" + i);
+            threads[i].start();
+        }
+
+        Thread feeder = new Thread(() -> feed(channels[0], input), "simplevm-feeder");
+        feeder.start();
+        boolean interrupted = !collect(channels[stages.length], output);
+
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    // Stages stop at their next send or receive
+                    for (Channel channel : channels) {
+                        channel.close();
+                    }
+                    interrupted = true;
+                }
+            }
+        }
+        channels[0].close();
+        try {
+            feeder.join();
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        return new Result(results, output.toByteArray(), System.nanoTime() - startTime);
+    }
+
+    // Helper
+
+    /**
+     * Sends input to first stage and closes channel afterwards.
+     *
+     * @param channel
+     * @param input
+     */
+    private static void feed(Channel channel, byte[] input) {
+        int offset = 0;
+
+        while (offset < input.length && channel.awaitWritable()) {
+            int n = channel.offer(input, offset, input.length - offset);
+
+            if (n < 0) break;
+            offset += n;
+        }
+        channel.close();
+    }
+
+    /**
+     * Receives output of last stage till it is closed.
+     *
+     * @param channel
+     * @param output
+     * @return False, if waiting thread was interrupted.
+     */
+    private static boolean collect(Channel channel, ByteArrayOutputStream output) {
+        byte[] buffer = new byte[channel.getCapacity()];
+
+        while (channel.awaitReadable()) {
+            int n = channel.poll(buffer, 0, buffer.length);
+
+            if (n < 0) return true;
+            output.write(buffer, 0, n);
+        }
+        return false;
+    }
+
+    /**
+     * Results of all stages and output of last stage.
+     */
+    public static final class Result {
+        private ExecutionResult[] results;
+        private byte[] output;
+        private long runtimeNanos;
+
+        Result(ExecutionResult[] results, byte[] output, long runtimeNanos) {
+            this.results = results;
+            this.output = output;
+            this.runtimeNanos = runtimeNanos;
+        }
+
+        public int size() {
+            return results.length;
+        }
+
+        public ExecutionResult getResult(int stage) {
+            return results[stage];
+        }
+
+        public byte[] getOutput() {
+            return output;
+        }
+
+        public long getRuntimeNanos() {
+            return runtimeNanos;
+        }
+
+        /**
+         * Checks if all stages finished without fault.
+         *
+         * @return
+         */
+        public boolean isSuccess() {
+            for (ExecutionResult result : results) {
+                if (result == null || !result.isSuccess()) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package de.student.SimpleVM;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.student.SimpleVM.Instruction.WRITE_MEM_BYTE_DWORD;
+import static de.student.SimpleVM.Instruction.WRITE_MEM_INT_DWORD;
+
+/**
+ * Decoded byte code, which is loaded once and executed by many VmInstances.
+ * Programs are immutable and can be shared between threads.
+ */
+public final class Program {
+    // Constants
+    final static String ASSEMBLY_FILE_ENDING = ".vasm";
+
+    // Words of a constant memory write: opcode, offset, value
+    final static int PROLOGUE_WRITE_SIZE = 3;
+
+    private final int[] code;
+    private final int prologueEnd;
+
+    private Program(int[] code) {
+        this.code = code;
+
+        // Assembler places initializers of variables in front of the code
+        int end = 0;
+        while (end + PROLOGUE_WRITE_SIZE <= code.length
+                && (code[end] == WRITE_MEM_BYTE_DWORD || code[end] == WRITE_MEM_INT_DWORD)) {
+            end += PROLOGUE_WRITE_SIZE;
+        }
+        this.prologueEnd = end;
+    }
+
+    /**
+     * Creates program from byte code.
+     *
+     * @param byteCode
+     * @return
+     */
+    public static Program of(List<Integer> byteCode) {
+        int[] code = new int[byteCode.size()];
+
+        for (int i = 0; i < code.length; i++) {
+            code[i] = byteCode.get(i);
+        }
+        return new Program(code);
+    }
+
+    /**
+     * Loads assembler file or executable without optimization.
+     *
+     * @param path
+     * @return
+     */
+    public static Program load(String path) {
+        return load(path, false, LoopOptimizer.DEFAULT_UNROLL_FACTOR);
+    }
+
+    /**
+     * Loads assembler file or executable. Assembler files are assembled and optionally optimized.
+     *
+     * @param path
+     * @param optimize
+     * @param unrollFactor
+     * @return
+     */
+    public static Program load(String path, boolean optimize, int unrollFactor) {
+        if (!path.endsWith(ASSEMBLY_FILE_ENDING)) return of(readExecutable(path));
+
+        Assembler asm = new Assembler(path);
+        asm.setUnrollFactor(unrollFactor);
+        if (!asm.assemble()) {
+            throw new IllegalArgumentException("Assembler file contains errors.");
+        }
+        if (optimize) asm.optimize();
+
+        return of(asm.getByteCode());
+    }
+
+    /**
+     * Loads content of assembler file or executable, for example received from another process.
+     *
+     * @param name         File name, its ending decides between assembler file and executable.
+     * @param file
+     * @param optimize
+     * @param unrollFactor
+     * @return
+     */
+    public static Program decode(String name, byte[] file, boolean optimize, int unrollFactor) {
+        boolean assembly = name.endsWith(ASSEMBLY_FILE_ENDING);
+        Program program;
+
+        // Assembler and reader work on files
+        File temp = null;
+        try {
+            temp = File.createTempFile("simplevm", assembly ? ASSEMBLY_FILE_ENDING : ".vexe");
+            Files.write(temp.toPath(), file);
+            program = load(temp.getPath(), optimize, unrollFactor);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not decode program: " + e.getMessage());
+        } finally {
+            if (temp != null) temp.delete();
+        }
+        if (program.size() == 0) throw new IllegalArgumentException("Nothing to do.");
+
+        return program;
+    }
+
+    /**
+     * Splits executable to byte code.
+     *
+     * @param path
+     * @return
+     */
+    static List<Integer> readExecutable(String path) {
+        List<Integer> byteCode = new ArrayList<>();
+
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String line = br.readLine();
+
+            if (line != null) {
+                for (String code : line.split(";")) {
+                    byteCode.add(Integer.parseInt(code, 16));
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read executable.");
+        }
+        return byteCode;
+    }
+
+    /**
+     * Returns count of words.
+     *
+     * @return
+     */
+    public int size() {
+        return code.length;
+    }
+
+    /**
+     * Returns position of the first instruction after the constant memory writes, which initialize variables.
+     *
+     * @return 0, if program has no variables.
+     */
+    int getPrologueEnd() {
+        return prologueEnd;
+    }
+
+    /**
+     * Returns count of constant memory writes, which initialize variables.
+     *
+     * @return
+     */
+    int getPrologueSize() {
+        return prologueEnd / PROLOGUE_WRITE_SIZE;
+    }
+
+    /**
+     * Returns decoded byte code. Must not be changed.
+     *
+     * @return
+     */
+    int[] getCode() {
+        return code;
+    }
+}
@@ -7,8 +7,11 @@ import java.util.Map;
  * Class for array index of defined registers.
  */
 public class Register {
-    // Count
-    final static int COUNT = 9;
+    // Count of all addressable registers
+    final static int COUNT = 35;
+    // Count of classic register file R1-R6, RBP, RSP, RIP
+    final static int BASE_COUNT = 9;
+
     // General purpose
     final static int R1 = 0;
     final static int R2 = 1;
@@ -18,14 +21,24 @@ public class Register {
     final static int R6 = 5;
 
     // Specialized registers
-    final static int RBP = 6; // reserved
-    final static int RSP = 7; // reserved
+    final static int RBP = 6; // Frame pointer in memory stack mode
+    final static int RSP = 7; // Stack pointer in memory stack mode
 
     /**
      * Instruction Pointer
      */
     final static int RIP = 8;
 
+    // Extended general purpose registers R7 to R32 follow RIP, so classic byte code keeps its register numbers
+    final static int R7 = 9;
+    final static int R32 = 34;
+
+    /**
+     * General purpose registers of the classic register file.
+     */
+    final static int BASE_GENERAL_PURPOSE = 6;
+    final static int MAX_GENERAL_PURPOSE = 32;
+
     // Class
     private Map<String, Integer> registerMnemonics; // 1 to 1 for Mnemonic -> Bytecode
 
@@ -38,6 +51,9 @@ public class Register {
         registerMnemonics.put("r4", R4);
         registerMnemonics.put("r5", R5);
         registerMnemonics.put("r6", R6);
+        for (int i = 7; i <= MAX_GENERAL_PURPOSE; i++) {
+            registerMnemonics.put("r" + i, R7 + i - 7);
+        }
 
         // Specialized registers
         registerMnemonics.put("rbp", RBP);
@@ -56,4 +72,16 @@ public class Register {
 
         return bytecode;
     }
+
+    /**
+     * Returns register holding the high word of a 64 bit register pair. R6 is followed by R7.
+     *
+     * @param register Low word.
+     * @return -1, if register does not start a pair.
+     */
+    public static int getHighRegister(int register) {
+        if (register == R6) return R7;
+        if ((register >= R1 && register < R6) || (register >= R7 && register < R32)) return register + 1;
+        return -1;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package de.student.SimpleVM;
+
+/**
+ * Stack of return addresses. Separated from the data stack, so push and pop can not corrupt it.
+ */
+public class ReturnStack {
+    private int[] addresses;
+    private int depth;
+
+    public ReturnStack(int size) {
+        addresses = new int[size];
+        depth = 0;
+    }
+
+    /**
+     * Push return address. Check isFull() before.
+     *
+     * @param address
+     */
+    public void push(int address) {
+        addresses[depth++] = address;
+    }
+
+    /**
+     * Pop return address. Check isEmpty() before.
+     *
+     * @return
+     */
+    public int pop() {
+        return addresses[--depth];
+    }
+
+    /**
+     * Is stack empty?
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return (depth == 0);
+    }
+
+    /**
+     * Is stack full?
+     *
+     * @return
+     */
+    public boolean isFull() {
+        return (depth == addresses.length);
+    }
+
+    /**
+     * Maximal count of active calls.
+     *
+     * @return
+     */
+    public int getSize() {
+        return addresses.length;
+    }
+
+    /**
+     * Count of active calls.
+     *
+     * @return
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Removes all return addresses.
+     */
+    public void reset() {
+        depth = 0;
+    }
+
+    /**
+     * Prints return addresses, latest first.
+     */
+    public void print() {
+        for (int i = 0; i < depth; i++) {
+            System.out.println(PrintHelper.printHexNumber(i) + ": " + PrintHelper.printHexNumber(addresses[depth - 1 - i]));
+        }
+    }
+}
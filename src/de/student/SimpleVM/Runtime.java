@@ -1,8 +1,5 @@
 package de.student.SimpleVM;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,13 +9,46 @@ import java.util.List;
 public class Runtime {
     private String filePath;
     private List<Integer> assembly;
+    private boolean optimize;
+    private int unrollFactor;
+    private int cores;
 
     // Constants
-    final String assemblyFileEnding = ".vasm";
+    final String assemblyFileEnding = Program.ASSEMBLY_FILE_ENDING;
 
     public Runtime(String path) {
         this.filePath = path;
         assembly = new ArrayList<>();
+        optimize = false;
+        unrollFactor = LoopOptimizer.DEFAULT_UNROLL_FACTOR;
+        cores = 1;
+    }
+
+    /**
+     * Enables optimizer for live assembly.
+     *
+     * @param optimize
+     */
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    /**
+     * Sets maximal copies of loop bodies for optimizer.
+     *
+     * @param unrollFactor
+     */
+    public void setUnrollFactor(int unrollFactor) {
+        this.unrollFactor = unrollFactor;
+    }
+
+    /**
+     * Sets count of cores, which run the program on shared memory.
+     *
+     * @param cores
+     */
+    public void setCores(int cores) {
+        this.cores = cores;
     }
 
     /**
@@ -31,19 +61,35 @@ public class Runtime {
         boolean noErrors = true;
 
         if (this.filePath.endsWith(this.assemblyFileEnding)) {
-            System.out.println("--> Starting live assembly!");
+            AssemblyCache cache = new AssemblyCache();
+            String key = cache.isEnabled() ? cache.getKey(this.filePath, this.optimize ? "O;unroll=" + this.unrollFactor : "") : null;
+            List<Integer> cached = (key != null) ? cache.load(key) : null;
+
+            if (cached != null) {
+                System.out.println("--> Using cached assembly!");
+                assembly = cached;
+            } else {
+                System.out.println("--> Starting live assembly!");
 
-            Assembler asm = new Assembler(this.filePath);
-            noErrors = asm.assemble();
-            if (noErrors) assembly = asm.getByteCode();
+                Assembler asm = new Assembler(this.filePath);
+                asm.setUnrollFactor(this.unrollFactor);
+                noErrors = asm.assemble();
+                if (noErrors) {
+                    if (this.optimize) asm.optimize();
+                    assembly = asm.getByteCode();
+                    if (key != null) cache.store(key, assembly);
+                }
+            }
         } else {
-            executableToAssembly();
+            assembly = Program.readExecutable(this.filePath);
         }
 
         if (!noErrors) {
             System.out.println("--> Assembler file contains errors.");
         } else if (assembly.isEmpty()) {
             System.out.println("--> Nothing to do.");
+        } else if (this.cores > 1) {
+            this.runMulticore();
         } else {
             System.out.println("************************************Program*************************************");
             startTime = System.currentTimeMillis();
@@ -56,23 +102,35 @@ public class Runtime {
             vCPU.dumpMemory();
 
             System.out.println("--> Process finished with exit code " + vCPU.getRegister(Register.R1));
+            System.out.println("--> Executed instructions: " + vCPU.getExecutedInstructions());
             System.out.println("--> Runtime: " + estimatedTime + " ms.");
         }
     }
 
     /**
-     * Splits executable to byteCode
+     * Executes assembly on all cores.
      */
-    private void executableToAssembly() {
-        try (BufferedReader br = new BufferedReader(new FileReader(this.filePath))) {
-            String line = br.readLine();
-            String[] byteCode = line.split(";");
+    private void runMulticore() {
+        Multicore machine = new Multicore(this.cores);
+        ExecutionResult[] results;
+        long executedInstructions = 0;
+        long startTime;
+        long estimatedTime;
 
-            for (String code : byteCode) {
-                assembly.add(Integer.parseInt(code, 16));
-            }
-        } catch (IOException e) {
-            System.out.println("Could not read executable.");
+        System.out.println("************************************Program*************************************");
+        startTime = System.currentTimeMillis();
+        results = machine.run(Program.of(this.assembly));
+        estimatedTime = System.currentTimeMillis() - startTime;
+        System.out.println("********************************************************************************");
+
+        machine.dump();
+
+        for (int i = 0; i < results.length; i++) {
+            System.out.println("--> Core " + i + " finished with exit code " + results[i].getExitCode()
+                    + (results[i].isSuccess() ? "" : " (" + results[i].getFault() + ")"));
+            executedInstructions += results[i].getExecutedInstructions();
         }
+        System.out.println("--> Executed instructions: " + executedInstructions);
+        System.out.println("--> Runtime: " + estimatedTime + " ms.");
     }
 }
@@ -0,0 +1,203 @@
+package de.student.SimpleVM;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time-slices many programs across a fixed pool of worker threads. A task runs for a slice of instructions or
+ * till it yields, then it is queued behind all other ready tasks and later resumed where it stopped.
+ * Deadlines are checked between slices, so a runaway program costs at most one slice after its deadline.
+ * A blocked task, whose green threads sleep or wait, is queued again like a task, which yielded.
+ */
+public class Scheduler implements AutoCloseable {
+    /**
+     * Default count of instructions per slice. Can be changed with property simplevm.slice.
+     */
+    final static long DEFAULT_SLICE = 10000;
+
+    // Longest wait of a worker for a blocked task, while no other task is ready
+    private final static long BLOCKED_WAIT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Faults
+    final static String DEADLINE_EXCEEDED = "Deadline exceeded";
+    final static String CANCELLED = "Cancelled";
+
+    private LinkedBlockingQueue<Task> ready;
+    private Thread[] workers;
+    private long slice;
+    private volatile boolean closed;
+
+    public Scheduler() {
+        this(java.lang.Runtime.getRuntime().availableProcessors(), Long.getLong("simplevm.slice", DEFAULT_SLICE));
+    }
+
+    /**
+     * @param workers Count of worker threads.
+     * @param slice   Instructions per slice.
+     */
+    public Scheduler(int workers, long slice) {
+        this.ready = new LinkedBlockingQueue<>();
+        this.workers = new Thread[Math.max(1, workers)];
+        this.slice = Math.max(1, slice);
+
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Thread(this::work, "simplevm-scheduler-" + i);
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Starts program on instance without deadline.
+     *
+     * @param vm
+     * @param program
+     * @return
+     */
+    public CompletableFuture<ExecutionResult> submit(VmInstance vm, Program program) {
+        return this.submit(vm, program, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Starts program on instance with current registers and memory as input. The instance must not be used,
+     * till the future is done. When the deadline is exceeded, the result has a fault. Cancelling the future
+     * stops the program at the end of its current slice.
+     *
+     * @param vm
+     * @param program
+     * @param timeout 0 for no deadline.
+     * @param unit
+     * @return
+     */
+    public CompletableFuture<ExecutionResult> submit(VmInstance vm, Program program, long timeout, TimeUnit unit) {
+        if (closed) throw new IllegalStateException("Scheduler is closed");
+
+        Task task = new Task(vm.start(program), timeout > 0 ? System.nanoTime() + unit.toNanos(timeout) : 0, timeout > 0);
+        ready.add(task);
+        return task.future;
+    }
+
+    /**
+     * Returns count of queued tasks, which are not running.
+     *
+     * @return
+     */
+    public int getPending() {
+        return ready.size();
+    }
+
+    /**
+     * Stops worker threads after their current slice and cancels all unfinished tasks.
+     */
+    @Override
+    public void close() {
+        List<Task> remaining = new ArrayList<>();
+
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        ready.drainTo(remaining);
+        for (Task task : remaining) {
+            task.cancel();
+        }
+    }
+
+    // Helper
+
+    /**
+     * Runs slices of ready tasks till scheduler is closed.
+     */
+    private void work() {
+        while (!closed) {
+            Task task;
+
+            try {
+                task = ready.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (!closed) task.step(slice);
+            if (task.future.isDone()) continue;
+            // Nothing else to do, wait a little for the blocked task instead of spinning
+            if (ready.isEmpty()) task.await();
+            if (closed) {
+                task.cancel();
+            } else {
+                ready.add(task);
+            }
+        }
+    }
+
+    /**
+     * Started program with its deadline.
+     */
+    private static class Task {
+        private VmInstance vm;
+        private long deadline;
+        private boolean hasDeadline;
+        private CompletableFuture<ExecutionResult> future;
+
+        Task(VmInstance vm, long deadline, boolean hasDeadline) {
+            this.vm = vm;
+            this.deadline = deadline;
+            this.hasDeadline = hasDeadline;
+            this.future = new CompletableFuture<>();
+        }
+
+        /**
+         * Runs a single slice and completes future, if program is finished or deadline is exceeded.
+         *
+         * @param slice
+         */
+        void step(long slice) {
+            if (future.isDone()) {
+                // Cancelled by caller
+                vm.cancel(CANCELLED);
+                return;
+            }
+            if (hasDeadline && System.nanoTime() - deadline >= 0) {
+                vm.cancel(DEADLINE_EXCEEDED);
+                future.complete(vm.getResult());
+                return;
+            }
+
+            try {
+                if (vm.resume(slice)) future.complete(vm.getResult());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Waits for blocked program, at most till its deadline.
+         */
+        void await() {
+            long timeout = BLOCKED_WAIT;
+
+            if (hasDeadline) timeout = Math.min(timeout, Math.max(0, deadline - System.nanoTime()));
+            vm.await(timeout);
+        }
+
+        /**
+         * Stops program and cancels future.
+         */
+        void cancel() {
+            vm.cancel(CANCELLED);
+            future.cancel(false);
+        }
+    }
+}
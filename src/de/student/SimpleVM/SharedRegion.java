@@ -0,0 +1,148 @@
+package de.student.SimpleVM;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Named block of memory outside of the heap, which is shared by all VMs of a host. A program maps a region into
+ * its address space with sys function 13, so large read-mostly data like lookup tables is loaded only once.
+ * <p>
+ * Like memory of several cores, plain accesses of different VMs are not ordered. VMs synchronize with the atomic
+ * instructions casr, xaddr and xchgr, which need addresses aligned to 4, and order plain accesses with fence.
+ */
+public final class SharedRegion {
+    // Dwords are big endian like Memory
+    private final static VarHandle DWORD = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final static Map<String, SharedRegion> regions = new HashMap<>();
+
+    private final String name;
+    private final ByteBuffer buffer;
+
+    private SharedRegion(String name, int size) {
+        this.name = name;
+        // Atomic accesses need the absolute address to be aligned
+        this.buffer = ByteBuffer.allocateDirect(size + Long.BYTES).alignedSlice(Long.BYTES).limit(size).slice();
+    }
+
+    /**
+     * Creates region filled with zeros.
+     *
+     * @param name
+     * @param size Rounded up to a multiple of 4.
+     * @return
+     */
+    public static synchronized SharedRegion create(String name, int size) {
+        if (name == null || name.isEmpty()) throw new IllegalArgumentException("Invalid shared region name");
+        if (size <= 0 || size > Integer.MAX_VALUE - Long.BYTES) {
+            throw new IllegalArgumentException("Invalid shared region size " + size);
+        }
+        if (regions.containsKey(name)) throw new IllegalArgumentException("Shared region exists: " + name);
+
+        SharedRegion region = new SharedRegion(name, (size + 3) & ~3);
+        regions.put(name, region);
+        return region;
+    }
+
+    /**
+     * Creates region with copy of bytes.
+     *
+     * @param name
+     * @param bytes
+     * @return
+     */
+    public static SharedRegion load(String name, byte[] bytes) {
+        SharedRegion region = create(name, Math.max(bytes.length, 1));
+
+        region.writeBytes(0, bytes);
+        return region;
+    }
+
+    /**
+     * Returns region by name or null.
+     *
+     * @param name
+     * @return
+     */
+    public static synchronized SharedRegion get(String name) {
+        return regions.get(name);
+    }
+
+    /**
+     * Removes region by name. VMs, which attached it, keep using it till they are reset.
+     *
+     * @param name
+     * @return True, if region existed.
+     */
+    public static synchronized boolean remove(String name) {
+        return regions.remove(name) != null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSize() {
+        return buffer.capacity();
+    }
+
+    // Main functions, offsets are relative to the region
+
+    public void writeByte(int offset, byte value) {
+        buffer.put(offset, value);
+    }
+
+    public void writeDword(int offset, int value) {
+        buffer.putInt(offset, value);
+    }
+
+    public byte readByte(int offset) {
+        return buffer.get(offset);
+    }
+
+    public int readDword(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    /**
+     * Copies bytes to region.
+     *
+     * @param offset
+     * @param bytes
+     */
+    public void writeBytes(int offset, byte[] bytes) {
+        buffer.put(offset, bytes);
+    }
+
+    /**
+     * Copies n bytes from region.
+     *
+     * @param offset
+     * @param n
+     * @return
+     */
+    public byte[] readBytes(int offset, int n) {
+        byte[] bytes = new byte[n];
+
+        buffer.get(offset, bytes);
+        return bytes;
+    }
+
+    // Atomic functions, offset has to be aligned to 4
+
+    public int compareAndExchangeDword(int offset, int expected, int value) {
+        return (int) DWORD.compareAndExchange(buffer, offset, expected, value);
+    }
+
+    public int getAndAddDword(int offset, int value) {
+        return (int) DWORD.getAndAdd(buffer, offset, value);
+    }
+
+    public int getAndSetDword(int offset, int value) {
+        return (int) DWORD.getAndSet(buffer, offset, value);
+    }
+}
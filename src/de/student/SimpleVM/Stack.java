@@ -15,21 +15,21 @@ public class Stack {
     }
 
     /**
-     * Puiśh value on stack.
+     * Puiśh value on stack. Check isFull() before.
      *
      * @param value
      */
     public void push(int value) {
-        stackArray[++currentElements] = value;
+        stackArray[currentElements++] = value;
     }
 
     /**
-     * Pop value from stack.
+     * Pop value from stack. Check isEmpty() before.
      *
      * @return
      */
     public int pop() {
-        return stackArray[currentElements--];
+        return stackArray[--currentElements];
     }
 
     /**
@@ -55,7 +55,7 @@ public class Stack {
      */
     public void print() {
         for (int i = 0; i < currentElements; i++) {
-            System.out.println(PrintHelper.printHexNumber(i * 4) + ": " + PrintHelper.printHexNumber(stackArray[currentElements - i]));
+            System.out.println(PrintHelper.printHexNumber(i * 4) + ": " + PrintHelper.printHexNumber(stackArray[currentElements - 1 - i]));
         }
     }
 }
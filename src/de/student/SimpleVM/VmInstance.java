@@ -0,0 +1,354 @@
+package de.student.SimpleVM;
+
+import java.io.BufferedReader;
+import java.io.PrintStream;
+
+/**
+ * Registers, flags, memory and stacks for running programs. An instance is reused by resetting it,
+ * which only clears the memory written by the previous program. Instances are not thread safe.
+ * <p>
+ * Results of a run stay readable till the next input is set or the next program runs, which resets the instance.
+ */
+public class VmInstance {
+    private static final Register REGISTER_NAMES = new Register();
+
+    private CPU cpu;
+    private boolean dirty;
+    private long runtimeNanos;
+
+    /**
+     * Configured by system properties like CPU.
+     */
+    public VmInstance() {
+        this(new CPU());
+    }
+
+    /**
+     * @param returnStackSize Maximal count of nested calls.
+     * @param memoryStackSize Bytes at end of memory used as stack, 0 keeps separate stacks.
+     * @param generalPurpose  Count of general purpose registers, 6 to 32.
+     */
+    public VmInstance(int returnStackSize, int memoryStackSize, int generalPurpose) {
+        this(new CPU(returnStackSize, memoryStackSize, generalPurpose));
+    }
+
+    private VmInstance(CPU cpu) {
+        this.cpu = cpu;
+        // Faults are returned in ExecutionResult
+        this.cpu.setVerbose(false);
+    }
+
+    /**
+     * Enables coredumps on faults.
+     *
+     * @param verbose
+     * @return
+     */
+    public VmInstance setVerbose(boolean verbose) {
+        cpu.setVerbose(verbose);
+        return this;
+    }
+
+    /**
+     * Redirects console of sys functions, null restores System.in or System.out.
+     * The console is kept by reset.
+     *
+     * @param input
+     * @param output
+     * @return
+     */
+    public VmInstance setConsole(BufferedReader input, PrintStream output) {
+        cpu.setConsole(input, output);
+        return this;
+    }
+
+    /**
+     * Connects channel to id used by sys functions, null removes it. Channels are kept by reset.
+     *
+     * @param id
+     * @param channel
+     * @return
+     */
+    public VmInstance setChannel(int id, Channel channel) {
+        cpu.setChannel(id, channel);
+        return this;
+    }
+
+    /**
+     * Removes all channels.
+     *
+     * @return
+     */
+    public VmInstance clearChannels() {
+        cpu.clearChannels();
+        return this;
+    }
+
+    /**
+     * Clears registers, flags, stacks and written memory.
+     *
+     * @return
+     */
+    public VmInstance reset() {
+        cpu.resetCPU();
+        dirty = false;
+        return this;
+    }
+
+    /**
+     * Sets input register by mnemonic like "r1".
+     *
+     * @param mnemonic
+     * @param value
+     * @return
+     */
+    public VmInstance setRegister(String mnemonic, int value) {
+        return this.setRegister(toRegister(mnemonic), value);
+    }
+
+    /**
+     * Sets input register by index.
+     *
+     * @param register
+     * @param value
+     * @return
+     */
+    public VmInstance setRegister(int register, int value) {
+        if (register < 0 || register >= cpu.getRegisterCount() || register == Register.RIP) {
+            throw new IllegalArgumentException("Invalid register " + register);
+        }
+        this.prepare();
+        cpu.setRegister(register, value);
+        return this;
+    }
+
+    /**
+     * Copies input bytes to memory.
+     *
+     * @param offset
+     * @param bytes
+     * @return
+     */
+    public VmInstance writeMemory(int offset, byte[] bytes) {
+        this.checkMemory(offset, bytes.length);
+        this.prepare();
+        cpu.memory.writeBytes(offset, bytes);
+        return this;
+    }
+
+    /**
+     * Writes input string with terminating zero to memory.
+     *
+     * @param offset
+     * @param string
+     * @return
+     */
+    public VmInstance writeString(int offset, String string) {
+        byte[] bytes = string.getBytes();
+        byte[] terminated = new byte[bytes.length + 1];
+
+        System.arraycopy(bytes, 0, terminated, 0, bytes.length);
+        return this.writeMemory(offset, terminated);
+    }
+
+    /**
+     * Writes input dword to memory.
+     *
+     * @param offset
+     * @param value
+     * @return
+     */
+    public VmInstance writeDword(int offset, int value) {
+        this.checkMemory(offset, Integer.BYTES);
+        this.prepare();
+        cpu.memory.writeDword(offset, value);
+        return this;
+    }
+
+    /**
+     * Maps shared region into memory till reset, like sys function 13.
+     *
+     * @param region
+     * @return Address of region, -1 if address space is full.
+     */
+    public int attach(SharedRegion region) {
+        this.prepare();
+        return cpu.memory.attach(region);
+    }
+
+    /**
+     * Copies bytes from memory, for example results of last program.
+     *
+     * @param offset
+     * @param n
+     * @return
+     */
+    public byte[] readMemory(int offset, int n) {
+        this.checkMemory(offset, n);
+        return cpu.memory.readBytes(offset, n);
+    }
+
+    /**
+     * Reads dword from memory.
+     *
+     * @param offset
+     * @return
+     */
+    public int readDword(int offset) {
+        this.checkMemory(offset, Integer.BYTES);
+        return cpu.memory.readDword(offset);
+    }
+
+    /**
+     * Reads string till 0 from memory.
+     *
+     * @param offset
+     * @return
+     */
+    public String readString(int offset) {
+        this.checkMemory(offset, 0);
+        return cpu.memory.readString(offset);
+    }
+
+    /**
+     * Executes program with current registers and memory as input.
+     *
+     * @param program
+     * @return
+     */
+    public ExecutionResult run(Program program) {
+        this.start(program);
+        while (!this.resume(Long.MAX_VALUE)) {
+            // Yield points only end slices of a scheduler
+            this.await(Long.MAX_VALUE);
+        }
+        return this.getResult();
+    }
+
+    /**
+     * Starts program with current registers and memory as input, without executing instructions.
+     * Use resume to execute it in slices.
+     *
+     * @param program
+     * @return
+     */
+    public VmInstance start(Program program) {
+        this.prepare();
+        dirty = true;
+        runtimeNanos = 0;
+        cpu.start(program.getCode());
+        return this;
+    }
+
+    /**
+     * Continues started program, where the last slice stopped. Returns early, when the program is blocked.
+     *
+     * @param budget Maximal count of instructions.
+     * @return True, if program is finished.
+     */
+    public boolean resume(long budget) {
+        long startTime = System.nanoTime();
+        boolean finished = cpu.resume(budget);
+
+        runtimeNanos += System.nanoTime() - startTime;
+        return finished;
+    }
+
+    /**
+     * Checks if no green thread of started program can run, till a sleep ends, console input arrives or a
+     * channel is ready.
+     *
+     * @return
+     */
+    public boolean isBlocked() {
+        return cpu.isBlocked();
+    }
+
+    /**
+     * Waits till blocked program may continue, at most timeout. Returns at once, if it is not blocked.
+     *
+     * @param timeout Nanoseconds.
+     * @return
+     */
+    public VmInstance await(long timeout) {
+        long startTime = System.nanoTime();
+
+        cpu.await(timeout);
+        runtimeNanos += System.nanoTime() - startTime;
+        return this;
+    }
+
+    /**
+     * Checks if started program is finished.
+     *
+     * @return
+     */
+    public boolean isFinished() {
+        return cpu.isFinished();
+    }
+
+    /**
+     * Stops unfinished program with fault reason.
+     *
+     * @param reason
+     * @return
+     */
+    public VmInstance cancel(String reason) {
+        if (!cpu.isFinished()) cpu.abort(reason);
+        return this;
+    }
+
+    /**
+     * Returns registers, flags and statistics of started program.
+     *
+     * @return
+     */
+    public ExecutionResult getResult() {
+        return new ExecutionResult(cpu, runtimeNanos);
+    }
+
+    /**
+     * Prints registers, stack and memory of last program.
+     */
+    public void dump() {
+        cpu.dumpRegisters();
+        cpu.dumpStack();
+        cpu.dumpMemory();
+    }
+
+    // Helper
+
+    /**
+     * Resets instance, if it holds results of the last program.
+     */
+    private void prepare() {
+        if (dirty) this.reset();
+    }
+
+    /**
+     * Returns register index from mnemonic.
+     *
+     * @param mnemonic
+     * @return
+     */
+    static int toRegister(String mnemonic) {
+        int register = REGISTER_NAMES.getRegisterFromMnemonic(mnemonic.toLowerCase());
+
+        if (register == -1) {
+            throw new IllegalArgumentException("Unknown register " + mnemonic);
+        }
+        return register;
+    }
+
+    /**
+     * Checks if range is inside of memory.
+     *
+     * @param offset
+     * @param n
+     */
+    private void checkMemory(int offset, int n) {
+        if (offset < 0 || n < 0 || offset + n > cpu.memory.getSize()) {
+            throw new IllegalArgumentException("Invalid memory range " + offset + " + " + n);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package de.student.SimpleVM;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs jobs on pre-allocated VmInstances. Every job gets its own thread, which is virtual on Java 21 and newer,
+ * while the count of instances limits how many programs run at once. Instances are recycled with a reset,
+ * which only clears memory written by the previous job.
+ */
+public class VmPool implements AutoCloseable {
+    /**
+     * Default count of instances. Can be changed with property simplevm.pool.size.
+     */
+    final static int DEFAULT_SIZE = 256;
+
+    private BlockingQueue<VmInstance> instances;
+    private ExecutorService executor;
+    private boolean virtual;
+
+    /**
+     * Work done with an instance, for example setting input, running a program and reading output.
+     *
+     * @param <T>
+     */
+    public interface Job<T> {
+        T run(VmInstance vm) throws Exception;
+    }
+
+    public VmPool() {
+        this(Integer.getInteger("simplevm.pool.size", DEFAULT_SIZE));
+    }
+
+    /**
+     * @param size Count of instances, which are allocated up front.
+     */
+    public VmPool(int size) {
+        int count = Math.max(1, size);
+
+        instances = new ArrayBlockingQueue<>(count);
+        for (int i = 0; i < count; i++) {
+            instances.add(new VmInstance());
+        }
+
+        executor = newVirtualThreadExecutor();
+        virtual = (executor != null);
+        if (!virtual) executor = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Runs job with an instance, when one is free.
+     *
+     * @param job
+     * @param <T>
+     * @return
+     */
+    public <T> Future<T> submit(Job<T> job) {
+        return executor.submit(() -> this.execute(job));
+    }
+
+    /**
+     * Runs program without input.
+     *
+     * @param program
+     * @return
+     */
+    public Future<ExecutionResult> submit(Program program) {
+        return this.submit(vm -> vm.run(program));
+    }
+
+    /**
+     * Runs job with an instance on the calling thread. Waits for a free instance.
+     *
+     * @param job
+     * @param <T>
+     * @return
+     * @throws Exception
+     */
+    public <T> T execute(Job<T> job) throws Exception {
+        // Parks a virtual thread instead of blocking its carrier
+        VmInstance vm = instances.take();
+
+        try {
+            return job.run(vm);
+        } finally {
+            vm.reset().setConsole(null, null).clearChannels();
+            instances.add(vm);
+        }
+    }
+
+    /**
+     * Checks if jobs run on virtual threads.
+     *
+     * @return
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Returns count of instances, which are not in use.
+     *
+     * @return
+     */
+    public int getAvailable() {
+        return instances.size();
+    }
+
+    /**
+     * Waits for submitted jobs and stops threads.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting for long running programs
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Helper
+
+    /**
+     * Creates executor with a virtual thread per task. Looked up by reflection, so Java 17 still runs the VM.
+     *
+     * @return null, if virtual threads are not available.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
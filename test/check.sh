@@ -0,0 +1,62 @@
+#!/bin/bash
+# Runs the programs in test/check with and without optimizer and checks, that every core finished with exit
+# code 0 and without fault. Programs with a limit must not execute more instructions.
+#
+# Usage: test/check.sh [directory or jar with compiled classes, default: out]
+
+CLASSES=${1:-out}
+DIR=$(dirname "$0")/check
+FAILED=0
+
+# check <max instructions or -> <system property or -> <arguments>...
+check() {
+    local max=$1 property=$2
+    shift 2
+    local file=${@: -1}
+    local arguments=("${@:1:$#-1}")
+    local options=(-Dsimplevm.cache.size=0)
+
+    [ "$property" != "-" ] && options+=("$property")
+    local output
+    output=$(java "${options[@]}" -cp "$CLASSES" de.student.SimpleVM.Main "${arguments[@]}" "$DIR/$file" < /dev/null 2>&1)
+
+    local error=""
+    if ! grep -q "exit code" <<< "$output"; then
+        error="no exit code"
+    elif grep "exit code" <<< "$output" | grep -qv "exit code 0$"; then
+        error=$(grep "exit code" <<< "$output" | grep -v "exit code 0$" | head -n 1)
+    elif grep -q "FAULT" <<< "$output"; then
+        error=$(grep "FAULT" <<< "$output" | head -n 1)
+    elif [ "$max" != "-" ]; then
+        local executed
+        executed=$(sed -n 's/^--> Executed instructions: \([0-9]*\)$/\1/p' <<< "$output")
+        [ "${executed:-0}" -gt "$max" ] && error="$executed instructions, expected at most $max"
+    fi
+
+    if [ -n "$error" ]; then
+        echo "FAILED $file ${arguments[*]} ($error)"
+        FAILED=$((FAILED + 1))
+    else
+        echo "ok     $file ${arguments[*]}"
+    fi
+}
+
+# Optimizer passes
+check - - dataflow.vasm
+check - - -O dataflow.vasm
+check - - loops.vasm
+check - - -O loops.vasm
+check - - -O -unroll=3 loops.vasm
+check - - inline.vasm
+check 229 - -O inline.vasm
+check - -Dsimplevm.stack.memory=4096 frame.vasm
+check - -Dsimplevm.stack.memory=4096 -O frame.vasm
+
+# Cores and green threads
+check - - -smp=4 smp.vasm
+check - - -O -smp=4 smp.vasm
+check - - threads.vasm
+check - - -O threads.vasm
+
+[ "$FAILED" -eq 0 ] || { echo "$FAILED checks failed"; exit 1; }
+echo "All checks passed"